@@ -0,0 +1,221 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// Ahead-of-time compilation of a script, and the scripts it loads, into a
+// runnable jar (lox -f FILE -c OUT.jar). The jar holds the scripts'
+// optimized and resolved statements (see AstFile), and its manifest runs
+// Aot#main on top of this interpreter's classes, so running it skips
+// scanning, parsing and resolving. Loaded scripts are found by looking for
+// loadScript/loadScriptOnce calls with a literal path (or `__DIR__ + "..."`)
+// in each compiled script. Other loads are done from source as usual.
+class Aot {
+    static final String IMAGE_ENTRY = "lox/image.bin";
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    private static final int VERSION = 4; // changes with the AST nodes, see GenerateAst
+
+    // The compiled scripts of a jar, by full path
+    static class Image {
+        final String mainPath;
+        private final Map<String, byte[]> scripts = new LinkedHashMap<>();
+
+        Image(String mainPath) {
+            this.mainPath = mainPath;
+        }
+
+        // null if the script wasn't compiled
+        List<Stmt> statements(String fullPath) throws IOException {
+            byte[] bytes = scripts.get(fullPath);
+            if (bytes == null) {
+                return null;
+            }
+            return AstFile.read(bytes);
+        }
+
+        // like Lox#fullPathToScript, for the compiled scripts
+        String fullPathToScript(String fname, List<String> loadPath) {
+            List<String> candidates = new ArrayList<>();
+            if (fname.charAt(0) == '/') {
+                candidates.add(fname);
+            } else {
+                for (String path : loadPath) {
+                    candidates.add(path + "/" + fname);
+                }
+            }
+            for (String candidate : candidates) {
+                if (scripts.containsKey(candidate)) {
+                    return candidate;
+                } else if (scripts.containsKey(candidate + ".lox")) {
+                    return candidate + ".lox";
+                }
+            }
+            return null;
+        }
+
+        void write(OutputStream stream) throws IOException {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mainPath);
+            out.writeInt(scripts.size());
+            for (Map.Entry<String, byte[]> script : scripts.entrySet()) {
+                out.writeUTF(script.getKey());
+                out.writeInt(script.getValue().length);
+                out.write(script.getValue());
+            }
+            out.flush();
+        }
+
+        static Image read(InputStream stream) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a compiled Lox script, or compiled by another version");
+            }
+            Image image = new Image(in.readUTF());
+            int numScripts = in.readInt();
+            for (int i = 0; i < numScripts; i++) {
+                String path = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                image.scripts.put(path, bytes);
+            }
+            return image;
+        }
+    }
+
+    // Returns false if a script couldn't be compiled. Errors have already
+    // been reported.
+    static boolean compile(Interpreter interp, String mainPath, String jarPath) throws IOException {
+        interp.init();
+        Image image = new Image(mainPath);
+        Deque<String> toCompile = new ArrayDeque<>();
+        toCompile.add(mainPath);
+        while (!toCompile.isEmpty()) {
+            String path = toCompile.poll();
+            if (image.scripts.containsKey(path)) {
+                continue;
+            }
+            Scanner scanner = new Scanner(LoxUtil.readFile(path));
+            scanner.setFilename(path);
+            List<Token> tokens = scanner.scanTokens();
+            if (Lox.hadError) {
+                return false;
+            }
+            String dir = new File(path).getAbsoluteFile().getParentFile().getAbsolutePath();
+            for (String fname : loadedScripts(tokens, dir)) {
+                String fullPath = Lox.fullPathToScript(fname, Lox.initialLoadPath);
+                if (fullPath != null) {
+                    toCompile.add(fullPath);
+                }
+            }
+            Parser parser = new Parser(tokens);
+            parser.setNativeClassNames(interp.runtime.nativeClassNames());
+            List<Stmt> statements = parser.parse();
+            if (Lox.hadError || parser.getError() != null) {
+                return false;
+            }
+            statements = interp.prepare(statements);
+            if (statements == null) {
+                return false;
+            }
+            LoxUtil.debug("aot", "compiled " + path);
+            image.scripts.put(path, AstFile.write(statements));
+        }
+        writeJar(image, jarPath);
+        return true;
+    }
+
+    // paths given to loadScript/loadScriptOnce as a literal string, or as
+    // `__DIR__ + "literal"`
+    private static List<String> loadedScripts(List<Token> tokens, String dir) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i + 3 < tokens.size(); i++) {
+            Token tok = tokens.get(i);
+            if (tok.type != IDENTIFIER ||
+                    !(tok.lexeme.equals("loadScript") || tok.lexeme.equals("loadScriptOnce")) ||
+                    tokens.get(i+1).type != LEFT_PAREN) {
+                continue;
+            }
+            String prefix = "";
+            int strIdx = i + 2;
+            Token arg = tokens.get(strIdx);
+            if (arg.type == IDENTIFIER && arg.lexeme.equals("__DIR__") &&
+                    tokens.get(strIdx+1).type == PLUS && strIdx + 2 < tokens.size()) {
+                prefix = dir;
+                strIdx += 2;
+            }
+            Token str = tokens.get(strIdx);
+            if (!isStringLiteral(str) || strIdx + 1 >= tokens.size()) {
+                continue;
+            }
+            TokenType next = tokens.get(strIdx+1).type;
+            String fname = prefix + (String)str.literal;
+            if ((next == RIGHT_PAREN || next == COMMA) && !fname.isEmpty() &&
+                    !fname.contains("${")) {
+                ret.add(fname);
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isStringLiteral(Token tok) {
+        return tok.type == SQ_STRING || tok.type == DQ_STRING || tok.type == ST_STRING;
+    }
+
+    // The jar's Class-Path is this interpreter's class directory (or jar),
+    // so the compiled scripts run with the same Runtime and stdlib. It's an
+    // absolute file: URI, so the jar stops working if the interpreter is
+    // moved, and runs whatever classes are there after a rebuild (which
+    // reject an image of another VERSION).
+    private static void writeJar(Image image, String jarPath) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attrs = manifest.getMainAttributes();
+        attrs.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attrs.put(Attributes.Name.MAIN_CLASS, Aot.class.getName());
+        attrs.put(Attributes.Name.CLASS_PATH,
+            new File(LoxUtil.classPath(Lox.class)).toURI().toString());
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarPath), manifest)) {
+            jar.putNextEntry(new JarEntry(IMAGE_ENTRY));
+            image.write(jar);
+            jar.closeEntry();
+        }
+    }
+
+    // Runs the jar's main script. All arguments are given to it (ARGV).
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            Lox.LOX_ARGV.add(arg);
+            Lox.LOX_ARGC++;
+        }
+        Lox.initLoadPath();
+        Image image;
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(IMAGE_ENTRY)) {
+            if (in == null) {
+                System.err.println("No compiled script found (" + IMAGE_ENTRY + " missing from class path)");
+                System.exit(1);
+                return;
+            }
+            image = Image.read(in);
+        }
+        Lox.runImage(image);
+    }
+}
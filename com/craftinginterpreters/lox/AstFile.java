@@ -0,0 +1,347 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Binary format for optimized and resolved statements, so a script can be
+// run without scanning, parsing or resolving it again (see Aot). Each node
+// is its tag followed by its fields (see GenerateAst), and nodes are
+// numbered in the order they're written so the fields that point back up
+// the tree (Break#loopStmt, Function#klass, Super#classOrModStmt) can be
+// written as the number of the node they point to. Strings are written once
+// and referred to by index after that.
+class AstFile {
+    private static final byte VALUE_NIL = 0;
+    private static final byte VALUE_TRUE = 1;
+    private static final byte VALUE_FALSE = 2;
+    private static final byte VALUE_NUMBER = 3;
+    private static final byte VALUE_STRING = 4; // static string
+    private static final byte VALUE_ROPE = 5;
+
+    static byte[] write(List<Stmt> statements) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer out = new Writer(new DataOutputStream(bytes));
+        out.writeNodes(statements);
+        out.out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<Stmt> read(byte[] bytes) throws IOException {
+        Reader in = new Reader(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return in.readNodes();
+    }
+
+    static class Writer {
+        private final DataOutputStream out;
+        private final Map<Object, Integer> nodeIds = new IdentityHashMap<>();
+        private final Map<String, Integer> stringIds = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void startNode(Object node, int tag) throws IOException {
+            nodeIds.put(node, nodeIds.size());
+            out.writeByte(tag);
+        }
+
+        void writeNode(Object node) throws IOException {
+            if (node == null) {
+                out.writeByte(0);
+            } else if (node instanceof Expr) {
+                ((Expr)node).write(this);
+            } else {
+                ((Stmt)node).write(this);
+            }
+        }
+
+        void writeNodes(List<?> nodes) throws IOException {
+            out.writeInt(nodes.size());
+            for (Object node : nodes) {
+                writeNode(node);
+            }
+        }
+
+        // the node has to be written already, or be an enclosing node
+        void writeRef(Object node) throws IOException {
+            if (node == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer id = nodeIds.get(node);
+            if (id == null) {
+                throw new IOException("reference to a node outside of the tree");
+            }
+            out.writeInt(id);
+        }
+
+        void writeInt(int i) throws IOException {
+            out.writeInt(i);
+        }
+
+        void writeBoolean(boolean b) throws IOException {
+            out.writeBoolean(b);
+        }
+
+        void writeString(String str) throws IOException {
+            if (str == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer id = stringIds.get(str);
+            if (id != null) {
+                out.writeInt(id);
+                return;
+            }
+            stringIds.put(str, stringIds.size());
+            out.writeInt(-2);
+            byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+
+        void writeStrings(String[] strs) throws IOException {
+            if (strs == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(strs.length);
+            for (String str : strs) {
+                writeString(str);
+            }
+        }
+
+        void writeInts(int[] ints) throws IOException {
+            if (ints == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(ints.length);
+            for (int i : ints) {
+                out.writeInt(i);
+            }
+        }
+
+        void writeEnum(Enum<?> e) throws IOException {
+            out.writeInt(e == null ? -1 : e.ordinal());
+        }
+
+        // literal values, see Parser#primary and Optimizer
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(VALUE_NIL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean)value ? VALUE_TRUE : VALUE_FALSE);
+            } else if (value instanceof Double) {
+                out.writeByte(VALUE_NUMBER);
+                out.writeDouble((Double)value);
+            } else if (value instanceof String) {
+                out.writeByte(VALUE_STRING);
+                writeString((String)value);
+            } else if (value instanceof Rope) {
+                out.writeByte(VALUE_ROPE);
+                writeString(value.toString());
+            } else {
+                throw new IOException("can't write literal value of type " +
+                    value.getClass().getSimpleName());
+            }
+        }
+
+        void writeToken(Token tok) throws IOException {
+            if (tok == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(tok.type.ordinal());
+            writeString(tok.lexeme);
+            writeValue(tok.literal);
+            writeString(tok.file);
+            out.writeInt(tok.line);
+        }
+
+        void writeTokens(List<Token> toks) throws IOException {
+            out.writeInt(toks.size());
+            for (Token tok : toks) {
+                writeToken(tok);
+            }
+        }
+
+        void writeParams(List<Param> params) throws IOException {
+            out.writeInt(params.size());
+            for (Param param : params) {
+                writeToken(param.token);
+                writeNode(param.defaultVal);
+                out.writeBoolean(param.isSplatted);
+                out.writeBoolean(param.isKwarg);
+            }
+        }
+    }
+
+    static class Reader {
+        private static final TokenType[] TOKEN_TYPES = TokenType.values();
+        private final DataInputStream in;
+        private final List<Object> nodes = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+        // back references to nodes that are still being read, by node id
+        private final Map<Integer, List<Consumer<Object>>> pendingRefs = new HashMap<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        int nextId() {
+            nodes.add(null);
+            return nodes.size() - 1;
+        }
+
+        void define(int id, Object node) {
+            nodes.set(id, node);
+            if (!pendingRefs.isEmpty()) {
+                List<Consumer<Object>> refs = pendingRefs.remove(id);
+                if (refs != null) {
+                    for (Consumer<Object> ref : refs) {
+                        ref.accept(node);
+                    }
+                }
+            }
+        }
+
+        int readRef() throws IOException {
+            return in.readInt();
+        }
+
+        // calls `setter` with the node once it's read
+        void resolveRef(int id, Consumer<Object> setter) {
+            if (id == -1) return;
+            Object node = nodes.get(id);
+            if (node != null) {
+                setter.accept(node);
+            } else {
+                pendingRefs.computeIfAbsent(id, k -> new ArrayList<>()).add(setter);
+            }
+        }
+
+        Object readNode() throws IOException {
+            int tag = in.readUnsignedByte();
+            if (tag == 0) {
+                return null;
+            } else if (tag < Stmt.FIRST_TAG) {
+                return Expr.read(this, tag);
+            } else {
+                return Stmt.read(this, tag);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> List<T> readNodes() throws IOException {
+            int size = in.readInt();
+            List<T> ret = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ret.add((T)readNode());
+            }
+            return ret;
+        }
+
+        int readInt() throws IOException {
+            return in.readInt();
+        }
+
+        boolean readBoolean() throws IOException {
+            return in.readBoolean();
+        }
+
+        String readString() throws IOException {
+            int id = in.readInt();
+            if (id == -1) {
+                return null;
+            } else if (id >= 0) {
+                return strings.get(id);
+            }
+            byte[] utf8 = new byte[in.readInt()];
+            in.readFully(utf8);
+            String str = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(str);
+            return str;
+        }
+
+        String[] readStrings() throws IOException {
+            int size = in.readInt();
+            if (size == -1) return null;
+            String[] ret = new String[size];
+            for (int i = 0; i < size; i++) {
+                ret[i] = readString();
+            }
+            return ret;
+        }
+
+        int[] readInts() throws IOException {
+            int size = in.readInt();
+            if (size == -1) return null;
+            int[] ret = new int[size];
+            for (int i = 0; i < size; i++) {
+                ret[i] = in.readInt();
+            }
+            return ret;
+        }
+
+        <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+            int ordinal = in.readInt();
+            return ordinal == -1 ? null : values[ordinal];
+        }
+
+        Object readValue() throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case VALUE_NIL: return null;
+                case VALUE_TRUE: return true;
+                case VALUE_FALSE: return false;
+                case VALUE_NUMBER: return in.readDouble();
+                case VALUE_STRING: return readString();
+                case VALUE_ROPE: return Rope.of(readString());
+                default: throw new IOException("bad literal value type: " + type);
+            }
+        }
+
+        Token readToken() throws IOException {
+            int type = in.readInt();
+            if (type == -1) return null;
+            String lexeme = readString();
+            Object literal = readValue();
+            String file = readString();
+            int line = in.readInt();
+            return new Token(TOKEN_TYPES[type], lexeme, literal, file, line);
+        }
+
+        List<Token> readTokens() throws IOException {
+            int size = in.readInt();
+            List<Token> ret = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ret.add(readToken());
+            }
+            return ret;
+        }
+
+        List<Param> readParams() throws IOException {
+            int size = in.readInt();
+            List<Param> ret = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Token tok = readToken();
+                Expr defaultVal = (Expr)readNode();
+                boolean isSplatted = in.readBoolean();
+                boolean isKwarg = in.readBoolean();
+                ret.add(new Param(tok, defaultVal, isSplatted, isKwarg));
+            }
+            return ret;
+        }
+    }
+}
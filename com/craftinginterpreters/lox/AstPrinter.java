@@ -112,16 +112,6 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return expr.accept(this);
     }
 
-    @Override
-    public void beforeVisit(Object obj) {
-        // do nothing
-    }
-
-    @Override
-    public void afterVisit(Object obj) {
-        // do nothing
-    }
-
     @Override
     public String visitExpressionStmt(Stmt.Expression stmt) {
         return indent() + exprToString(stmt.expression);
@@ -441,7 +431,7 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     @Override
     public String visitLiteralExpr(Expr.Literal expr) {
         if (expr.value == null) return "nil";
-        if (expr.value instanceof StringBuffer) {
+        if (expr.value instanceof Rope) {
             return "\"" + expr.value.toString() + "\"";
         } else {
             return expr.value.toString();
@@ -458,10 +448,9 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         StringBuilder builder = new StringBuilder();
         builder.append("(var ").append(expr.name.lexeme);
         if (resolver != null) {
-            Integer resolveDist = resolver.interpreter.locals.get(expr);
             String resolveDistStr = "global";
-            if (resolveDist != null) {
-                resolveDistStr = resolveDist.toString();
+            if (expr.depth >= 0) {
+                resolveDistStr = String.valueOf(expr.depth);
             }
             builder.append(" [dist " + resolveDistStr + "]");
         }
@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+
+// How a function's parameters receive the arguments of a call, worked out
+// once from the declaration (see BindingPlan#of). Positional arguments go
+// to the positional parameters in order, the splat parameter gets the rest
+// of them and keyword parameters are looked up by name.
+class BindingPlan {
+    final int arityMin;
+    final int arityMax; // negative if there's no max
+    // parameter indices of the parameters that aren't keyword or splat
+    // parameters, and their default values (null if they don't have one)
+    final int[] positional;
+    final Expr[] positionalDefaults;
+    final int splat; // parameter index, or -1
+    final String[] kwargNames;
+    final int[] kwargParams; // parameter indices
+    final Expr[] kwargDefaults;
+    // only positional parameters without default values
+    final boolean isSimple;
+
+    private BindingPlan(List<Param> formals) {
+        int numPositional = 0;
+        int numKwargs = 0;
+        int splat = -1;
+        int arityMin = 0;
+        for (int i = 0; i < formals.size(); i++) {
+            Param param = formals.get(i);
+            if (param.mustReceiveArgument()) {
+                arityMin++;
+            }
+            if (param.isSplatted) {
+                splat = i;
+            } else if (param.isKwarg) {
+                numKwargs++;
+            } else {
+                numPositional++;
+            }
+        }
+        this.arityMin = arityMin;
+        this.arityMax = splat >= 0 ? -1 : formals.size();
+        this.splat = splat;
+        this.positional = new int[numPositional];
+        this.positionalDefaults = new Expr[numPositional];
+        this.kwargNames = new String[numKwargs];
+        this.kwargParams = new int[numKwargs];
+        this.kwargDefaults = new Expr[numKwargs];
+        boolean hasDefaults = false;
+        int posIdx = 0;
+        int kwIdx = 0;
+        for (int i = 0; i < formals.size(); i++) {
+            Param param = formals.get(i);
+            if (param.isSplatted) {
+                continue;
+            }
+            if (param.isKwarg) {
+                kwargNames[kwIdx] = param.varName();
+                kwargParams[kwIdx] = i;
+                kwargDefaults[kwIdx] = param.defaultVal;
+                kwIdx++;
+            } else {
+                positional[posIdx] = i;
+                positionalDefaults[posIdx] = param.defaultVal;
+                hasDefaults = hasDefaults || param.defaultVal != null;
+                posIdx++;
+            }
+        }
+        this.isSimple = splat < 0 && numKwargs == 0 && !hasDefaults;
+    }
+
+    static BindingPlan of(Stmt.Function decl) {
+        if (decl.plan == null) {
+            decl.plan = new BindingPlan(decl.formals);
+        }
+        return decl.plan;
+    }
+
+    boolean hasKwarg(String name) {
+        for (String kwargName : kwargNames) {
+            if (kwargName.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The number of keyword arguments a call with `kwargs` gets, counting
+    // every keyword parameter as given (they default to nil). Used for
+    // arity checks.
+    int numKwargsGiven(Map<String,Object> kwargs) {
+        int num = kwargNames.length;
+        for (String name : kwargs.keySet()) {
+            if (!hasKwarg(name)) {
+                num++;
+            }
+        }
+        return num;
+    }
+}
@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A compiled unit of bytecode for the VM. Instructions are ints, with their
+// operands following them inline in `code`. AST nodes needed for error
+// reporting or for falling back to the tree-walker live in `constants`.
+class Chunk {
+    // constants and literals
+    static final int OP_CONST = 0;
+    static final int OP_NIL = 1;
+    static final int OP_TRUE = 2;
+    static final int OP_FALSE = 3;
+    static final int OP_LITERAL = 4;
+    static final int OP_POP = 5;
+    // variables
+    static final int OP_GET_LOCAL = 6;
+    static final int OP_SET_LOCAL = 7;
+    static final int OP_GET_GLOBAL = 8;
+    static final int OP_SET_GLOBAL = 9;
+    static final int OP_DEFINE = 10;
+    // operators
+    static final int OP_ADD = 11;
+    static final int OP_SUBTRACT = 12;
+    static final int OP_MULTIPLY = 13;
+    static final int OP_DIVIDE = 14;
+    static final int OP_GREATER = 15;
+    static final int OP_GREATER_EQUAL = 16;
+    static final int OP_LESS = 17;
+    static final int OP_LESS_EQUAL = 18;
+    static final int OP_EQUAL = 19;
+    static final int OP_NOT_EQUAL = 20;
+    static final int OP_NOT = 21;
+    static final int OP_NEGATE = 22;
+    // control flow
+    static final int OP_JUMP = 23;
+    static final int OP_JUMP_IF_FALSE = 24;
+    static final int OP_JUMP_IF_FALSE_KEEP = 25;
+    static final int OP_JUMP_IF_TRUE_KEEP = 26;
+    static final int OP_RETURN = 27;
+    // objects and calls
+    static final int OP_CALL = 28;
+    static final int OP_GET_PROP = 29;
+    static final int OP_CHECK_PROP_TARGET = 30;
+    static final int OP_SET_PROP = 31;
+    static final int OP_CHECK_INDEX_TARGET = 32;
+    static final int OP_INDEX_GET = 33;
+    static final int OP_INDEX_SET = 34;
+    static final int OP_ARRAY = 35;
+    // statements
+    static final int OP_PRINT = 36;
+    static final int OP_PUSH_ENV = 37;
+    static final int OP_POP_ENV = 38;
+    // fall back to the tree-walking interpreter
+    static final int OP_EVAL = 39;
+    static final int OP_EXEC = 40;
+    // method calls: `obj.name(args)` calls the method with `obj` as receiver
+    static final int OP_GET_METHOD = 41;
+    static final int OP_INVOKE = 42;
+
+    int[] code = new int[64];
+    int count = 0;
+    Object[] constants = new Object[16];
+    int constCount = 0;
+    int maxStack = 0;
+
+    int emit(int op) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[count] = op;
+        return count++;
+    }
+
+    int emit(int op, int operand) {
+        emit(op);
+        return emit(operand);
+    }
+
+    int addConstant(Object value) {
+        if (constCount == constants.length) {
+            constants = Arrays.copyOf(constants, constants.length * 2);
+        }
+        constants[constCount] = value;
+        return constCount++;
+    }
+
+    // patch the jump operand at `operandIdx` to point at the next instruction
+    void patchJump(int operandIdx) {
+        code[operandIdx] = count;
+    }
+
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        constants = Arrays.copyOf(constants, constCount);
+    }
+}
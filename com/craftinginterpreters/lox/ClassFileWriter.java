@@ -0,0 +1,449 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes the JVM class files of the classes generated by JitCompiler (see
+// chapter 4 of the JVM specification), supporting only what it needs. The
+// class file version is 49 (Java 5), the last one without StackMapTable
+// attributes: the JVM verifies these classes by type inference instead, so
+// the code doesn't have to describe its stack frames.
+class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int DRETURN = 0xaf;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // The code is too big or uses too many locals to be encoded
+    static class TooLarge extends RuntimeException {
+        TooLarge(String msg) {
+            super(msg);
+        }
+    }
+
+    private final List<byte[]> constants = new ArrayList<>();
+    private final Map<String,Integer> constantIndices = new HashMap<>();
+    private int constantCount = 1; // index 0 isn't used
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<Method> methods = new ArrayList<>();
+
+    // class names are internal names, ex: "java/lang/Object"
+    ClassFileWriter(String className, String superName, String... interfaceNames) {
+        this.thisClass = classRef(className);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    Method method(int access, String name, String descriptor) {
+        Method method = new Method(access, utf8(name), utf8(descriptor), descriptor);
+        methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int codeAttr = utf8("Code");
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); // minor version
+            out.writeShort(49); // major version
+            out.writeShort(constantCount);
+            for (byte[] constant : constants) {
+                out.write(constant);
+            }
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int iface : interfaces) {
+                out.writeShort(iface);
+            }
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                method.write(out, codeAttr);
+            }
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new RuntimeException(e); // can't happen, it's written to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    // Constant pool entries are shared, the key identifies an entry's contents
+    private int constant(String key, int size, byte[] entry) {
+        Integer idx = constantIndices.get(key);
+        if (idx != null) {
+            return idx;
+        }
+        idx = constantCount;
+        constants.add(entry);
+        constantIndices.put(key, idx);
+        constantCount += size;
+        if (constantCount > 0xFFFF) {
+            throw new TooLarge("too many constants");
+        }
+        return idx;
+    }
+
+    private static byte[] entry(int tag, int... u2s) {
+        byte[] entry = new byte[1 + u2s.length * 2];
+        entry[0] = (byte)tag;
+        for (int i = 0; i < u2s.length; i++) {
+            entry[1 + i*2] = (byte)(u2s[i] >> 8);
+            entry[2 + i*2] = (byte)u2s[i];
+        }
+        return entry;
+    }
+
+    int utf8(String str) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(str);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return constant("Utf8 " + str, 1, bytes.toByteArray());
+    }
+
+    int classRef(String name) {
+        return constant("Class " + name, 1, entry(CONSTANT_CLASS, utf8(name)));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return constant("NameAndType " + name + " " + descriptor, 1,
+            entry(CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor)));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return constant("Methodref " + owner + "." + name + descriptor, 1,
+            entry(CONSTANT_METHODREF, classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return constant("Fieldref " + owner + "." + name + ":" + descriptor, 1,
+            entry(CONSTANT_FIELDREF, classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    // takes two constant pool indices
+    int doubleConst(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        byte[] entry = new byte[9];
+        entry[0] = (byte)CONSTANT_DOUBLE;
+        for (int i = 0; i < 8; i++) {
+            entry[1 + i] = (byte)(bits >> (56 - i*8));
+        }
+        return constant("Double " + bits, 2, entry);
+    }
+
+    // The number of stack (or local variable) slots taken by values of the
+    // descriptor's type: longs and doubles take 2
+    static int slotSize(char descriptorChar) {
+        switch (descriptorChar) {
+            case 'V': return 0;
+            case 'J': case 'D': return 2;
+            default: return 1;
+        }
+    }
+
+    // A position in a method's code that jumps go to. Code is generated in
+    // source order, so the stack depth at a label is the one at the jumps to
+    // it, which is used after code that doesn't fall through to it.
+    static class Label {
+        private int pos = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>(); // jump instruction positions
+    }
+
+    // A method and its code. It keeps track of the stack depth, to compute
+    // the max stack size the JVM needs.
+    class Method {
+        private final int access;
+        private final int nameIdx;
+        private final int descIdx;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private final List<Label[]> handlers = new ArrayList<>(); // start, end, handler
+        private final List<Integer> handlerTypes = new ArrayList<>();
+
+        private Method(int access, int nameIdx, int descIdx, String descriptor) {
+            this.access = access;
+            this.nameIdx = nameIdx;
+            this.descIdx = descIdx;
+            this.maxLocals = argSlots(descriptor) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        // makes sure `index` (and the slot after it, for doubles) is counted
+        void useLocal(int index, int size) {
+            if (index + size > 255) {
+                throw new TooLarge("too many local variables");
+            }
+            maxLocals = Math.max(maxLocals, index + size);
+        }
+
+        private void u1(int b) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = (byte)b;
+        }
+
+        private void u2(int s) {
+            u1(s >> 8);
+            u1(s);
+        }
+
+        private void adjustStack(int delta) {
+            stack += delta;
+            if (stack > maxStack) {
+                maxStack = stack;
+            }
+        }
+
+        // instructions without operands
+        void op(int opcode) {
+            u1(opcode);
+            adjustStack(stackEffect(opcode));
+        }
+
+        void load(int opcode, int index) {
+            int size = opcode == DLOAD ? 2 : 1;
+            useLocal(index, size);
+            u1(opcode);
+            u1(index);
+            adjustStack(size);
+        }
+
+        void store(int opcode, int index) {
+            int size = opcode == DSTORE ? 2 : 1;
+            useLocal(index, size);
+            u1(opcode);
+            u1(index);
+            adjustStack(-size);
+        }
+
+        void pushInt(int value) {
+            if (value >= 0 && value <= 5) {
+                op(ICONST_0 + value);
+            } else {
+                u1(BIPUSH);
+                u1(value);
+                adjustStack(1);
+            }
+        }
+
+        void pushDouble(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (bits == 0L) { // not -0.0
+                op(DCONST_0);
+            } else if (value == 1.0) {
+                op(DCONST_1);
+            } else {
+                u1(LDC2_W);
+                u2(doubleConst(value));
+                adjustStack(2);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(methodRef(owner, name, descriptor));
+            int delta = returnSlots(descriptor) - argSlots(descriptor);
+            if (opcode != INVOKESTATIC) {
+                delta--; // the receiver
+            }
+            adjustStack(delta);
+        }
+
+        void getStatic(String owner, String name, String descriptor) {
+            u1(GETSTATIC);
+            u2(fieldRef(owner, name, descriptor));
+            adjustStack(slotSize(descriptor.charAt(0)));
+        }
+
+        void checkCast(String className) {
+            u1(CHECKCAST);
+            u2(classRef(className));
+        }
+
+        void jump(int opcode, Label label) {
+            adjustStack(stackEffect(opcode));
+            label.stack = stack;
+            label.jumps.add(length);
+            u1(opcode);
+            if (label.pos >= 0) {
+                u2(offset(length - 1, label.pos));
+            } else {
+                u2(0); // patched by mark()
+            }
+        }
+
+        void mark(Label label) {
+            label.pos = length;
+            for (int jumpPos : label.jumps) {
+                int offset = offset(jumpPos, label.pos);
+                code[jumpPos + 1] = (byte)(offset >> 8);
+                code[jumpPos + 2] = (byte)offset;
+            }
+            if (label.stack >= 0) {
+                stack = label.stack;
+            }
+        }
+
+        // Exceptions of class `type` thrown by the code from `start` to `end`
+        // jump to `handler`, with the exception on the stack. The labels are
+        // marked later.
+        void handler(Label start, Label end, Label handler, String type) {
+            handler.stack = 1;
+            handlers.add(new Label[] { start, end, handler });
+            handlerTypes.add(classRef(type));
+        }
+
+        private int offset(int from, int to) {
+            int offset = to - from;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new TooLarge("jump too far");
+            }
+            return offset;
+        }
+
+        private void write(DataOutputStream out, int codeAttr) throws IOException {
+            if (length > 0xFFFF) {
+                throw new TooLarge("method too long");
+            }
+            out.writeShort(access);
+            out.writeShort(nameIdx);
+            out.writeShort(descIdx);
+            out.writeShort(1); // attributes
+            out.writeShort(codeAttr);
+            out.writeInt(12 + length + 8 * handlers.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(handlers.size()); // exception table
+            for (int i = 0; i < handlers.size(); i++) {
+                Label[] labels = handlers.get(i);
+                out.writeShort(labels[0].pos);
+                out.writeShort(labels[1].pos);
+                out.writeShort(labels[2].pos);
+                out.writeShort(handlerTypes.get(i));
+            }
+            out.writeShort(0); // attributes
+        }
+    }
+
+    private static int stackEffect(int opcode) {
+        switch (opcode) {
+            case ICONST_0: case ICONST_1: case ICONST_0 + 2: case ICONST_0 + 3:
+            case ICONST_0 + 4: case ICONST_0 + 5: case DUP:
+                return 1;
+            case DCONST_0: case DCONST_1: case DUP2:
+                return 2;
+            case AALOAD: case POP: case IXOR: case IRETURN: case ARETURN: case ATHROW:
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+                return -1;
+            case POP2: case DADD: case DSUB: case DMUL: case DDIV: case DRETURN:
+            case IF_ICMPEQ: case IF_ICMPNE:
+                return -2;
+            case DCMPL: case DCMPG: case AASTORE:
+                return -3;
+            case DNEG: case GOTO: case RETURN:
+                return 0;
+            default:
+                throw new IllegalArgumentException("unsupported opcode: " + opcode);
+        }
+    }
+
+    // the number of slots taken by the arguments of a method descriptor,
+    // ex: "(DZ)D" takes 3
+    private static int argSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            slots += slotSize(c);
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            i++;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        return slotSize(descriptor.charAt(descriptor.indexOf(')') + 1));
+    }
+}
@@ -0,0 +1,545 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles resolved statements into a Chunk of bytecode for the VM. Nodes
+// that aren't worth compiling (declarations of classes, modules and
+// functions, try/catch, foreach, etc.) are compiled to OP_EXEC/OP_EVAL
+// instructions, which hand the node back to the tree-walking interpreter.
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Interpreter interp;
+    private Chunk chunk = null;
+    private boolean inFunction = false;
+    private int stackSize = 0;
+    private int envDepth = 0; // number of environments pushed by OP_PUSH_ENV
+    private Loop loop = null; // innermost compiled loop
+
+    private static class Loop {
+        final Loop enclosing;
+        final int envDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int envDepth) {
+            this.enclosing = enclosing;
+            this.envDepth = envDepth;
+        }
+    }
+
+    Compiler(Interpreter interp) {
+        this.interp = interp;
+    }
+
+    Chunk compileScript(List<Stmt> statements) {
+        return compile(statements, false);
+    }
+
+    Chunk compileFunction(List<Stmt> statements) {
+        return compile(statements, true);
+    }
+
+    private Chunk compile(List<Stmt> statements, boolean inFunction) {
+        this.chunk = new Chunk();
+        this.inFunction = inFunction;
+        for (Stmt stmt : statements) {
+            compile(stmt);
+        }
+        chunk.finish();
+        return chunk;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // keep track of the stack size, so the VM can allocate the stack up front
+    private void push(int n) {
+        stackSize += n;
+        if (stackSize > chunk.maxStack) {
+            chunk.maxStack = stackSize;
+        }
+    }
+
+    private void pop(int n) {
+        stackSize -= n;
+    }
+
+    private int node(Object exprOrStmt) {
+        return chunk.addConstant(exprOrStmt);
+    }
+
+    // hand the expression over to the tree-walker
+    private void eval(Expr expr) {
+        chunk.emit(Chunk.OP_EVAL, node(expr));
+        push(1);
+    }
+
+    // hand the statement over to the tree-walker. If we're in a compiled
+    // loop, `break` and `continue` statements executed by the tree-walker
+    // need to jump to this loop's targets.
+    private void exec(Stmt stmt) {
+        chunk.emit(Chunk.OP_EXEC, node(stmt));
+        if (loop == null) {
+            chunk.emit(-1);
+            chunk.emit(-1);
+            chunk.emit(0);
+        } else {
+            loop.breakJumps.add(chunk.emit(-1));
+            loop.continueJumps.add(chunk.emit(-1));
+            chunk.emit(envDepth - loop.envDepth);
+        }
+    }
+
+    private void emitPopEnvs(int n) {
+        for (int i = 0; i < n; i++) {
+            chunk.emit(Chunk.OP_POP_ENV);
+        }
+    }
+
+    private void patchJumps(List<Integer> jumps, int target) {
+        for (int operandIdx : jumps) {
+            chunk.code[operandIdx] = target;
+        }
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            chunk.emit(Chunk.OP_NIL);
+        } else if (expr.value instanceof Boolean) {
+            chunk.emit((Boolean)expr.value ? Chunk.OP_TRUE : Chunk.OP_FALSE);
+        } else if (expr.value instanceof Double) {
+            chunk.emit(Chunk.OP_CONST, chunk.addConstant(expr.value));
+        } else { // strings are new objects every time they're evaluated
+            chunk.emit(Chunk.OP_LITERAL, node(expr));
+        }
+        push(1);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr el : expr.expressions) {
+            compile(el);
+        }
+        chunk.emit(Chunk.OP_ARRAY, expr.expressions.size());
+        chunk.emit(node(expr));
+        pop(expr.expressions.size());
+        push(1);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexedGetExpr(Expr.IndexedGet expr) {
+        compile(expr.left);
+        chunk.emit(Chunk.OP_CHECK_INDEX_TARGET, node(expr));
+        compile(expr.indexExpr);
+        chunk.emit(Chunk.OP_INDEX_GET, node(expr));
+        pop(1);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexedSetExpr(Expr.IndexedSet expr) {
+        compile(expr.left);
+        chunk.emit(Chunk.OP_CHECK_INDEX_TARGET, node(expr));
+        compile(expr.indexExpr);
+        compile(expr.value);
+        chunk.emit(Chunk.OP_INDEX_SET, node(expr));
+        pop(2);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            chunk.emit(Chunk.OP_NOT);
+        } else {
+            chunk.emit(Chunk.OP_NEGATE, node(expr));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        int op;
+        switch (expr.operator.type) {
+            case PLUS: op = Chunk.OP_ADD; break;
+            case MINUS: op = Chunk.OP_SUBTRACT; break;
+            case STAR: op = Chunk.OP_MULTIPLY; break;
+            case SLASH: op = Chunk.OP_DIVIDE; break;
+            case GREATER: op = Chunk.OP_GREATER; break;
+            case GREATER_EQUAL: op = Chunk.OP_GREATER_EQUAL; break;
+            case LESS: op = Chunk.OP_LESS; break;
+            case LESS_EQUAL: op = Chunk.OP_LESS_EQUAL; break;
+            case EQUAL_EQUAL: op = Chunk.OP_EQUAL; break;
+            case BANG_EQUAL: op = Chunk.OP_NOT_EQUAL; break;
+            default:
+                eval(expr);
+                return null;
+        }
+        compile(expr.left);
+        compile(expr.right);
+        chunk.emit(op, node(expr));
+        pop(1);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int jump;
+        if (expr.operator.type == TokenType.OR) {
+            jump = chunk.emit(Chunk.OP_JUMP_IF_TRUE_KEEP, -1);
+        } else {
+            jump = chunk.emit(Chunk.OP_JUMP_IF_FALSE_KEEP, -1);
+        }
+        chunk.emit(Chunk.OP_POP);
+        pop(1);
+        compile(expr.right);
+        chunk.patchJump(jump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            chunk.emit(Chunk.OP_GET_LOCAL, expr.depth);
+            chunk.emit(expr.slot);
+        } else {
+            chunk.emit(Chunk.OP_GET_GLOBAL, node(expr));
+        }
+        push(1);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if (expr.depth >= 0) {
+            chunk.emit(Chunk.OP_SET_LOCAL, expr.depth);
+            chunk.emit(expr.slot);
+        } else {
+            chunk.emit(Chunk.OP_SET_GLOBAL, node(expr));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        for (Expr arg : expr.args) {
+            if (arg instanceof Expr.SplatCall || arg instanceof Expr.KeywordArg) {
+                eval(expr);
+                return null;
+            }
+        }
+        if (expr.left instanceof Expr.PropAccess) {
+            // leaves the callee and the receiver (or nil) on the stack
+            Expr.PropAccess prop = (Expr.PropAccess)expr.left;
+            compile(prop.left);
+            chunk.emit(Chunk.OP_GET_METHOD, node(prop));
+            push(1);
+            for (Expr arg : expr.args) {
+                compile(arg);
+            }
+            chunk.emit(Chunk.OP_INVOKE, expr.args.size());
+            chunk.emit(node(expr));
+            pop(expr.args.size() + 1);
+            return null;
+        }
+        compile(expr.left);
+        for (Expr arg : expr.args) {
+            compile(arg);
+        }
+        chunk.emit(Chunk.OP_CALL, expr.args.size());
+        chunk.emit(node(expr));
+        pop(expr.args.size());
+        return null;
+    }
+
+    @Override
+    public Void visitAnonFnExpr(Expr.AnonFn expr) {
+        eval(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitPropAccessExpr(Expr.PropAccess expr) {
+        compile(expr.left);
+        chunk.emit(Chunk.OP_GET_PROP, node(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitPropSetExpr(Expr.PropSet expr) {
+        if (expr.object instanceof Expr.Super) {
+            eval(expr);
+            return null;
+        }
+        compile(expr.object);
+        chunk.emit(Chunk.OP_CHECK_PROP_TARGET, node(expr));
+        compile(expr.value);
+        chunk.emit(Chunk.OP_SET_PROP, node(expr));
+        pop(1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (expr.depth < 0) {
+            eval(expr);
+            return null;
+        }
+        chunk.emit(Chunk.OP_GET_LOCAL, expr.depth);
+        chunk.emit(expr.slot);
+        push(1);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        eval(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitSplatCallExpr(Expr.SplatCall expr) {
+        eval(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitKeywordArgExpr(Expr.KeywordArg expr) {
+        eval(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        chunk.emit(Chunk.OP_POP);
+        pop(1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        chunk.emit(Chunk.OP_PRINT);
+        pop(1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // multiple variables can be destructured from an array, leave that
+        // to the tree-walker
+        if (stmt.names.size() > 1) {
+            exec(stmt);
+            return null;
+        }
+        if (stmt.initializers.size() > 0 && stmt.initializers.get(0) != null) {
+            compile(stmt.initializers.get(0));
+        } else {
+            chunk.emit(Chunk.OP_NIL);
+            push(1);
+        }
+        int slot = stmt.slots == null ? -1 : stmt.slots[0];
+        chunk.emit(Chunk.OP_DEFINE, slot);
+        chunk.emit(node(stmt.names.get(0)));
+        pop(1);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        pushEnv(stmt.slotNames);
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        popEnv(stmt.slotNames);
+        return null;
+    }
+
+    // blocks and for loops that declare nothing have no environment (their
+    // slotNames are null, see Resolver)
+    private void pushEnv(String[] slotNames) {
+        if (slotNames != null) {
+            chunk.emit(Chunk.OP_PUSH_ENV, node(slotNames));
+            envDepth++;
+        }
+    }
+
+    private void popEnv(String[] slotNames) {
+        if (slotNames != null) {
+            envDepth--;
+            chunk.emit(Chunk.OP_POP_ENV);
+        }
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int elseJump = chunk.emit(Chunk.OP_JUMP_IF_FALSE, -1);
+        pop(1);
+        compile(stmt.ifBranch);
+        if (stmt.elseBranch != null) {
+            int endJump = chunk.emit(Chunk.OP_JUMP, -1);
+            chunk.patchJump(elseJump);
+            compile(stmt.elseBranch);
+            chunk.patchJump(endJump);
+        } else {
+            chunk.patchJump(elseJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count;
+        compile(stmt.condition);
+        int exitJump = chunk.emit(Chunk.OP_JUMP_IF_FALSE, -1);
+        pop(1);
+        this.loop = new Loop(loop, envDepth);
+        compile(stmt.body);
+        chunk.emit(Chunk.OP_JUMP, loopStart);
+        chunk.patchJump(exitJump);
+        patchJumps(loop.continueJumps, loopStart);
+        patchJumps(loop.breakJumps, chunk.count);
+        this.loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // so that (var i = 0) initializer is not leaked to outer scope
+        pushEnv(stmt.slotNames);
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        }
+        int loopStart = chunk.count;
+        int exitJump = -1;
+        if (stmt.test != null) {
+            compile(stmt.test);
+            exitJump = chunk.emit(Chunk.OP_JUMP_IF_FALSE, -1);
+            pop(1);
+        }
+        this.loop = new Loop(loop, envDepth);
+        compile(stmt.body);
+        int continueTarget = chunk.count;
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            chunk.emit(Chunk.OP_POP);
+            pop(1);
+        }
+        chunk.emit(Chunk.OP_JUMP, loopStart);
+        if (exitJump != -1) {
+            chunk.patchJump(exitJump);
+        }
+        patchJumps(loop.continueJumps, continueTarget);
+        patchJumps(loop.breakJumps, chunk.count);
+        this.loop = loop.enclosing;
+        popEnv(stmt.slotNames);
+        return null;
+    }
+
+    @Override
+    public Void visitForeachStmt(Stmt.Foreach stmt) {
+        exec(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (loop == null) {
+            exec(stmt);
+            return null;
+        }
+        emitPopEnvs(envDepth - loop.envDepth);
+        loop.continueJumps.add(chunk.emit(Chunk.OP_JUMP, -1));
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (loop == null) {
+            exec(stmt);
+            return null;
+        }
+        emitPopEnvs(envDepth - loop.envDepth);
+        loop.breakJumps.add(chunk.emit(Chunk.OP_JUMP, -1));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        exec(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // outside of functions, let the tree-walker report the error
+        if (!inFunction) {
+            exec(stmt);
+            return null;
+        }
+        if (stmt.expression != null) {
+            compile(stmt.expression);
+        } else {
+            chunk.emit(Chunk.OP_NIL);
+            push(1);
+        }
+        chunk.emit(Chunk.OP_RETURN);
+        pop(1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        exec(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitModuleStmt(Stmt.Module stmt) {
+        exec(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.Try stmt) {
+        exec(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitCatchStmt(Stmt.Catch stmt) {
+        exec(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitThrowStmt(Stmt.Throw stmt) {
+        exec(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitInStmt(Stmt.In stmt) {
+        exec(stmt);
+        return null;
+    }
+}
@@ -244,7 +244,7 @@ class Debugger {
                     } else if (scopeIdx == 0) {
                         scopeStr = " (local)";
                     }
-                    Iterator iter = curEnv.values.entrySet().iterator();
+                    Iterator iter = curEnv.getValues().entrySet().iterator();
                     boolean hasAtLeast1Var = false;
                     while (iter.hasNext()) {
                         Map.Entry<String,Object> pair = (Map.Entry<String,Object>)iter.next();
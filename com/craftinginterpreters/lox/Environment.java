@@ -1,13 +1,31 @@
 package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+// Variables declared in a resolved scope live in `slots`, at the index the
+// Resolver gave them. `slotNames` is that scope's layout, shared by every
+// environment created for it. Names not known to the Resolver (globals,
+// `this` of native methods, `alias`ed functions, etc.) go in `values`, each
+// in its own Cell. Nodes that refer to a global keep its cell once they've
+// run (see Interpreter#readGlobal), so they only look up its name once.
 class Environment {
-  public final Map<String, Object> values = new HashMap<>();
-  public final Map<String, Stmt.Function> functions = new HashMap<>();
+  public static final String[] EMPTY_LAYOUT = new String[0];
+  public static final String[] THIS_LAYOUT = new String[] { "this" };
+
+  public final Object[] slots;
+  public final String[] slotNames;
+  private Map<String, Cell> values = null;
   public final Environment enclosing;
 
+  // value of a cell that was made for a name before it was defined
+  static final Object UNDEFINED = new Object();
+
+  static final class Cell {
+      Object value = UNDEFINED;
+  }
+
   public static class VariableNotFound extends RuntimeError {
       VariableNotFound(Token tok, String msg) {
           super(tok, msg);
@@ -15,66 +33,102 @@ class Environment {
   }
 
   Environment() {
-      enclosing = null;
+      this(null, EMPTY_LAYOUT);
   }
 
   Environment(Environment enclosing) {
-      this.enclosing = enclosing;
+      this(enclosing, EMPTY_LAYOUT);
   }
 
-  public void define(String name, Object value) {
-      values.put(name, value);
+  Environment(Environment enclosing, String[] slotNames) {
+      this.enclosing = enclosing;
+      if (slotNames == null) {
+          slotNames = EMPTY_LAYOUT;
+      }
+      this.slotNames = slotNames;
+      this.slots = new Object[slotNames.length];
   }
 
-  // assign an already defined name
-  public void assign(Token name, Object value, boolean assignOuter) {
-      if (values.containsKey(name.lexeme)) {
-          values.put(name.lexeme, value);
-          return;
+  private int slotIndex(String name) {
+      for (int i = 0; i < slotNames.length; i++) {
+          if (slotNames[i].equals(name)) {
+              return i;
+          }
       }
+      return -1;
+  }
 
-      if (enclosing != null && assignOuter) {
-          enclosing.assign(name, value, true);
+  public void define(String name, Object value) {
+      int slot = slotIndex(name);
+      if (slot >= 0) {
+          slots[slot] = value;
           return;
       }
-
-      throw new VariableNotFound(name,
-          "Undefined variable '" + name.lexeme + "' (assignment). To define the variable, " +
-          "keyword 'var' must be used");
+      cell(name).value = value;
   }
 
-  public void defineFunction(Token name, Stmt.Function fnStmt) {
-      functions.put(name.lexeme, fnStmt);
+  // The cell of a name that isn't in the slots. It's made, undefined, if
+  // the name isn't defined yet.
+  Cell cell(String name) {
+      if (values == null) {
+          values = new HashMap<>();
+      }
+      Cell cell = values.get(name);
+      if (cell == null) {
+          cell = new Cell();
+          values.put(name, cell);
+      }
+      return cell;
   }
 
-  public Stmt.Function getFunction(String name) {
-      if (functions.containsKey(name)) {
-          return functions.get(name);
+  private Cell definedCell(String name) {
+      if (values == null) {
+          return null;
       }
-
-      if (enclosing != null) {
-          return enclosing.getFunction(name);
+      Cell cell = values.get(name);
+      if (cell == null || cell.value == UNDEFINED) {
+          return null;
       }
+      return cell;
+  }
 
-      return null;
+  public void defineAt(int slot, Object value) {
+      slots[slot] = value;
   }
 
-  public Object get(Token name, boolean checkEnclosing) {
-      if (values.containsKey(name.lexeme)) {
-          return values.get(name.lexeme);
+  private boolean hasName(String name) {
+      return slotIndex(name) >= 0 || definedCell(name) != null;
+  }
+
+  // assign an already defined name
+  public void assign(Token name, Object value, boolean assignOuter) {
+      if (hasName(name.lexeme)) {
+          define(name.lexeme, value);
+          return;
       }
 
-      if (enclosing != null && checkEnclosing) {
-          return enclosing.get(name, true);
+      if (enclosing != null && assignOuter) {
+          enclosing.assign(name, value, true);
+          return;
       }
 
       throw new VariableNotFound(name,
-              "Undefined variable '" + name.lexeme + "'.");
+          "Undefined variable '" + name.lexeme + "' (assignment). To define the variable, " +
+          "keyword 'var' must be used");
+  }
+
+  public Object get(Token name, boolean checkEnclosing) {
+      return get(name.lexeme, checkEnclosing, name);
   }
 
   public Object get(String name, boolean checkEnclosing, Token errTok) {
-      if (values.containsKey(name)) {
-          return values.get(name);
+      int slot = slotIndex(name);
+      if (slot >= 0) {
+          return slots[slot];
+      }
+      Cell cell = definedCell(name);
+      if (cell != null) {
+          return cell.value;
       }
 
       if (enclosing != null && checkEnclosing) {
@@ -85,22 +139,51 @@ class Environment {
               "Undefined variable '" + name + "'.");
   }
 
-  public Object getAt(int distance, Token name) {
+  // all variables in this environment, slots first
+  public Map<String, Object> getValues() {
+      Map<String, Object> all = new LinkedHashMap<>();
+      for (int i = 0; i < slotNames.length; i++) {
+          all.put(slotNames[i], slots[i]);
+      }
+      if (values != null) {
+          for (Map.Entry<String, Cell> entry : values.entrySet()) {
+              if (entry.getValue().value != UNDEFINED) {
+                  all.put(entry.getKey(), entry.getValue().value);
+              }
+          }
+      }
+      return all;
+  }
+
+  public Environment ancestor(int distance) {
       Environment env = this;
       while (distance > 0) {
           env = env.enclosing;
           distance--;
       }
-      return env.get(name, false);
+      return env;
+  }
+
+  public Object getAt(int distance, int slot) {
+      return ancestor(distance).slots[slot];
+  }
+
+  public void assignAt(int distance, int slot, Object value) {
+      ancestor(distance).slots[slot] = value;
+  }
+
+  public Object getAt(int distance, Token name) {
+      return ancestor(distance).get(name, false);
   }
 
   public Object getAt(int distance, String name) {
-      Environment env = this;
-      while (distance > 0) {
-          env = env.enclosing;
-          distance--;
+      Environment env = ancestor(distance);
+      int slot = env.slotIndex(name);
+      if (slot >= 0) {
+          return env.slots[slot];
       }
-      return values.get(name);
+      Cell cell = env.definedCell(name);
+      return cell == null ? null : cell.value;
   }
 
   public LoxInstance getThis() {
@@ -126,12 +209,7 @@ class Environment {
   }
 
   public void assignAt(int distance, Token name, Object value) {
-      Environment env = this;
-      while (distance > 0) {
-          env = env.enclosing;
-          distance--;
-      }
-      env.assign(name, value, false);
+      ancestor(distance).assign(name, value, false);
   }
 
   public Object getGlobal(String name) {
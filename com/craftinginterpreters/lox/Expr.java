@@ -0,0 +1,646 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+
+abstract class Expr {
+  interface Visitor<R> {
+    R visitBinaryExpr(Binary expr);
+    R visitLogicalExpr(Logical expr);
+    R visitGroupingExpr(Grouping expr);
+    R visitLiteralExpr(Literal expr);
+    R visitArrayExpr(Array expr);
+    R visitIndexedGetExpr(IndexedGet expr);
+    R visitIndexedSetExpr(IndexedSet expr);
+    R visitUnaryExpr(Unary expr);
+    R visitVariableExpr(Variable expr);
+    R visitAssignExpr(Assign expr);
+    R visitCallExpr(Call expr);
+    R visitAnonFnExpr(AnonFn expr);
+    R visitPropAccessExpr(PropAccess expr);
+    R visitPropSetExpr(PropSet expr);
+    R visitThisExpr(This expr);
+    R visitSuperExpr(Super expr);
+    R visitSplatCallExpr(SplatCall expr);
+    R visitKeywordArgExpr(KeywordArg expr);
+  }
+
+  static final int FIRST_TAG = 1;
+
+  static Expr read(AstFile.Reader in, int tag) throws IOException {
+    switch (tag) {
+      case 1: return Binary.read(in);
+      case 2: return Logical.read(in);
+      case 3: return Grouping.read(in);
+      case 4: return Literal.read(in);
+      case 5: return Array.read(in);
+      case 6: return IndexedGet.read(in);
+      case 7: return IndexedSet.read(in);
+      case 8: return Unary.read(in);
+      case 9: return Variable.read(in);
+      case 10: return Assign.read(in);
+      case 11: return Call.read(in);
+      case 12: return AnonFn.read(in);
+      case 13: return PropAccess.read(in);
+      case 14: return PropSet.read(in);
+      case 15: return This.read(in);
+      case 16: return Super.read(in);
+      case 17: return SplatCall.read(in);
+      case 18: return KeywordArg.read(in);
+      default: throw new IOException("bad Expr tag: " + tag);
+    }
+  }
+  static class Binary extends Expr {
+    Binary(Expr left, Token operator, Expr right) {
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitBinaryExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 1);
+      out.writeNode(left);
+      out.writeToken(operator);
+      out.writeNode(right);
+      out.writeInt(spec);
+      out.writeInt(cachedOpEpoch);
+    }
+
+    static Binary read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Expr left = (Expr)in.readNode();
+      Token operator = in.readToken();
+      Expr right = (Expr)in.readNode();
+      Binary node = new Binary(left, operator, right);
+      node.spec = in.readInt();
+      node.cachedOpEpoch = in.readInt();
+      in.define(id, node);
+      return node;
+    }
+
+    public Expr left;
+    public Token operator;
+    public Expr right;
+    public int spec = 0;
+    public LoxCallable cachedOp = null;
+    public LoxClass cachedOpClass = null;
+    public int cachedOpEpoch = -1;
+  }
+  static class Logical extends Expr {
+    Logical(Expr left, Token operator, Expr right) {
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitLogicalExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 2);
+      out.writeNode(left);
+      out.writeToken(operator);
+      out.writeNode(right);
+    }
+
+    static Logical read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Expr left = (Expr)in.readNode();
+      Token operator = in.readToken();
+      Expr right = (Expr)in.readNode();
+      Logical node = new Logical(left, operator, right);
+      in.define(id, node);
+      return node;
+    }
+
+    public Expr left;
+    public Token operator;
+    public Expr right;
+  }
+  static class Grouping extends Expr {
+    Grouping(Token lparen, Expr expression) {
+      this.lparen = lparen;
+      this.expression = expression;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitGroupingExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 3);
+      out.writeToken(lparen);
+      out.writeNode(expression);
+    }
+
+    static Grouping read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token lparen = in.readToken();
+      Expr expression = (Expr)in.readNode();
+      Grouping node = new Grouping(lparen, expression);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token lparen;
+    public Expr expression;
+  }
+  static class Literal extends Expr {
+    Literal(Token token, Object value) {
+      this.token = token;
+      this.value = value;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitLiteralExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 4);
+      out.writeToken(token);
+      out.writeValue(value);
+    }
+
+    static Literal read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token token = in.readToken();
+      Object value = in.readValue();
+      Literal node = new Literal(token, value);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token token;
+    public Object value;
+  }
+  static class Array extends Expr {
+    Array(Token lbracket, List<Expr> expressions) {
+      this.lbracket = lbracket;
+      this.expressions = expressions;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitArrayExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 5);
+      out.writeToken(lbracket);
+      out.writeNodes(expressions);
+    }
+
+    static Array read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token lbracket = in.readToken();
+      List<Expr> expressions = in.readNodes();
+      Array node = new Array(lbracket, expressions);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token lbracket;
+    public List<Expr> expressions;
+  }
+  static class IndexedGet extends Expr {
+    IndexedGet(Token lbracket, Expr left, Expr indexExpr) {
+      this.lbracket = lbracket;
+      this.left = left;
+      this.indexExpr = indexExpr;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexedGetExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 6);
+      out.writeToken(lbracket);
+      out.writeNode(left);
+      out.writeNode(indexExpr);
+    }
+
+    static IndexedGet read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token lbracket = in.readToken();
+      Expr left = (Expr)in.readNode();
+      Expr indexExpr = (Expr)in.readNode();
+      IndexedGet node = new IndexedGet(lbracket, left, indexExpr);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token lbracket;
+    public Expr left;
+    public Expr indexExpr;
+  }
+  static class IndexedSet extends Expr {
+    IndexedSet(Token lbracket, Expr left, Expr indexExpr, Expr value) {
+      this.lbracket = lbracket;
+      this.left = left;
+      this.indexExpr = indexExpr;
+      this.value = value;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexedSetExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 7);
+      out.writeToken(lbracket);
+      out.writeNode(left);
+      out.writeNode(indexExpr);
+      out.writeNode(value);
+    }
+
+    static IndexedSet read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token lbracket = in.readToken();
+      Expr left = (Expr)in.readNode();
+      Expr indexExpr = (Expr)in.readNode();
+      Expr value = (Expr)in.readNode();
+      IndexedSet node = new IndexedSet(lbracket, left, indexExpr, value);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token lbracket;
+    public Expr left;
+    public Expr indexExpr;
+    public Expr value;
+  }
+  static class Unary extends Expr {
+    Unary(Token operator, Expr right) {
+      this.operator = operator;
+      this.right = right;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitUnaryExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 8);
+      out.writeToken(operator);
+      out.writeNode(right);
+      out.writeInt(spec);
+    }
+
+    static Unary read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token operator = in.readToken();
+      Expr right = (Expr)in.readNode();
+      Unary node = new Unary(operator, right);
+      node.spec = in.readInt();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token operator;
+    public Expr right;
+    public int spec = 0;
+  }
+  static class Variable extends Expr {
+    Variable(Token name) {
+      this.name = name;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitVariableExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 9);
+      out.writeToken(name);
+      out.writeInt(depth);
+      out.writeInt(slot);
+    }
+
+    static Variable read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token name = in.readToken();
+      Variable node = new Variable(name);
+      node.depth = in.readInt();
+      node.slot = in.readInt();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token name;
+    public int depth = -1;
+    public int slot = -1;
+    public Environment.Cell global = null;
+  }
+  static class Assign extends Expr {
+    Assign(Token name, Expr value) {
+      this.name = name;
+      this.value = value;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitAssignExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 10);
+      out.writeToken(name);
+      out.writeNode(value);
+      out.writeInt(depth);
+      out.writeInt(slot);
+    }
+
+    static Assign read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token name = in.readToken();
+      Expr value = (Expr)in.readNode();
+      Assign node = new Assign(name, value);
+      node.depth = in.readInt();
+      node.slot = in.readInt();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token name;
+    public Expr value;
+    public int depth = -1;
+    public int slot = -1;
+    public Environment.Cell global = null;
+  }
+  static class Call extends Expr {
+    Call(Token lparen, Expr left, List<Expr> args) {
+      this.lparen = lparen;
+      this.left = left;
+      this.args = args;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitCallExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 11);
+      out.writeToken(lparen);
+      out.writeNode(left);
+      out.writeNodes(args);
+      out.writeInt(cachedCalleeEpoch);
+      out.writeStrings(kwargNames);
+      out.writeBoolean(isTailCall);
+    }
+
+    static Call read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token lparen = in.readToken();
+      Expr left = (Expr)in.readNode();
+      List<Expr> args = in.readNodes();
+      Call node = new Call(lparen, left, args);
+      node.cachedCalleeEpoch = in.readInt();
+      node.kwargNames = in.readStrings();
+      node.isTailCall = in.readBoolean();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token lparen;
+    public Expr left;
+    public List<Expr> args;
+    public Object cachedCallee = null;
+    public int cachedCalleeEpoch = -1;
+    public String[] kwargNames = null;
+    public boolean isTailCall = false;
+  }
+  static class AnonFn extends Expr {
+    AnonFn(Token fun, List<Param> formals, Stmt body) {
+      this.fun = fun;
+      this.formals = formals;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitAnonFnExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 12);
+      out.writeToken(fun);
+      out.writeParams(formals);
+      out.writeNode(body);
+      out.writeStrings(paramSlotNames);
+      out.writeBoolean(captures);
+    }
+
+    static AnonFn read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token fun = in.readToken();
+      List<Param> formals = in.readParams();
+      Stmt body = (Stmt)in.readNode();
+      AnonFn node = new AnonFn(fun, formals, body);
+      node.paramSlotNames = in.readStrings();
+      node.captures = in.readBoolean();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token fun;
+    public List<Param> formals;
+    public Stmt body;
+    public String[] paramSlotNames = null;
+    public boolean captures = true;
+    public Stmt.Function function = null;
+    public LoxFunction shared = null;
+  }
+  static class PropAccess extends Expr {
+    PropAccess(Expr left, Token property) {
+      this.left = left;
+      this.property = property;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitPropAccessExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 13);
+      out.writeNode(left);
+      out.writeToken(property);
+    }
+
+    static PropAccess read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Expr left = (Expr)in.readNode();
+      Token property = in.readToken();
+      PropAccess node = new PropAccess(left, property);
+      in.define(id, node);
+      return node;
+    }
+
+    public Expr left;
+    public Token property;
+    public InlineCache cache = null;
+  }
+  static class PropSet extends Expr {
+    PropSet(Expr object, Token property, Expr value) {
+      this.object = object;
+      this.property = property;
+      this.value = value;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitPropSetExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 14);
+      out.writeNode(object);
+      out.writeToken(property);
+      out.writeNode(value);
+    }
+
+    static PropSet read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Expr object = (Expr)in.readNode();
+      Token property = in.readToken();
+      Expr value = (Expr)in.readNode();
+      PropSet node = new PropSet(object, property, value);
+      in.define(id, node);
+      return node;
+    }
+
+    public Expr object;
+    public Token property;
+    public Expr value;
+  }
+  static class This extends Expr {
+    This(Token keyword) {
+      this.keyword = keyword;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitThisExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 15);
+      out.writeToken(keyword);
+      out.writeInt(depth);
+      out.writeInt(slot);
+    }
+
+    static This read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      This node = new This(keyword);
+      node.depth = in.readInt();
+      node.slot = in.readInt();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public int depth = -1;
+    public int slot = -1;
+  }
+  static class Super extends Expr {
+    Super(Token keyword, Token property, Stmt classOrModStmt) {
+      this.keyword = keyword;
+      this.property = property;
+      this.classOrModStmt = classOrModStmt;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSuperExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 16);
+      out.writeToken(keyword);
+      out.writeToken(property);
+      out.writeRef(classOrModStmt);
+      out.writeInt(depth);
+      out.writeInt(slot);
+    }
+
+    static Super read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Token property = in.readToken();
+      int classOrModStmt = in.readRef();
+      Super node = new Super(keyword, property, null);
+      in.resolveRef(classOrModStmt, target -> node.classOrModStmt = (Stmt)target);
+      node.depth = in.readInt();
+      node.slot = in.readInt();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Token property;
+    public Stmt classOrModStmt;
+    public int depth = -1;
+    public int slot = -1;
+    public InlineCache cache = null;
+  }
+  static class SplatCall extends Expr {
+    SplatCall(Token splat, Expr expression) {
+      this.splat = splat;
+      this.expression = expression;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSplatCallExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 17);
+      out.writeToken(splat);
+      out.writeNode(expression);
+    }
+
+    static SplatCall read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token splat = in.readToken();
+      Expr expression = (Expr)in.readNode();
+      SplatCall node = new SplatCall(splat, expression);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token splat;
+    public Expr expression;
+  }
+  static class KeywordArg extends Expr {
+    KeywordArg(Token name, Expr expression) {
+      this.name = name;
+      this.expression = expression;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitKeywordArgExpr(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 18);
+      out.writeToken(name);
+      out.writeNode(expression);
+    }
+
+    static KeywordArg read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token name = in.readToken();
+      Expr expression = (Expr)in.readNode();
+      KeywordArg node = new KeywordArg(name, expression);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token name;
+    public Expr expression;
+  }
+
+  abstract <R> R accept(Visitor<R> visitor);
+  abstract void write(AstFile.Writer out) throws IOException;
+}
@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+// Per-site cache for property lookups (Expr.PropAccess), keyed by the
+// receiver's lookup class. Each entry maps a class to the getter or method
+// that a lookup from that class finds. A site that sees more than SIZE
+// classes is megamorphic and stops caching. All entries are dropped when
+// methods change anywhere (see LoxModule.methodEpoch).
+class InlineCache {
+    static final int SIZE = 4;
+
+    private final LoxClass[] klasses = new LoxClass[SIZE];
+    private final LoxCallable[] callables = new LoxCallable[SIZE];
+    private final boolean[] getters = new boolean[SIZE];
+    private int size = 0;
+    private int epoch = LoxModule.methodEpoch;
+    boolean megamorphic = false;
+
+    // returns the index of the entry for `klass`, or -1
+    int find(LoxClass klass) {
+        if (epoch != LoxModule.methodEpoch) {
+            clear();
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (klasses[i] == klass) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // returns the index of the new entry, or -1 if the cache is full
+    int add(LoxClass klass, LoxCallable callable, boolean isGetter) {
+        if (size == SIZE) {
+            megamorphic = true;
+            return -1;
+        }
+        klasses[size] = klass;
+        callables[size] = callable;
+        getters[size] = isGetter;
+        return size++;
+    }
+
+    LoxCallable callable(int idx) {
+        return callables[idx];
+    }
+
+    boolean isGetter(int idx) {
+        return getters[idx];
+    }
+
+    private void clear() {
+        for (int i = 0; i < size; i++) {
+            klasses[i] = null;
+            callables[i] = null;
+        }
+        size = 0;
+        megamorphic = false;
+        epoch = LoxModule.methodEpoch;
+    }
+}
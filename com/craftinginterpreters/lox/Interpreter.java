@@ -4,15 +4,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.io.IOException;
 import java.io.File;
 import java.util.Collections;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private static class RuntimeBreak extends RuntimeException {}
-    private static class RuntimeContinue extends RuntimeException {}
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
     private static class SimulateExit extends RuntimeException {}
     private static class SimulatePause extends RuntimeException {}
     public static class RuntimeThrow extends RuntimeException {
@@ -34,13 +33,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    public static class RuntimeReturn extends RuntimeException {
-        final Object value;
-        RuntimeReturn(Object value) {
-            super(null, null, true, true);
-            this.value = value;
-        }
-    }
+    // How a statement finished. `return`, `break` and `continue` unwind
+    // by returning these from execute() up to the function or loop that
+    // handles them, instead of throwing. A `return`'s value is left in
+    // `returnValue`.
+    enum Completion { NORMAL, RETURN, BREAK, CONTINUE }
     // NOTE: should live in Lox land so users can catch it
     public static class LoadScriptError extends RuntimeException {
         public LoadScriptError(String msg) {
@@ -51,7 +48,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private String runningFile = null;
     public static Map<String, LoxInstance> staticStringPool = new HashMap<>();
 
-    public final Map<Expr, Integer> locals = new HashMap<>();
     final Environment globals = new Environment();
     final Runtime runtime;
     public Environment environment = globals;
@@ -67,23 +63,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public StringBuffer errorBuf = null;
 
     public Stack<StackFrame> stack = new Stack<>();
+    // Native calls in progress. Their StackFrames are only made when a
+    // stacktrace is asked for, see pushNativeCall().
+    private LoxCallable[] nativeCalls = new LoxCallable[16];
+    private Token[] nativeCallTokens = new Token[16];
+    private int[] nativeCallDepths = new int[16]; // size of `stack` when called
+    private int numNativeCalls = 0;
     public RuntimeException runtimeError = null;
     private Resolver resolver = null;
+    VM vm = null; // bytecode VM, when enabled
+    Jit jit = new Jit(this); // null when disabled
+    Aot.Image aotImage = null; // scripts compiled ahead of time, when run from a jar
     public Parser parser = null;
     private String filename; // FIXME: unused
     private boolean inited = false;
-    public Object lastValue = null;
+    public Object lastValue = null; // of the last expression statement
+    private Object returnValue = null; // see Completion
 
     // debugger fields
     public Object prevNode = null;
     public Object currentNode = null; // Expr or Stmt
     public boolean exited = false;
     public Debugger debugger = null;
+    // Set once a debugger is attached (System.debugger()). Only then do
+    // evaluate() and execute() keep track of the nodes being visited, which
+    // the debugger needs for stepping and breakpoints.
+    public boolean tracing = false;
     public Stack<Integer> visitLevels = new Stack<>();
     public Stack<Integer> visitIdxs = new Stack<>();
     public int lastVisit = 0;
     private int VISIT_BEFORE = 0;
     private int VISIT_AFTER = 1;
+
+    // Operator specialization states of Expr.Binary/Expr.Unary nodes (their
+    // `spec` field). A node specializes on the operand types it sees the
+    // first time it's run, and goes generic for good once they change.
+    static final int SPEC_UNINIT = 0;
+    static final int SPEC_NUMBER = 1; // number op number
+    static final int SPEC_STRING = 2; // string op string, String#opAdd not redefined
+    static final int SPEC_INSTANCE = 3; // instance of cached class, cached op* method
+    static final int SPEC_GENERIC = 4;
     // map of visitLevel => visitIdx for the debugger's step over and step
     // into functionality
     public Map<Integer,Integer> awaitingOnMap = new HashMap<>();
@@ -112,10 +131,33 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (this.options.get("filename") != null) {
             this.filename = (String)this.options.get("filename");
         }
+        if (this.options.get("useBytecode") == (Boolean)true) {
+            useBytecode();
+        }
         this.resolver = new Resolver(this);
         this.runtime = Runtime.create(globals, classMap, modMap);
     }
 
+    // Compile statements to bytecode and run them on the VM instead of
+    // walking the AST. Nodes the compiler doesn't handle are still run by
+    // the tree-walker.
+    public void useBytecode() {
+        this.vm = new VM(this);
+    }
+
+    // Always interpret Lox functions, don't compile hot ones (see Jit)
+    public void disableJit() {
+        this.jit = null;
+    }
+
+    // Counts a loop iteration in the function being run, see Jit. The
+    // loops that can be compiled are counted by Jit#runLoop too.
+    void countBackEdge() {
+        if (jit != null && fnCall instanceof LoxFunction) {
+            jit.countBackEdge(((LoxFunction)fnCall).declaration);
+        }
+    }
+
     public boolean init() {
         if (inited) return false;
         if (!inited) {
@@ -132,14 +174,36 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public boolean interpret(List<Stmt> statements) {
         this.exited = false;
         init();
+        statements = prepare(statements);
+        if (statements == null) {
+            return false;
+        }
+        return interpretPrepared(statements);
+    }
+
+    // Optimizes and resolves parsed statements so they can be run. Returns
+    // null if there were resolver errors.
+    List<Stmt> prepare(List<Stmt> statements) {
+        statements = new Optimizer().optimize(statements);
         this.resolver.resolve(statements);
         if (this.resolver.hasErrors()) {
             System.err.println("[Warning]: resolver errors");
-            return false;
+            return null;
         }
+        return statements;
+    }
+
+    // Runs statements that were already prepared, maybe ahead of time (see Aot)
+    boolean interpretPrepared(List<Stmt> statements) {
+        this.exited = false;
+        init();
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
+            if (vm != null) {
+                vm.interpret(statements);
+            } else {
+                for (Stmt statement : statements) {
+                    execute(statement);
+                }
             }
             runAtExitHooks();
             this.exited = true;
@@ -183,7 +247,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return interpret(stmts);
     }
 
-    @Override
     public void beforeVisit(Object obj) {
         int firstVisitIdx = -1;
         int firstVisitLevel = 0;
@@ -213,7 +276,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         this.lastVisit = VISIT_BEFORE;
     }
 
-    @Override
     public void afterVisit(Object obj) {
         int lastVisitLevel = visitLevels.size() == 0 ? 1 : visitLevels.lastElement();
         int lastVisitIdx = visitIdxs.size() == 0 ? 0 : visitIdxs.lastElement();
@@ -262,9 +324,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         // regular string
-        if (expr.value instanceof StringBuffer) {
+        if (expr.value instanceof Rope) {
             LoxInstance string = createInstance("String", new ArrayList<Object>());
-            ((StringBuffer)string.getHiddenProp("buf")).append(expr.value.toString());
+            ((LoxString)string).str = (Rope)expr.value;
             return string;
         // static (frozen) string
         } else if (expr.value instanceof String) {
@@ -281,23 +343,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         for (Expr el : expr.expressions) {
             objs.add(evaluate(el));
         }
+        return newArray(expr, objs);
+    }
+
+    Object newArray(Expr.Array expr, List<Object> elements) {
         LoxClass arrayClass = classMap.get("Array");
         Token tok = tokenFromExpr(expr);
         // Construct the array instance and return it
-        Object instance = evaluateCall(arrayClass, objs, LoxUtil.EMPTY_KWARGS, tok);
+        Object instance = evaluateCall(arrayClass, elements, LoxUtil.EMPTY_KWARGS, tok);
         return instance;
     }
 
     @Override
     public Object visitIndexedGetExpr(Expr.IndexedGet expr) {
         Object obj = evaluate(expr.left);
-        if (!(obj instanceof LoxInstance)) {
-            Token tok = tokenFromExpr(expr.left);
-            throwLoxError("TypeError", tok,
-                "index access expr (expr[index]), expr must be an object, is: " +
-                nativeTypeof(tok, obj));
-        }
+        checkIndexTarget(expr, obj);
         Object index = evaluate(expr.indexExpr);
+        return indexGet(expr, obj, index);
+    }
+
+    // Type check for the LHS of `expr[index]` and `expr[index] = value`,
+    // done before the index is evaluated.
+    void checkIndexTarget(Expr expr, Object obj) {
+        if (expr instanceof Expr.IndexedGet) {
+            if (!(obj instanceof LoxInstance)) {
+                Token tok = tokenFromExpr(((Expr.IndexedGet)expr).left);
+                throwLoxError("TypeError", tok,
+                    "index access expr (expr[index]), expr must be an object, is: " +
+                    nativeTypeof(tok, obj));
+            }
+        } else {
+            if (!(Runtime.isInstance(obj))) {
+                Token lhsTok = tokenFromExpr(((Expr.IndexedSet)expr).left);
+                throwLoxError("TypeError", lhsTok,
+                    "indexed set expr (expr[index] = rval), expr must be an Object, is: " +
+                    nativeTypeof(lhsTok, obj));
+            }
+        }
+    }
+
+    Object indexGet(Expr.IndexedGet expr, Object obj, Object index) {
         LoxInstance lhsInstance = (LoxInstance)obj;
         LoxCallable indexGetMeth = lhsInstance.getMethod("indexGet", this);
         if (indexGetMeth != null) {
@@ -308,15 +393,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (Runtime.isArray(obj)) {
             LoxInstance ary = Runtime.toInstance(obj);
             Token tok = tokenFromExpr(expr.left);
-            List<Object> elements = (List<Object>)ary.getHiddenProp("ary");
+            List<Object> elements = ((LoxArray)ary).elements;
             return elements.get(((Double)index).intValue());
         } else if (Runtime.isString(obj)) {
             LoxInstance strInstance = Runtime.toString(obj);
-            StringBuffer strBuf = (StringBuffer)strInstance.getHiddenProp("buf");
+            Rope str = ((LoxString)strInstance).str;
             int start = ((Double)index).intValue();
             LoxInstance newInstance = createInstance("String", new ArrayList<Object>());
-            StringBuffer slicedBuf = new StringBuffer(strBuf.substring(start, start+1));
-            newInstance.setHiddenProp("buf", slicedBuf);
+            ((LoxString)newInstance).str = str.substring(start, start+1);
             return newInstance;
         } else if (obj instanceof LoxInstance) {
             LoxInstance instance = (LoxInstance)obj;
@@ -327,8 +411,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     nativeTypeof(indexTok, index));
             }
             LoxInstance strIndexInst = Runtime.toString(index);
-            StringBuffer strIndex = (StringBuffer)strIndexInst.getHiddenProp("buf");
-            return instance.getProperty(strIndex.toString(), this);
+            return instance.getProperty(Runtime.toJavaString(strIndexInst), this);
         } else {
             throw new RuntimeException("unreachable");
         }
@@ -337,14 +420,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitIndexedSetExpr(Expr.IndexedSet expr) {
         Object obj = evaluate(expr.left);
-        if (!(Runtime.isInstance(obj))) {
-            Token lhsTok = tokenFromExpr(expr.left);
-            throwLoxError("TypeError", lhsTok,
-                "indexed set expr (expr[index] = rval), expr must be an Object, is: " +
-                nativeTypeof(lhsTok, obj));
-        }
+        checkIndexTarget(expr, obj);
         Object index = evaluate(expr.indexExpr);
         Object val = evaluate(expr.value);
+        return indexSet(expr, obj, index, val);
+    }
+
+    Object indexSet(Expr.IndexedSet expr, Object obj, Object index, Object val) {
         LoxInstance lhsInstance = (LoxInstance)obj;
         LoxCallable indexSetMeth = lhsInstance.getMethod("indexSet", this);
         if (indexSetMeth != null) {
@@ -356,39 +438,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (Runtime.isArray(obj)) {
             LoxInstance ary = (LoxInstance)obj;
             Token tok = tokenFromExpr(expr.left);
-            List<Object> elements = (List<Object>)ary.getHiddenProp("ary");
+            List<Object> elements = ((LoxArray)ary).elements;
             // FIXME: check array OOB access!
             elements.set(((Double)index).intValue(), val);
             return val;
         } else if (Runtime.isString(obj)) {
-            LoxInstance strBufInst = (LoxInstance)obj;
-            StringBuffer strBuf = (StringBuffer)strBufInst.getHiddenProp("buf");
+            LoxString strInst = (LoxString)obj;
             if (!Runtime.isString(val)) {
                 Token valTok = tokenFromExpr(expr.value);
                 throwLoxError("TypeError", valTok,
                     "string[index]=value, value must be a String, is: " +
                     nativeTypeof(valTok, val));
             }
-            LoxInstance strBufValInst = (LoxInstance)val;
-            StringBuffer strBufVal = (StringBuffer)strBufValInst.getHiddenProp("buf");
             int start = ((Double)index).intValue();
-            int end = start + strBufVal.length();
-            if (start > strBuf.length()) { // FIXME: very slow!
-                int len = strBuf.length();
-                while (len < start) {
-                    strBuf.append(" ");
-                    len++;
-                }
-            } else {
-                strBuf.delete(start, end);
-            }
-            strBuf.insert(start, strBufVal.toString());
+            strInst.str = strInst.str.replace(start, ((LoxString)val).str);
             return val;
         } else if (obj instanceof LoxInstance) {
             LoxInstance instance = (LoxInstance)obj;
             LoxInstance indexInst = (LoxInstance)index;
-            StringBuffer indexBuf = (StringBuffer)indexInst.getHiddenProp("buf");
-            String indexStr = indexBuf.toString();
+            String indexStr = Runtime.toJavaString(indexInst);
             // FIXME: should look in singleton class, etc, just like getters
             // and methods!
             LoxCallable setterFunc = instance.getKlass().getSetter(indexStr);
@@ -414,7 +482,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
+        return specializedUnaryOp(expr, right);
+    }
+
+    Object specializedUnaryOp(Expr.Unary expr, Object right) {
+        switch (expr.spec) {
+            case SPEC_NUMBER:
+                if (right instanceof Double) {
+                    return -(double)right;
+                }
+                expr.spec = SPEC_GENERIC;
+                break;
+            case SPEC_UNINIT:
+                if (expr.operator.type == TokenType.MINUS && right instanceof Double) {
+                    expr.spec = SPEC_NUMBER;
+                } else {
+                    expr.spec = SPEC_GENERIC;
+                }
+                break;
+        }
+        return unaryOp(expr, right);
+    }
 
+    Object unaryOp(Expr.Unary expr, Object right) {
         switch (expr.operator.type) {
             case BANG:
                 return !isTruthy(right);
@@ -431,7 +521,129 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return specializedBinaryOp(expr, left, right);
+    }
 
+    Object specializedBinaryOp(Expr.Binary expr, Object left, Object right) {
+        switch (expr.spec) {
+            case SPEC_NUMBER:
+                if (left instanceof Double && right instanceof Double) {
+                    return numberBinaryOp(expr, (double)left, (double)right);
+                }
+                break;
+            case SPEC_STRING:
+                if (isInstanceOf(left, expr.cachedOpClass) && isInstanceOf(right, expr.cachedOpClass) &&
+                        expr.cachedOpEpoch == LoxModule.methodEpoch) {
+                    return stringBinaryOp(expr, (LoxInstance)left, (LoxInstance)right);
+                }
+                break;
+            case SPEC_INSTANCE:
+                if (isInstanceOf(left, expr.cachedOpClass) && expr.cachedOpEpoch == LoxModule.methodEpoch) {
+                    return callOpMethod(expr, expr.cachedOp, (LoxInstance)left, right);
+                }
+                break;
+            case SPEC_UNINIT:
+                specializeBinary(expr, left, right);
+                return binaryOp(expr, left, right);
+            case SPEC_GENERIC:
+                return binaryOp(expr, left, right);
+        }
+        expr.spec = SPEC_GENERIC; // operand types changed
+        expr.cachedOp = null;
+        expr.cachedOpClass = null;
+        return binaryOp(expr, left, right);
+    }
+
+    private void specializeBinary(Expr.Binary expr, Object left, Object right) {
+        TokenType opType = expr.operator.type;
+        expr.spec = SPEC_GENERIC;
+        if (left instanceof Double && right instanceof Double) {
+            expr.spec = SPEC_NUMBER;
+            return;
+        }
+        String opMethName = opMethodName(opType);
+        // singleton classes can have their own op* methods, don't cache those
+        if (!(left instanceof LoxInstance) || ((LoxInstance)left).singletonKlass != null) {
+            return;
+        }
+        LoxClass klass = ((LoxInstance)left).getKlass();
+        boolean isEqualityOp = opType == TokenType.EQUAL_EQUAL || opType == TokenType.BANG_EQUAL;
+        LoxClass stringClass = Runtime.getClass("String");
+        if (klass == stringClass && isInstanceOf(right, stringClass) &&
+                (isEqualityOp || opType == TokenType.PLUS) &&
+                klass.getMethod("opAdd") instanceof LoxNativeCallable) {
+            expr.spec = SPEC_STRING;
+            expr.cachedOpClass = stringClass;
+            expr.cachedOpEpoch = LoxModule.methodEpoch;
+            return;
+        }
+        if (opMethName == null) {
+            return;
+        }
+        LoxCallable opMeth = klass.getMethod(opMethName);
+        if (opMeth != null) {
+            expr.spec = SPEC_INSTANCE;
+            expr.cachedOp = opMeth;
+            expr.cachedOpClass = klass;
+            expr.cachedOpEpoch = LoxModule.methodEpoch;
+        }
+    }
+
+    private Object numberBinaryOp(Expr.Binary expr, double left, double right) {
+        switch (expr.operator.type) {
+            case MINUS: return left - right;
+            case PLUS: return left + right;
+            case STAR: return left * right;
+            case SLASH:
+                if (right == 0.0) { // let binaryOp report the error
+                    return binaryOp(expr, left, right);
+                }
+                return left / right;
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case BANG_EQUAL: return !isEqual(left, right);
+            case EQUAL_EQUAL: return isEqual(left, right);
+        }
+        return binaryOp(expr, left, right);
+    }
+
+    private Object stringBinaryOp(Expr.Binary expr, LoxInstance left, LoxInstance right) {
+        Rope leftStr = ((LoxString)left).str;
+        Rope rightStr = ((LoxString)right).str;
+        switch (expr.operator.type) {
+            case PLUS: return Runtime.createString(leftStr.concat(rightStr), this);
+            case EQUAL_EQUAL: return leftStr.equals(rightStr);
+            case BANG_EQUAL: return !leftStr.equals(rightStr);
+        }
+        return binaryOp(expr, left, right);
+    }
+
+    // exact instance of `klass`, without a singleton class
+    private boolean isInstanceOf(Object obj, LoxClass klass) {
+        return (obj instanceof LoxInstance) &&
+            ((LoxInstance)obj).klass == klass &&
+            ((LoxInstance)obj).singletonKlass == null;
+    }
+
+    // name of the overload method for the given binary operator, if it can
+    // be overloaded
+    private String opMethodName(TokenType opType) {
+        switch (opType) {
+            case MINUS: return "opDiff";
+            case SLASH: return "opDiv";
+            case STAR: return "opMul";
+            case PLUS: return "opAdd";
+            default: return null;
+        }
+    }
+
+    private Object callOpMethod(Expr.Binary expr, LoxCallable opMeth, LoxInstance receiver, Object right) {
+        return evaluateCall(opMeth, receiver, new Object[] { right }, null, tokenFromExpr(expr));
+    }
+
+    Object binaryOp(Expr.Binary expr, Object left, Object right) {
         switch (expr.operator.type) {
             case MINUS: {
                 if (Runtime.isInstance(left)) {
@@ -543,22 +755,44 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
-        return null;
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        this.lastValue = evaluate(stmt.expression);
+        return Completion.NORMAL;
     }
 
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        Integer distance = locals.get(expr);
+        if (expr.depth >= 0) {
+            return environment.getAt(expr.depth, expr.slot);
+        }
+        return readGlobal(expr);
+    }
+
+    // Unresolved variables are globals. The node binds to the global's cell
+    // the first time it's run, and after that reads it directly. The cell
+    // is made if the global isn't defined yet, and it's filled in when it
+    // is (var, fun, class, eval, loadScript...).
+    Object readGlobal(Expr.Variable expr) {
+        Environment.Cell global = expr.global;
+        if (global == null) {
+            global = expr.global = globals.cell(expr.name.lexeme);
+        }
+        Object value = global.value;
+        if (value == Environment.UNDEFINED) {
+            return lookUpVariable(-1, -1, expr.name); // throws NameError
+        }
+        return value;
+    }
+
+    // `depth` is -1 for globals
+    Object lookUpVariable(int depth, int slot, Token name) {
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
+        }
         Object obj = null;
         try {
-            if (distance != null) {
-                obj = environment.getAt(distance, expr.name);
-            } else {
-                obj = globals.get(expr.name, false);
-            }
+            obj = globals.get(name, false);
         } catch (Environment.VariableNotFound err) {
             throwLoxError("NameError", err.token, err.getMessage());
         }
@@ -567,15 +801,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            Object obj = null;
-            try {
-                obj = environment.getAt(distance, expr.keyword);
-            } catch (Environment.VariableNotFound err) {
-                throwLoxError("NameError", err.token, err.getMessage());
-            }
-            return obj;
+        if (expr.depth >= 0) {
+            return environment.getAt(expr.depth, expr.slot);
         } else {
             Lox.error(expr.keyword, "this can only be used inside function/method declarations");
             return null;
@@ -584,17 +811,93 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        Stmt classOrModStmt = expr.classOrModStmt;
+        LoxInstance instance = superReceiver(expr);
+        LoxCallable method = findSuperMethod(expr, instance);
+        if (method != null) {
+            return method.bind(instance, environment);
+        }
+        return lookUpSuper(expr, instance);
+    }
 
+    // the `this` of a `super` expression
+    private LoxInstance superReceiver(Expr.Super expr) {
         Object objInstance = null;
-        try {
-            objInstance = environment.get("this", true, expr.keyword);
-        } catch (Environment.VariableNotFound _err) {
-            throwLoxError("NameError", expr.keyword,
-                "'super' may only be used in class/module context " +
-                "('this' not found)");
+        if (expr.depth >= 0) {
+            objInstance = environment.getAt(expr.depth, expr.slot);
+        } else {
+            try {
+                objInstance = environment.get("this", true, expr.keyword);
+            } catch (Environment.VariableNotFound _err) {
+                throwLoxError("NameError", expr.keyword,
+                    "'super' may only be used in class/module context " +
+                    "('this' not found)");
+            }
+        }
+        return Runtime.toInstance(objInstance);
+    }
+
+    // The method `super.name` refers to, unbound, or null if it's a getter
+    // or isn't found. Where the lookup starts depends on the class of the
+    // receiver (see superLookupStart), so the method found is cached per
+    // receiver class in the expression, like with property lookups.
+    private LoxCallable findSuperMethod(Expr.Super expr, LoxInstance instance) {
+        if (expr.cache == null) {
+            expr.cache = new InlineCache();
+        }
+        InlineCache cache = expr.cache;
+        // classes' `super` lookups start from a singleton class, see
+        // superLookupStart
+        LoxClass klass = Runtime.isClass(instance) ? instance.getSingletonKlass() : instance.getKlass();
+        int idx = cache.find(klass);
+        if (idx < 0) {
+            if (cache.megamorphic) {
+                return null;
+            }
+            LoxClass lookupClassStart = superLookupStart(expr, instance);
+            if (lookupClassStart == null) {
+                return null;
+            }
+            String name = expr.property.lexeme;
+            LoxCallable getter = lookupClassStart.getGetter(name);
+            if (getter != null) {
+                idx = cache.add(klass, getter, true);
+            } else {
+                LoxCallable method = lookupClassStart.getMethod(name);
+                if (method == null) {
+                    return null;
+                }
+                idx = cache.add(klass, method, false);
+            }
+            if (idx < 0) {
+                return null;
+            }
+        }
+        return cache.isGetter(idx) ? null : cache.callable(idx);
+    }
+
+    // Uncached `super.name`: calls getters, and reports missing methods
+    private Object lookUpSuper(Expr.Super expr, LoxInstance instance) {
+        LoxClass lookupClassStart = superLookupStart(expr, instance);
+        if (lookupClassStart == null) {
+            throwLoxError("NameError", tokenFromExpr(expr),
+                "'super' keyword couldn't find superclass.");
         }
-        LoxInstance instance = Runtime.toInstance(objInstance);
+        //System.err.println("super lookup class start: " + lookupClassStart.getName());
+        Object value = instance.getMethodOrGetterProp(
+            expr.property.lexeme, lookupClassStart, this);
+        if (value == null) {
+            throwLoxError("NoSuchMethodError", expr.property,
+                "'super." + expr.property.lexeme +
+                "' doesn't reference a valid method or getter.");
+        }
+        return value;
+    }
+
+    // The class that `super.name` lookups start from: the superclass of the
+    // enclosing class or module in the receiver's class hierarchy (modules
+    // are in it as classes of the same name, see LoxModule#includeIn).
+    private LoxClass superLookupStart(Expr.Super expr, LoxInstance instance) {
+        Stmt classOrModStmt = expr.classOrModStmt;
         LoxClass lookupClassStart = null;
 
         if (classOrModStmt != null) {
@@ -627,39 +930,74 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 lookupClassStart = instance.getKlass().getSuper();
             }
         }
-
-        if (lookupClassStart == null) {
-            throwLoxError("NameError", tokenFromExpr(expr),
-                "'super' keyword couldn't find superclass.");
-        }
-        //System.err.println("super lookup class start: " + lookupClassStart.getName());
-        Object value = instance.getMethodOrGetterProp(
-            expr.property.lexeme, lookupClassStart, this);
-        if (value == null) {
-            throwLoxError("NoSuchMethodError", expr.property,
-                "'super." + expr.property.lexeme +
-                "' doesn't reference a valid method or getter.");
-        }
-        return value;
+        return lookupClassStart;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
-            globals.assign(expr.name, value, false);
+            writeGlobal(expr, value);
         }
         return value;
     }
 
+    // see readGlobal()
+    void writeGlobal(Expr.Assign expr, Object value) {
+        Environment.Cell global = expr.global;
+        if (global == null) {
+            global = expr.global = globals.cell(expr.name.lexeme);
+        }
+        if (global.value == Environment.UNDEFINED) {
+            assignVariable(-1, -1, expr.name, value); // throws VariableNotFound
+            return;
+        }
+        global.value = value;
+    }
+
+    // `depth` is -1 for globals
+    void assignVariable(int depth, int slot, Token name, Object value) {
+        if (depth >= 0) {
+            environment.assignAt(depth, slot, value);
+        } else {
+            globals.assign(name, value, false);
+        }
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call callExpr) {
-        Object obj = evaluate(callExpr.left);
+        Object obj = null;
+        LoxInstance receiver = null;
+        if (callExpr.left instanceof Expr.PropAccess) {
+            Expr.PropAccess prop = (Expr.PropAccess)callExpr.left;
+            Object target = evaluate(prop.left);
+            LoxCallable method = findMethod(prop, target);
+            if (method != null) {
+                obj = method;
+                receiver = (LoxInstance)target;
+            } else {
+                obj = getProperty(prop, target);
+            }
+        } else if (callExpr.left instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)callExpr.left;
+            LoxInstance instance = superReceiver(superExpr);
+            LoxCallable method = findSuperMethod(superExpr, instance);
+            if (method != null) {
+                obj = method;
+                receiver = instance;
+            } else {
+                obj = lookUpSuper(superExpr, instance);
+            }
+        } else {
+            obj = evaluate(callExpr.left);
+        }
         if (obj instanceof LoxCallable) {
             LoxCallable callable = (LoxCallable)obj;
+            if (isCachedCallee(callExpr, callable)) {
+                return callCachedCallee(callExpr, callable, receiver);
+            }
             List<Object> args = null;
             Map<String,Object> kwargs = new HashMap<>();
             if (callExpr.args.size() == 0) {
@@ -669,7 +1007,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
 
 
-            Map<String,Object> defaultKwargs = callable.getDefaultKwargs(this);
+            // Lox functions bind their own defaults, see LoxFunction#bindArguments
+            BindingPlan plan = bindingPlanOf(callable);
+            Map<String,Object> defaultKwargs = null;
+            if (plan == null) {
+                defaultKwargs = callable.getDefaultKwargs(this);
+            }
 
             // need to evaluate args first before seeing if the function can
             // accept that number of arguments because splat arguments `fnCall(*args)` can
@@ -683,11 +1026,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     }
                     if (Runtime.isArray(aryOrMap)) {
                         LoxInstance aryInstance = (LoxInstance)aryOrMap;
-                        List<Object> elements = (List<Object>)aryInstance.getHiddenProp("ary");
+                        List<Object> elements = ((LoxArray)aryInstance).elements;
                         args.addAll(elements);
                     } else { // Map
                         LoxInstance mapInstance = (LoxInstance)aryOrMap;
-                        Map<Object,Object> map = (Map<Object,Object>)mapInstance.getHiddenProp("map");
+                        Map<Object,Object> map = ((LoxMap)mapInstance).map;
                         Iterator iter = map.entrySet().iterator();
                         while (iter.hasNext()) {
                             Map.Entry pair = (Map.Entry)iter.next();
@@ -695,7 +1038,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                             if (Runtime.isString(key)) {
                                 Object val = pair.getValue();
                                 LoxInstance strInstance = Runtime.toInstance(key);
-                                String str = ((StringBuffer)strInstance.getHiddenProp("buf")).toString();
+                                String str = Runtime.toJavaString(strInstance);
                                 kwargs.put(str, val);
                             } else {
                                 throwLoxError("ArgumentError", tokenFromExpr(expr),
@@ -707,7 +1050,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     }
                 } else if (expr instanceof Expr.KeywordArg) {
                     Expr.KeywordArg kwArgExpr = (Expr.KeywordArg)expr;
-                    if (defaultKwargs != null && !defaultKwargs.containsKey(kwArgExpr.name.lexeme)) {
+                    boolean isKnownKwarg = plan != null ? plan.hasKwarg(kwArgExpr.name.lexeme) :
+                        (defaultKwargs == null || defaultKwargs.containsKey(kwArgExpr.name.lexeme));
+                    if (!isKnownKwarg) {
                         throwLoxError("ArgumentError", tokenFromExpr(expr),
                             "Invalid keyword argument '" + kwArgExpr.name.lexeme + "'");
                     }
@@ -732,36 +1077,172 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
 
 
-            if (!Runtime.acceptsNArgs(callable, args.size(), kwargs.size())) {
-                int arityMin = callable.arityMin();
-                int arityMax = callable.arityMax();
-                String expectedNStr;
-                if (arityMax < 0) {
-                    expectedNStr = String.valueOf(arityMin) + " to n";
-                } else if (arityMin == arityMax) {
-                    expectedNStr = "exactly " + arityMin;
-                } else {
-                    expectedNStr = String.valueOf(arityMin) + " to " + String.valueOf(arityMax);
+            int numKwargs = plan != null ? plan.numKwargsGiven(kwargs) : kwargs.size();
+            checkArity(callExpr, callable, receiver, args.size(), numKwargs);
+            String[] kwargNames = LoxUtil.kwargNames(kwargs);
+            cacheCallee(callExpr, callable, kwargNames);
+            return callOrDefer(callExpr, callable, receiver,
+                LoxUtil.argsArray(args, kwargs, kwargNames), kwargNames);
+        } else {
+            throwNotCallable(callExpr);
+            return null;
+        }
+    }
+
+    // A call site remembers the last callee that took its arguments without
+    // any keyword arguments, so the arity check and the lookup of default
+    // keyword arguments can be skipped the next time it's called. Lox
+    // functions bind keyword arguments themselves, so call sites of those
+    // can have keyword arguments too. Their names are kept in the call
+    // expression, so the arguments can be given in an array without
+    // building a Map (see LoxCallable#invoke).
+    private Object calleeCacheKey(LoxCallable callable) {
+        Stmt.Function decl = callable.getDecl();
+        return decl == null ? callable : decl;
+    }
+
+    private boolean isCachedCallee(Expr.Call callExpr, LoxCallable callable) {
+        return callExpr.cachedCallee != null &&
+            callExpr.cachedCalleeEpoch == LoxModule.methodEpoch &&
+            callExpr.cachedCallee == calleeCacheKey(callable);
+    }
+
+    // Null for callables other than Lox functions, their keyword arguments'
+    // defaults are given by getDefaultKwargs()
+    private BindingPlan bindingPlanOf(LoxCallable callable) {
+        if (callable instanceof LoxFunction) {
+            return BindingPlan.of(((LoxFunction)callable).declaration);
+        }
+        return null;
+    }
+
+    private void cacheCallee(Expr.Call callExpr, LoxCallable callable, String[] kwargNames) {
+        boolean bindsKwargs = bindingPlanOf(callable) != null;
+        if (kwargNames != null && !bindsKwargs) {
+            callExpr.cachedCallee = null;
+            return;
+        }
+        List<String> names = null;
+        for (Expr arg : callExpr.args) {
+            if (arg instanceof Expr.SplatCall) {
+                return;
+            }
+            if (arg instanceof Expr.KeywordArg) {
+                if (!bindsKwargs) {
+                    return;
                 }
-                int actualN = args.size() + kwargs.size();
-                String actualNStr = String.valueOf(actualN);
-                throwLoxError("ArgumentError", tokenFromExpr(callExpr.left),
-                    "Function <" +
-                    callable.getName() + "> called with wrong number of arguments. Expected " +
-                    expectedNStr + ", got " + actualNStr + "."
-                );
+                if (names == null) {
+                    names = new ArrayList<>();
+                }
+                names.add(((Expr.KeywordArg)arg).name.lexeme);
             }
-            return evaluateCall(callable, args, kwargs, tokenFromExpr(callExpr.left));
-        } else {
-            Token tok = tokenFromExpr(callExpr.left);
-            // FIXME: show the object or the class, if there is one as the LHS
-            // of the call. Right now, Array.methods(), LHS here is the result
-            // of Array.methods, which is nil. We need more information on
-            // this CallExpr node during interpretation time itself.
-            throwLoxError("NoSuchFunctionError", tok,
-                "Undefined function or method '" + tok.lexeme + "'");
+        }
+        // in the order they're given, see callCachedCallee
+        callExpr.kwargNames = names == null ? null : names.toArray(new String[names.size()]);
+        callExpr.cachedCallee = calleeCacheKey(callable);
+        callExpr.cachedCalleeEpoch = LoxModule.methodEpoch;
+    }
+
+    // see cacheCallee
+    private Object callCachedCallee(Expr.Call callExpr, LoxCallable callable, LoxInstance receiver) {
+        List<Expr> argExprs = callExpr.args;
+        String[] kwargNames = callExpr.kwargNames;
+        if (argExprs.size() == 0) {
+            return callOrDefer(callExpr, callable, receiver, LoxUtil.NO_ARGS, null);
+        }
+        Object[] args = new Object[argExprs.size()];
+        int argIdx = 0;
+        // keyword arguments' values go after the positional ones
+        int kwargIdx = kwargNames == null ? args.length : args.length - kwargNames.length;
+        for (Expr expr : argExprs) {
+            if (expr instanceof Expr.KeywordArg) {
+                args[kwargIdx++] = evaluate(((Expr.KeywordArg)expr).expression);
+            } else {
+                args[argIdx++] = evaluate(expr);
+            }
+        }
+        return callOrDefer(callExpr, callable, receiver, args, kwargNames);
+    }
+
+    // Call with only positional arguments (no splats or keyword arguments),
+    // all of them already evaluated. `receiver` is given if `obj` is an
+    // unbound method found by findMethod().
+    Object callValue(Expr.Call callExpr, Object obj, LoxInstance receiver, Object[] args) {
+        if (!(obj instanceof LoxCallable)) {
+            throwNotCallable(callExpr);
             return null;
         }
+        LoxCallable callable = (LoxCallable)obj;
+        if (isCachedCallee(callExpr, callable)) {
+            return callOrDefer(callExpr, callable, receiver, args, null);
+        }
+        BindingPlan plan = bindingPlanOf(callable);
+        int numArgs = args.length;
+        String[] kwargNames = null;
+        int numKwargs = 0;
+        if (plan != null) {
+            numKwargs = plan.numKwargsGiven(LoxUtil.EMPTY_KWARGS);
+        } else {
+            Map<String,Object> defaultKwargs = callable.getDefaultKwargs(this);
+            if (defaultKwargs != null && defaultKwargs.size() > 0) {
+                kwargNames = LoxUtil.kwargNames(defaultKwargs);
+                args = LoxUtil.argsArray(Arrays.asList(args), defaultKwargs, kwargNames);
+                numKwargs = kwargNames.length;
+            }
+        }
+        checkArity(callExpr, callable, receiver, numArgs, numKwargs);
+        cacheCallee(callExpr, callable, kwargNames);
+        return callOrDefer(callExpr, callable, receiver, args, kwargNames);
+    }
+
+    // A call in tail position isn't made here: it's handed back to the
+    // LoxFunction#invoke that's returning, which makes it in its own Java
+    // frame. Debugging shows every call, so it turns this off.
+    private Object callOrDefer(Expr.Call callExpr, LoxCallable callable, LoxInstance receiver,
+            Object[] args, String[] kwargNames) {
+        Token callToken = tokenFromExpr(callExpr.left);
+        if (callExpr.isTailCall && !tracing && callable instanceof LoxFunction &&
+                !((LoxFunction)callable).isInitializer) {
+            return new LoxFunction.TailCall((LoxFunction)callable, receiver, args, kwargNames, callToken);
+        }
+        return evaluateCall(callable, receiver, args, kwargNames, callToken);
+    }
+
+    // `receiver` is given if `callable` is an unbound method, which is
+    // named like the bound method `obj.name` evaluates to
+    private void checkArity(Expr.Call callExpr, LoxCallable callable, LoxInstance receiver,
+            int numArgs, int numKwargs) {
+        if (!Runtime.acceptsNArgs(callable, numArgs, numKwargs)) {
+            String name = receiver == null ? callable.getName() :
+                callable.bind(receiver, environment).getName();
+            int arityMin = callable.arityMin();
+            int arityMax = callable.arityMax();
+            String expectedNStr;
+            if (arityMax < 0) {
+                expectedNStr = String.valueOf(arityMin) + " to n";
+            } else if (arityMin == arityMax) {
+                expectedNStr = "exactly " + arityMin;
+            } else {
+                expectedNStr = String.valueOf(arityMin) + " to " + String.valueOf(arityMax);
+            }
+            int actualN = numArgs + numKwargs;
+            String actualNStr = String.valueOf(actualN);
+            throwLoxError("ArgumentError", tokenFromExpr(callExpr.left),
+                "Function <" +
+                name + "> called with wrong number of arguments. Expected " +
+                expectedNStr + ", got " + actualNStr + "."
+            );
+        }
+    }
+
+    private void throwNotCallable(Expr.Call callExpr) {
+        Token tok = tokenFromExpr(callExpr.left);
+        // FIXME: show the object or the class, if there is one as the LHS
+        // of the call. Right now, Array.methods(), LHS here is the result
+        // of Array.methods, which is nil. We need more information on
+        // this CallExpr node during interpretation time itself.
+        throwLoxError("NoSuchFunctionError", tok,
+            "Undefined function or method '" + tok.lexeme + "'");
     }
 
     // see visitCallExpr
@@ -780,11 +1261,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitPropAccessExpr(Expr.PropAccess expr) {
         Object obj = evaluate(expr.left);
+        return getProperty(expr, obj);
+    }
+
+    // The method `obj.name(...)` calls, unbound, or null if the property
+    // isn't a plain method (see LoxInstance#findMethod).
+    LoxCallable findMethod(Expr.PropAccess expr, Object obj) {
+        if (!(obj instanceof LoxInstance)) {
+            return null;
+        }
+        if (expr.cache == null) {
+            expr.cache = new InlineCache();
+        }
+        return ((LoxInstance)obj).findMethod(expr.property.lexeme, expr.cache);
+    }
+
+    Object getProperty(Expr.PropAccess expr, Object obj) {
         String propName = expr.property.lexeme;
         if (obj instanceof LoxInstance) {
             LoxInstance instance = (LoxInstance)obj;
-            Object value = instance.getProperty(propName, this);
-            return value;
+            if (expr.cache == null) {
+                expr.cache = new InlineCache();
+            }
+            return instance.getProperty(propName, this, expr.cache);
         } else {
             throwLoxError("TypeError", expr.property,
                 "Attempt to access property '" + propName +
@@ -802,11 +1301,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         // "super.property = rvalue"
         if (expr.object instanceof Expr.Super) {
             Token superTok = ((Expr.Super)expr.object).keyword;
-            try {
-                obj = environment.get("this", true, superTok);
-            } catch (Environment.VariableNotFound _err) {
-                throwLoxError("NameError", superTok, "'super' may only be used in class/module context ('this' not found)");
-            }
+            obj = superReceiver((Expr.Super)expr.object);
             // NOTE: getDecl() will never return NULL here, because natively
             // defined methods are not turned into AST nodes (thus not visited
             // in this way).
@@ -825,11 +1320,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         } else {
             obj = evaluate(expr.object);
-            if (!(obj instanceof LoxInstance)) {
-                throwLoxError("TypeError", expr.property,
-                    "Attempt to set property '" + propName + "' on non-instance. LHS type: " +
-                    nativeTypeof(tokenFromExpr(expr.object), obj));
-            }
+            checkPropSetTarget(expr, obj);
             setterFunc = ((LoxInstance)obj).getKlass().getSetter(expr.property.lexeme);
         }
         if (obj instanceof LoxInstance) {
@@ -851,24 +1342,70 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // Type check for the LHS of `expr.prop = value`, done before the value
+    // is evaluated.
+    void checkPropSetTarget(Expr.PropSet expr, Object obj) {
+        if (!(obj instanceof LoxInstance)) {
+            throwLoxError("TypeError", expr.property,
+                "Attempt to set property '" + expr.property.lexeme + "' on non-instance. LHS type: " +
+                nativeTypeof(tokenFromExpr(expr.object), obj));
+        }
+    }
+
+    // `obj.prop = value`, with `obj` and `value` already evaluated. The LHS
+    // can't be `super`.
+    Object setProperty(Expr.PropSet expr, Object obj, Object value) {
+        checkPropSetTarget(expr, obj);
+        LoxInstance instance = (LoxInstance)obj;
+        LoxCallable setterFunc = instance.getKlass().getSetter(expr.property.lexeme);
+        LoxCallable oldFnCall = this.fnCall;
+        if (setterFunc != null) {
+            this.fnCall = setterFunc;
+        }
+        instance.setProperty(expr.property.lexeme, value, this, setterFunc);
+        if (setterFunc != null) {
+            this.fnCall = oldFnCall;
+        }
+        return value;
+    }
+
     public Object evaluateCall(LoxCallable callable, List<Object> args, Map<String,Object> kwargs, Token callToken) {
+        return evaluateCall(callable, null, args, kwargs, callToken);
+    }
+
+    // Calls `callable` as a method of `receiver`, if given.
+    public Object evaluateCall(LoxCallable callable, LoxInstance receiver, List<Object> args, Map<String,Object> kwargs, Token callToken) {
         LoxCallable oldFnCall = this.fnCall;
         try {
             this.fnCall = callable;
-            return callable.call(this, args, kwargs, callToken);
+            if (receiver == null) {
+                return callable.call(this, args, kwargs, callToken);
+            }
+            return callable.invoke(this, receiver, args, kwargs, callToken);
+        } finally {
+            this.fnCall = oldFnCall;
+        }
+    }
+
+    // The same, with the arguments given as to LoxCallable#invoke
+    public Object evaluateCall(LoxCallable callable, LoxInstance receiver, Object[] args, String[] kwargNames, Token callToken) {
+        LoxCallable oldFnCall = this.fnCall;
+        try {
+            this.fnCall = callable;
+            return callable.invoke(this, receiver, args, kwargNames, callToken);
         } finally {
             this.fnCall = oldFnCall;
         }
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
-    private void println(String val) {
+    void println(String val) {
         if (this.printBuf != null) {
             this.printBuf.append(val + "\n");
         } else {
@@ -877,7 +1414,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         int varIdx = 0;
         boolean useArrayElements = false;
@@ -894,7 +1431,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 init = stmt.initializers.get(varIdx);
             }
             if (init == null && !useArrayElements) {
-                environment.define(varTok.lexeme, null);
+                defineVar(stmt, varIdx, null);
             } else {
                 if (!useArrayElements && canUseArray) {
                     value = evaluate(init);
@@ -903,82 +1440,111 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
                 if (useArrayElements) {
                     LoxInstance aryValue = (LoxInstance)value;
-                    List<Object> aryElements = (List<Object>)aryValue.getHiddenProp("ary");
+                    List<Object> aryElements = ((LoxArray)aryValue).elements;
                     Object val = null;
                     if (aryElements.size() >= useArrayElementsIdx+1) {
                         val = aryElements.get(useArrayElementsIdx);
                     }
-                    environment.define(varTok.lexeme, val);
+                    defineVar(stmt, varIdx, val);
                     useArrayElementsIdx++;
                 } else {
                     if (!initEvaled) {
                         value = evaluate(init);
                         initEvaled = true;
                     }
-                    environment.define(varTok.lexeme, value);
+                    defineVar(stmt, varIdx, value);
                 }
             }
             varIdx++;
         }
-        return null;
+        return Completion.NORMAL;
+    }
+
+    // globals don't have slots
+    private void defineVar(Stmt.Var stmt, int varIdx, Object value) {
+        if (stmt.slots != null) {
+            environment.defineAt(stmt.slots[varIdx], value);
+        } else {
+            environment.define(stmt.names.get(varIdx).lexeme, value);
+        }
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slotNames == null) { // declares nothing, see Resolver
+            return executeBody(stmt.statements);
+        }
+        return executeBlock(stmt.statements, new Environment(environment, stmt.slotNames));
+    }
+
+    // The environment for all iterations of a loop whose body is a block
+    // that no function, class or module can close over: each iteration
+    // redefines the block's variables before using them, so they don't need
+    // a fresh environment. null if the body needs its own every time.
+    private Environment loopBodyEnv(Stmt body) {
+        if (tracing || !(body instanceof Stmt.Block)) {
+            return null;
+        }
+        Stmt.Block block = (Stmt.Block)body;
+        if (block.slotNames == null || block.hasClosures) {
+            return null;
+        }
+        return new Environment(environment, block.slotNames);
+    }
+
+    private Completion executeLoopBody(Stmt body, Environment bodyEnv) {
+        if (bodyEnv == null) {
+            return execute(body);
+        }
+        return executeBlock(((Stmt.Block)body).statements, bodyEnv);
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         Object value = evaluate(stmt.condition);
         if (isTruthy(value)) {
-            execute(stmt.ifBranch);
+            return execute(stmt.ifBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         Object value = evaluate(stmt.condition);
-        boolean runtimeBreak = false;
+        Environment bodyEnv = loopBodyEnv(stmt.body);
         while (isTruthy(value)) {
-            try {
-                execute(stmt.body);
-            } catch (RuntimeBreak err) {
-                runtimeBreak = true;
-            } catch (RuntimeContinue err) {
-                // do nothing, continue
-            }
-            if (runtimeBreak) break;
+            Completion completion = executeLoopBody(stmt.body, bodyEnv);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+            countBackEdge();
+            if (jit != null && !tracing && jit.runLoop(stmt)) break;
             value = evaluate(stmt.condition);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitForStmt(Stmt.For stmt) {
+    public Completion visitForStmt(Stmt.For stmt) {
         Environment oldEnv = this.environment;
         // so that (var i = 0) initializer is not leaked to outer scope
-        this.environment = new Environment(oldEnv);
+        if (stmt.slotNames != null) {
+            this.environment = new Environment(oldEnv, stmt.slotNames);
+        }
         try {
             if (stmt.initializer != null) {
                 execute(stmt.initializer);
             }
-            boolean runtimeBreak = false;
+            Environment bodyEnv = loopBodyEnv(stmt.body);
             if (stmt.test != null) {
                 Object evalBody = evaluate(stmt.test);
                 while (isTruthy(evalBody)) {
-                    try {
-                        execute(stmt.body);
-                    } catch (RuntimeBreak err) {
-                        runtimeBreak = true;
-                    } catch (RuntimeContinue err) {
-                        // do nothing, continue
-                    }
-                    if (runtimeBreak) break;
+                    Completion completion = executeLoopBody(stmt.body, bodyEnv);
+                    if (completion == Completion.BREAK) break;
+                    if (completion == Completion.RETURN) return completion;
+                    countBackEdge();
+                    if (jit != null && !tracing && jit.runLoop(stmt)) break;
                     if (stmt.increment != null) {
                         evaluate(stmt.increment);
                     }
@@ -986,14 +1552,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
             } else {
                 while (true) {
-                    try  {
-                        execute(stmt.body);
-                    } catch (RuntimeBreak err) {
-                        runtimeBreak = true;
-                    } catch (RuntimeContinue err) {
-                        // do nothing, continue
-                    }
-                    if (runtimeBreak) break;
+                    Completion completion = executeLoopBody(stmt.body, bodyEnv);
+                    if (completion == Completion.BREAK) break;
+                    if (completion == Completion.RETURN) return completion;
+                    countBackEdge();
+                    if (jit != null && !tracing && jit.runLoop(stmt)) break;
                     if (stmt.increment != null) {
                         evaluate(stmt.increment);
                     }
@@ -1002,11 +1565,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         } finally {
             this.environment = oldEnv;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitForeachStmt(Stmt.Foreach stmt) {
+    public Completion visitForeachStmt(Stmt.Foreach stmt) {
         Environment oldEnv = this.environment;
         Object evalObj = evaluate(stmt.obj);
         boolean useNextIter = false;
@@ -1051,11 +1614,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         int len = 0;
         List<Object> elements = new ArrayList<Object>();
         if (!useNextIter) {
-            elements = (List<Object>)instance.getHiddenProp("ary");
+            elements = ((LoxArray)instance).elements;
             len = elements.size();
         }
         // so that (foreach i, j in expr()), variables are not leaked to outer scope
-        this.environment = new Environment(oldEnv);
+        this.environment = new Environment(oldEnv, stmt.slotNames);
+        Environment bodyEnv = loopBodyEnv(stmt.body);
         int numVars = stmt.variables.size();
         int i = 0;
         try {
@@ -1081,7 +1645,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
                 if (numVars > 1) {
                     LoxInstance valObj = (LoxInstance)val;
-                    List<Object> valElements = (List<Object>)valObj.getHiddenProp("ary");
+                    List<Object> valElements = ((LoxArray)valObj).elements;
                     for (int j = 0; j < numVars; j++) {
                         Token elemVar = stmt.variables.get(j);
                         Object valEl = null;
@@ -1093,16 +1657,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 } else {
                     environment.define(stmt.variables.get(0).lexeme, val);
                 }
-                execute(stmt.body);
+                Completion completion = executeLoopBody(stmt.body, bodyEnv);
+                if (completion == Completion.BREAK) break;
+                if (completion == Completion.RETURN) return completion;
+                countBackEdge();
             }
         } finally {
             this.environment = oldEnv;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitInStmt(Stmt.In stmt) {
+    public Completion visitInStmt(Stmt.In stmt) {
         Object obj = evaluate(stmt.object);
         if (!Runtime.isInstance(obj)) {
             Token tok = tokenFromExpr(stmt.object);
@@ -1123,48 +1690,49 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
         this.currentMod = thisMod;
 
-        this.environment = new Environment(outerEnv);
+        this.environment = new Environment(outerEnv, stmt.slotNames);
         environment.define("this", objInst);
-        for (Stmt statement : stmt.body) {
-            execute(statement);
-        }
+        Completion completion = executeBody(stmt.body);
 
         this.currentMod = oldCurMod;
         this.environment = outerEnv;
-        return null;
+        return completion;
     }
 
     @Override
-    public Void visitTryStmt(Stmt.Try stmt) {
+    public Completion visitTryStmt(Stmt.Try stmt) {
         int oldStackSz = stack.size();
+        int oldNumNativeCalls = numNativeCalls;
         try {
-            execute(stmt.tryBlock);
+            return execute(stmt.tryBlock);
         } catch (RuntimeThrow throwErr) {
             Object throwVal = throwErr.value;
             for (Stmt.Catch catchStmt : stmt.catchStmts) {
                 Object catchVal = evaluate(catchStmt.catchExpr);
                 if (isCatchEqual(throwVal, catchVal)) {
-                    unwindStack(oldStackSz);
-                    Environment blockEnv = new Environment(this.environment);
+                    unwindStack(oldStackSz, oldNumNativeCalls);
+                    Environment blockEnv = this.environment;
                     if (catchStmt.catchVar != null) {
+                        blockEnv = new Environment(blockEnv, catchStmt.slotNames);
                         blockEnv.define(catchStmt.catchVar.name.lexeme, throwVal);
                     }
-                    executeBlock(catchStmt.block.statements, new Environment(blockEnv));
-                    return null;
+                    return executeBlock(catchStmt.block.statements,
+                        new Environment(blockEnv, catchStmt.block.slotNames));
                 }
             }
             throw throwErr;
         }
-        return null;
     }
 
     @Override
-    public Void visitCatchStmt(Stmt.Catch stmt) {
-        return null; // see visitTryStmt
+    public Completion visitCatchStmt(Stmt.Catch stmt) {
+        // catch statements are run by visitTryStmt, never on their own
+        unreachable("visitCatchStmt");
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitThrowStmt(Stmt.Throw stmt) {
+    public Completion visitThrowStmt(Stmt.Throw stmt) {
         Object throwValue = evaluate(stmt.throwExpr);
         stack.add(new StackFrame(stmt, stmt.keyword));
         throw new RuntimeThrow(throwValue, stmt.keyword);
@@ -1172,17 +1740,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new RuntimeBreak();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new RuntimeContinue();
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         Stmt.Function func = (Stmt.Function)stmt;
         boolean isInitializer = func.type == Parser.FunctionType.INITIALIZER;
         boolean isStaticMethod = func.type == Parser.FunctionType.CLASS_METHOD;
@@ -1203,15 +1771,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         } else  if (isInstanceMethod){
             mod.addMethod(func.name.lexeme, callable);
             callable.setModuleDefinedIn(mod);
+        } else if (stmt.slot >= 0) {
+            environment.defineAt(stmt.slot, callable);
         } else {
-            environment.defineFunction(stmt.name, stmt);
             environment.define(stmt.name.lexeme, callable);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         LoxModule enclosingMod = this.currentMod;
         String namePrefix = "";
         if (enclosingMod != null) {
@@ -1240,10 +1809,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             klass = new LoxClass(newClassNameFull, superKlass, methods);
             classMap.put(newClassNameFull, klass);
             environment.assign(stmt.name, klass, false);
+        } else if (environment != globals) {
+            // reopened in a local scope, which has its own slot for the name
+            // (see Resolver#visitClassStmt)
+            environment.define(stmt.name.lexeme, klass);
         }
         this.currentMod = klass;
         Environment outerEnv = environment;
-        this.environment = new Environment(outerEnv);
+        this.environment = new Environment(outerEnv, stmt.slotNames);
         this.environment.define("this", klass);
 
         if (enclosingMod != null) {
@@ -1256,17 +1829,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             enclosingMod.setProperty(stmt.name.lexeme, klass, this, null);
         }
 
-        for (Stmt statement : stmt.body) {
-            execute(statement);
-        }
+        Completion completion = executeBody(stmt.body);
 
         this.currentMod = enclosingMod;
         this.environment = outerEnv;
-        return null;
+        return completion;
     }
 
     @Override
-    public Void visitModuleStmt(Stmt.Module stmt) {
+    public Completion visitModuleStmt(Stmt.Module stmt) {
         LoxModule enclosingMod = this.currentMod;
         String namePrefix = "";
         if (enclosingMod != null) {
@@ -1281,10 +1852,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             mod = new LoxModule(Runtime.getClass("Module"), "Module", newModNameFull, methods);
             modMap.put(newModNameFull, mod);
             environment.assign(stmt.name, mod, false);
+        } else if (environment != globals) {
+            // see visitClassStmt
+            environment.define(stmt.name.lexeme, mod);
         }
         this.currentMod = mod;
         Environment outerEnv = environment;
-        this.environment = new Environment(outerEnv);
+        this.environment = new Environment(outerEnv, stmt.slotNames);
         this.environment.define("this", mod);
 
         if (enclosingMod != null) {
@@ -1297,24 +1871,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             enclosingMod.setProperty(stmt.name.lexeme, mod, this, null);
         }
 
-        for (Stmt statement : stmt.body) {
-            execute(statement);
-        }
+        Completion completion = executeBody(stmt.body);
 
         this.currentMod = enclosingMod;
         this.environment = outerEnv;
-        return null;
+        return completion;
     }
 
     @Override
     public Object visitAnonFnExpr(Expr.AnonFn expr) {
-        Stmt.Function stmt = new Stmt.Function(null, expr.formals, expr.body, Parser.FunctionType.FUNCTION, null);
-        LoxCallable callable = new LoxFunction(stmt, this.environment, false);
-        return callable;
+        // one declaration for all the node's functions, so they share their
+        // BindingPlan and Jit profile
+        Stmt.Function stmt = expr.function;
+        if (stmt == null) {
+            stmt = new Stmt.Function(null, expr.formals, expr.body, Parser.FunctionType.FUNCTION, null);
+            stmt.paramSlotNames = expr.paramSlotNames;
+            expr.function = stmt;
+        }
+        if (expr.captures) {
+            return new LoxFunction(stmt, this.environment, false);
+        }
+        // A function that uses no variables of the scopes it's in (see
+        // Resolver#markCaptures) doesn't need them: it's made once, closing
+        // over the globals only. Every evaluation of the expression gives that
+        // same object, so they compare equal with `==`.
+        if (expr.shared == null) {
+            expr.shared = new LoxFunction(stmt, globals, false);
+        }
+        return expr.shared;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         if (fnCall == null) {
             throw new RuntimeError(stmt.keyword, "Keyword 'return' can only be used inside function/method bodies");
         }
@@ -1322,12 +1910,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (stmt.expression != null) {
             value = evaluate(stmt.expression);
         }
-        throw new RuntimeReturn(value);
+        this.returnValue = value;
+        return Completion.RETURN;
+    }
+
+    // the value of the `return` that completed with Completion.RETURN
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 
     public Object evaluate(Expr expr) {
-        this.lastValue = expr.accept(this);
-        return lastValue;
+        if (tracing) {
+            beforeVisit(expr);
+            Object value = expr.accept(this);
+            afterVisit(expr);
+            return value;
+        }
+        return expr.accept(this);
     }
 
     public boolean isTruthy(Object obj) {
@@ -1343,11 +1944,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (a == null) return false;
         if (b == null) return false;
         if (Runtime.isString(a) && Runtime.isString(b)) {
-            LoxInstance aObj = Runtime.toString(a);
-            StringBuffer aBuf = (StringBuffer)aObj.getHiddenProp("buf");
-            LoxInstance bObj = Runtime.toString(b);
-            StringBuffer bBuf = (StringBuffer)bObj.getHiddenProp("buf");
-            return aBuf.toString().equals(bBuf.toString());
+            return ((LoxString)a).str.equals(((LoxString)b).str);
         }
         return a.equals(b);
     }
@@ -1394,7 +1991,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         if (Runtime.isString(object)) {
             LoxInstance instance = Runtime.toInstance(object);
-            return ((StringBuffer)instance.getHiddenProp("buf")).toString();
+            return Runtime.toJavaString(instance);
         }
 
         return object.toString();
@@ -1434,22 +2031,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    Completion execute(Stmt stmt) {
+        if (tracing) {
+            beforeVisit(stmt);
+            Completion completion = stmt.accept(this);
+            afterVisit(stmt);
+            return completion;
+        }
+        return stmt.accept(this);
     }
 
-    public void executeBlock(List<Stmt> stmts, Environment env) {
+    public Completion executeBlock(List<Stmt> stmts, Environment env) {
         Environment oldEnv = environment;
         try {
             this.environment = env;
-            for (Stmt stmt : stmts) {
-                execute(stmt);
-            }
+            return executeBody(stmts);
         } finally {
             this.environment = oldEnv;
         }
     }
 
+    // runs the statements in the current environment, stopping at the
+    // first one that doesn't complete normally
+    private Completion executeBody(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            Completion completion = execute(stmt);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        return Completion.NORMAL;
+    }
+
     public Integer lineForNode(Object node) {
         if (node == null) {
             System.err.println("Warning: lineForNode got null");
@@ -1569,30 +2182,81 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    public void resolve(Expr expr, int depth, int slot) {
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable)expr).depth = depth;
+            ((Expr.Variable)expr).slot = slot;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign)expr).depth = depth;
+            ((Expr.Assign)expr).slot = slot;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This)expr).depth = depth;
+            ((Expr.This)expr).slot = slot;
+        } else if (expr instanceof Expr.Super) { // its `this`
+            ((Expr.Super)expr).depth = depth;
+            ((Expr.Super)expr).slot = slot;
+        } else {
+            LoxUtil.Assert(false, "unreachable");
+        }
+    }
+
+    // Calls of native functions and methods are recorded with these instead
+    // of StackFrames, without allocating anything. Like frames, they're
+    // left in place when an error is thrown from the call, so they're in
+    // the stacktrace (see visitTryStmt).
+    void pushNativeCall(LoxCallable callable, Token callToken) {
+        if (numNativeCalls == nativeCalls.length) {
+            int newLen = nativeCalls.length * 2;
+            nativeCalls = Arrays.copyOf(nativeCalls, newLen);
+            nativeCallTokens = Arrays.copyOf(nativeCallTokens, newLen);
+            nativeCallDepths = Arrays.copyOf(nativeCallDepths, newLen);
+        }
+        nativeCalls[numNativeCalls] = callable;
+        nativeCallTokens[numNativeCalls] = callToken;
+        nativeCallDepths[numNativeCalls] = stack.size();
+        numNativeCalls++;
+    }
+
+    void popNativeCall() {
+        numNativeCalls--;
+        nativeCalls[numNativeCalls] = null;
+        nativeCallTokens[numNativeCalls] = null;
+    }
+
+    // all the frames, the native calls' ones made now, most recent call last
+    private List<StackFrame> frames() {
+        List<StackFrame> frames = new ArrayList<>(stack.size() + numNativeCalls);
+        int nativeIdx = 0;
+        for (int i = 0; i <= stack.size(); i++) {
+            while (nativeIdx < numNativeCalls && nativeCallDepths[nativeIdx] == i) {
+                frames.add(new StackFrame(nativeCalls[nativeIdx], nativeCallTokens[nativeIdx]));
+                nativeIdx++;
+            }
+            if (i < stack.size()) {
+                frames.add(stack.get(i));
+            }
+        }
+        return frames;
     }
 
     public String stacktrace() {
         StringBuilder builder = new StringBuilder();
-        int sz = stack.size();
-        int i = sz-1;
-        while (i >= 0) {
-            StackFrame frame = stack.get(i);
-            builder.append(frame.toString() + "\n");
-            i--;
+        for (String line : stacktraceLines()) {
+            if (builder.length() > 0) {
+                builder.append("\n");
+            }
+            builder.append(line);
         }
-        builder.append("<main>");
         return builder.toString();
     }
 
     // stacktrace lines, most recent call first in list
     public List<String> stacktraceLines() {
         List<String> ret = new ArrayList<>();
-        int sz = stack.size();
-        int i = sz-1;
+        List<StackFrame> frames = frames();
+        int i = frames.size()-1;
         while (i >= 0) {
-            StackFrame frame = stack.get(i);
+            StackFrame frame = frames.get(i);
             ret.add(frame.toString());
             i--;
         }
@@ -1602,6 +2266,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     public void clearStack() {
         this.stack.clear();
+        unwindNativeCalls(0);
     }
 
     public boolean hasUncaughtException() {
@@ -1619,10 +2284,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             this.resolver.hasErrors();
     }
 
-    private void unwindStack(int size) {
+    private void unwindStack(int size, int numNativeCalls) {
         while (stack.size() > size) {
             stack.pop();
         }
+        unwindNativeCalls(numNativeCalls);
+    }
+
+    private void unwindNativeCalls(int num) {
+        while (numNativeCalls > num) {
+            popNativeCall();
+        }
     }
 
     public LoxInstance createInstance(String className, List<Object> initArgs, Map<String,Object> kwargs) {
@@ -1655,7 +2327,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private List<String> loadPathJavaStrings() {
         List<String> ret = new ArrayList<String>();
         LoxInstance loxInst = Runtime.toInstance(globals.getGlobal("LOAD_PATH"));
-        List<Object> loxAry = (List<Object>)loxInst.getHiddenProp("ary");
+        List<Object> loxAry = ((LoxArray)loxInst).elements;
         for (Object obj : loxAry) {
             if (Runtime.isString(obj)) {
                 ret.add(Runtime.toJavaString(Runtime.toString(obj)));
@@ -1664,9 +2336,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return ret;
     }
 
+    // Scripts compiled into the running jar are found even when their source
+    // files aren't there anymore
+    private String fullPathToScript(String fname) {
+        List<String> loadPath = loadPathJavaStrings();
+        String fullPath = Lox.fullPathToScript(fname, loadPath);
+        if (fullPath == null && aotImage != null) {
+            fullPath = aotImage.fullPathToScript(fname, loadPath);
+        }
+        return fullPath;
+    }
+
     public boolean loadScriptOnce(String fname) {
         String fullPath = null;
-        if ((fullPath = Lox.fullPathToScript(fname, loadPathJavaStrings())) != null) {
+        if ((fullPath = fullPathToScript(fname)) != null) {
             if (Lox.hasLoadedScriptOnce(fullPath)) {
                 return false;
             }
@@ -1686,7 +2369,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     public boolean loadScript(String fname) {
         String fullPath = null;
-        if ((fullPath = Lox.fullPathToScript(fname, loadPathJavaStrings())) != null) {
+        if ((fullPath = fullPathToScript(fname)) != null) {
             String oldFile = this.runningFile;
             try {
                 setRunningFile(fullPath);
@@ -1793,9 +2476,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             LoxCallable clonedFunc = ((LoxCallable)callableObj).clone();
             clonedFunc.setName(newName);
             // TODO: maybe warn if variable already exists in this scope?
-            if (clonedFunc.getDecl() != null) {
-                env.functions.put(newName, clonedFunc.getDecl());
-            }
             env.define(newName, clonedFunc);
         } else if (aliasType.equals("method")) {
             LoxClass klass = (LoxClass)envOrClass;
@@ -1807,19 +2487,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 LoxUtil.Assert(mod != null);
                 LoxCallable clonedFunc = ((LoxCallable)func).clone();
                 clonedFunc.setName(newName);
-                mod.methods.put(newName, clonedFunc);
+                mod.addMethod(newName, clonedFunc);
             } else if ((func = klass.getGetter(oldName)) != null) {
                 LoxModule mod = func.getModuleDefinedIn();
                 LoxUtil.Assert(mod != null);
                 LoxCallable clonedFunc = ((LoxCallable)func).clone();
                 clonedFunc.setName(newName);
-                mod.getters.put(newName, clonedFunc);
+                mod.addGetter(newName, clonedFunc);
             } else if ((func = klass.getSetter(oldName)) != null) {
                 LoxModule mod = func.getModuleDefinedIn();
                 LoxUtil.Assert(mod != null);
                 LoxCallable clonedFunc = ((LoxCallable)func).clone();
                 clonedFunc.setName(newName);
-                mod.setters.put(newName, clonedFunc);
+                mod.addSetter(newName, clonedFunc);
             } else {
                 throwLoxError("MethodNotFound", tok, "<alias> couldn't find method/getter/setter '" + oldName + "'");
                 return;
@@ -1832,9 +2512,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private void evalFile(String fullPath) {
         Environment oldEnv = this.environment;
         try {
-            String src = LoxUtil.readFile(fullPath);
+            List<Stmt> compiled = aotImage == null ? null : aotImage.statements(fullPath);
             this.environment = globals;
-            interpret(src);
+            if (compiled != null) {
+                interpretPrepared(compiled);
+            } else {
+                interpret(LoxUtil.readFile(fullPath));
+            }
         } catch (IOException e) {
             System.err.println(e.getMessage());
         } finally {
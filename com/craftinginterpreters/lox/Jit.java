@@ -0,0 +1,246 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Tiered execution of Lox functions. A function counts its calls and the
+// loop iterations (back-edges) run in it. Once that gets to HOT_THRESHOLD,
+// JitCompiler tries to compile it to a JVM class, which the JVM's own JIT
+// then optimizes like any Java code. Compiled code assumes what was true
+// when it was compiled: the types of the arguments, and that the global
+// variable the function calls itself by still holds it. These are checked
+// when it's entered, and if they don't hold, or the compiled code finds
+// something it can't do (it throws Deopt), the call deoptimizes: it's run
+// by the interpreter, from the start. Compiled functions don't have side
+// effects, so running them again doesn't change what a program does.
+//
+// Loops are counted too: a loop that the interpreter runs for
+// HOT_THRESHOLD iterations is compiled, and entered at its next back-edge
+// (on-stack replacement). A loop at the top level of a script is only run
+// once, so it wouldn't get faster otherwise.
+class Jit {
+    static final int HOT_THRESHOLD = 1000;
+    // after this many deoptimizations, a function is always interpreted
+    static final int MAX_DEOPTS = 10;
+    // returned by run() when the call has to be interpreted
+    static final Object NOT_RUN = new Object();
+
+    // Implemented by the generated classes. Public, because they're in
+    // another class loader.
+    public interface Code {
+        Object run(Object[] args);
+    }
+
+    // Thrown by compiled code to deoptimize. There's only one instance,
+    // without a stack trace, so it's cheap.
+    public static final class Deopt extends RuntimeException {
+        public static final Deopt INSTANCE = new Deopt();
+
+        private Deopt() {
+            super(null, null, false, false);
+        }
+    }
+
+    // The counters and compiled code of a function (Stmt.Function#profile)
+    // or a loop (Stmt.While#profile, Stmt.For#profile)
+    static final class Profile {
+        private int hotness = 0;
+        private int deopts = 0;
+        private boolean interpretOnly = false;
+        private Code code = null;
+        private JitCompiler.Type[] paramTypes = null;
+        private boolean callsItself = false;
+        private List<JitCompiler.OuterVar> outerVars = null; // of a loop
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(Jit.class.getClassLoader());
+        }
+
+        Class<?> define(String binaryName, byte[] classFile) {
+            return defineClass(binaryName, classFile, 0, classFile.length);
+        }
+    }
+
+    private final Interpreter interp;
+    private final Loader loader = new Loader();
+    private int numClasses = 0;
+
+    Jit(Interpreter interp) {
+        this.interp = interp;
+    }
+
+    private static Profile profileOf(Stmt.Function decl) {
+        if (decl.profile == null) {
+            decl.profile = new Profile();
+        }
+        return decl.profile;
+    }
+
+    void countBackEdge(Stmt.Function decl) {
+        profileOf(decl).hotness++;
+    }
+
+    // Runs the call of `function` with compiled code, returning its return
+    // value, or NOT_RUN if the function isn't compiled (yet) or the call
+    // deoptimized.
+    Object run(LoxFunction function, Object[] args, String[] kwargNames) {
+        Stmt.Function decl = function.declaration;
+        Profile profile = profileOf(decl);
+        if (profile.interpretOnly) {
+            return NOT_RUN;
+        }
+        if (profile.code == null) {
+            if (++profile.hotness < HOT_THRESHOLD || kwargNames != null) {
+                return NOT_RUN;
+            }
+            compile(decl, profile, args);
+            if (profile.code == null) {
+                profile.interpretOnly = true;
+                return NOT_RUN;
+            }
+        }
+        if (!canEnter(function, profile, args, kwargNames)) {
+            deoptimized(functionName(decl), profile);
+            return NOT_RUN;
+        }
+        try {
+            return profile.code.run(args);
+        } catch (Deopt | StackOverflowError e) {
+            deoptimized(functionName(decl), profile);
+            return NOT_RUN;
+        }
+    }
+
+    private void compile(Stmt.Function decl, Profile profile, Object[] args) {
+        JitCompiler.Type[] paramTypes = new JitCompiler.Type[args.length];
+        for (int i = 0; i < args.length; i++) {
+            paramTypes[i] = JitCompiler.Type.of(args[i]);
+            if (paramTypes[i] == null) {
+                return;
+            }
+        }
+        String className = "com/craftinginterpreters/lox/jit/Fn" + (numClasses++);
+        JitCompiler.Compiled compiled = JitCompiler.compile(decl, paramTypes, className);
+        if (compiled == null) {
+            LoxUtil.debug("jit", "can't compile " + functionName(decl));
+            return;
+        }
+        try {
+            Class<?> klass = loader.define(className.replace('/', '.'), compiled.classFile);
+            profile.code = (Code)klass.getDeclaredConstructor().newInstance();
+            profile.paramTypes = paramTypes;
+            profile.callsItself = compiled.callsItself;
+            LoxUtil.debug("jit", "compiled " + functionName(decl));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // the generated code is invalid, which is a bug in the JIT
+            LoxUtil.debug("jit", "couldn't load " + functionName(decl) + ": " + e);
+        }
+    }
+
+    boolean runLoop(Stmt.While stmt) {
+        if (stmt.profile == null) {
+            stmt.profile = new Profile();
+        }
+        return runLoop(stmt, stmt.keyword, stmt.profile);
+    }
+
+    boolean runLoop(Stmt.For stmt) {
+        if (stmt.profile == null) {
+            stmt.profile = new Profile();
+        }
+        return runLoop(stmt, stmt.keyword, stmt.profile);
+    }
+
+    // Called at each back-edge of a loop the interpreter runs, in the
+    // loop's environment. Runs the rest of the loop with compiled code if
+    // it's hot, returning true if it ran to the end, or false if the
+    // interpreter has to carry on with it (see JitCompiler#compileLoop).
+    private boolean runLoop(Stmt loopStmt, Token keyword, Profile profile) {
+        if (profile.interpretOnly) {
+            return false;
+        }
+        if (profile.code == null) {
+            if (++profile.hotness < HOT_THRESHOLD) {
+                return false;
+            }
+            compileLoop(loopStmt, keyword, profile);
+            if (profile.code == null) {
+                profile.interpretOnly = true;
+                return false;
+            }
+        }
+        List<JitCompiler.OuterVar> vars = profile.outerVars;
+        Object[] values = new Object[vars.size()];
+        for (int i = 0; i < values.length; i++) {
+            JitCompiler.OuterVar var = vars.get(i);
+            values[i] = var.distance < 0 ? interp.globals.getGlobal(var.name.lexeme) :
+                interp.environment.getAt(var.distance, var.slot);
+            if (JitCompiler.Type.of(values[i]) != var.type) {
+                deoptimized("loop at line " + keyword.line, profile);
+                return false;
+            }
+        }
+        Object ranToEnd = profile.code.run(values);
+        for (int i = 0; i < values.length; i++) {
+            JitCompiler.OuterVar var = vars.get(i);
+            interp.assignVariable(var.distance < 0 ? -1 : var.distance, var.slot, var.name, values[i]);
+        }
+        if (ranToEnd == Boolean.TRUE) {
+            return true;
+        }
+        deoptimized("loop at line " + keyword.line, profile);
+        return false;
+    }
+
+    private void compileLoop(Stmt loopStmt, Token keyword, Profile profile) {
+        String className = "com/craftinginterpreters/lox/jit/Loop" + (numClasses++);
+        JitCompiler.CompiledLoop compiled = JitCompiler.compileLoop(loopStmt,
+            interp.environment, interp.globals, className);
+        if (compiled == null) {
+            LoxUtil.debug("jit", "can't compile loop at line " + keyword.line);
+            return;
+        }
+        try {
+            Class<?> klass = loader.define(className.replace('/', '.'), compiled.classFile);
+            profile.code = (Code)klass.getDeclaredConstructor().newInstance();
+            profile.outerVars = compiled.outerVars;
+            LoxUtil.debug("jit", "compiled loop at line " + keyword.line);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LoxUtil.debug("jit", "couldn't load loop at line " + keyword.line + ": " + e);
+        }
+    }
+
+    private static String functionName(Stmt.Function decl) {
+        return decl.name == null ? LoxFunction.ANON_NAME : decl.name.lexeme;
+    }
+
+    private boolean canEnter(LoxFunction function, Profile profile, Object[] args, String[] kwargNames) {
+        if (kwargNames != null || args.length != profile.paramTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (JitCompiler.Type.of(args[i]) != profile.paramTypes[i]) {
+                return false;
+            }
+        }
+        // compiled code calls itself directly for calls by its name
+        if (profile.callsItself) {
+            Object global = interp.globals.getGlobal(function.declaration.name.lexeme);
+            if (!(global instanceof LoxFunction) ||
+                    ((LoxFunction)global).declaration != function.declaration) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void deoptimized(String name, Profile profile) {
+        profile.deopts++;
+        LoxUtil.debug("jit", "deoptimized " + name);
+        if (profile.deopts >= MAX_DEOPTS) {
+            profile.code = null;
+            profile.interpretOnly = true;
+        }
+    }
+}
@@ -0,0 +1,823 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.ClassFileWriter.*;
+
+// Compiles a Lox function to a JVM class implementing Jit.Code, if all it
+// does is compute with numbers and booleans in its own local variables,
+// branch, loop and call itself. That code can't have side effects or raise
+// errors: where the interpreter would raise one (ex: division by 0), the
+// compiled code throws Jit.Deopt, and the call is run again by the
+// interpreter (see Jit). Anything else isn't supported, and compile()
+// returns null.
+//
+// Values are unboxed: numbers are doubles and booleans are ints in JVM
+// local variables. The types of the parameters are the ones given when the
+// function got hot, the types of variables are the types of their
+// initializers, and must stay the same.
+//
+// Loops can be compiled too, to run the rest of a loop that the
+// interpreter is running (on-stack replacement, see compileLoop).
+class JitCompiler implements Expr.Visitor<JitCompiler.Type>, Stmt.Visitor<Void> {
+    static final String CODE_CLASS = "com/craftinginterpreters/lox/Jit$Code";
+    static final String DEOPT_CLASS = "com/craftinginterpreters/lox/Jit$Deopt";
+
+    enum Type {
+        NUM("D", 2, "java/lang/Double", "doubleValue"),
+        BOOL("Z", 1, "java/lang/Boolean", "booleanValue");
+
+        final String descriptor;
+        final int size; // in local variable and stack slots
+        final String boxClass;
+        final String unboxMethod;
+
+        Type(String descriptor, int size, String boxClass, String unboxMethod) {
+            this.descriptor = descriptor;
+            this.size = size;
+            this.boxClass = boxClass;
+            this.unboxMethod = unboxMethod;
+        }
+
+        static Type of(Object value) {
+            if (value instanceof Double) return NUM;
+            if (value instanceof Boolean) return BOOL;
+            return null;
+        }
+    }
+
+    static final class Compiled {
+        final byte[] classFile;
+        // if it calls itself by its name, see isSelfCall()
+        final boolean callsItself;
+
+        private Compiled(byte[] classFile, boolean callsItself) {
+            this.classFile = classFile;
+            this.callsItself = callsItself;
+        }
+    }
+
+    // A variable that a compiled loop uses, declared outside of it: in the
+    // loop's environment or the ones enclosing it, or a global
+    static final class OuterVar {
+        final int distance; // from the loop's environment, -1 for globals
+        final int slot;
+        final Token name;
+        final Type type;
+
+        private OuterVar(int distance, int slot, Token name, Type type) {
+            this.distance = distance;
+            this.slot = slot;
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    static final class CompiledLoop {
+        final byte[] classFile;
+        final List<OuterVar> outerVars;
+
+        private CompiledLoop(byte[] classFile, List<OuterVar> outerVars) {
+            this.classFile = classFile;
+            this.outerVars = outerVars;
+        }
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // The function's Environments, and the JVM local variables their slots
+    // are kept in
+    private static class Scope {
+        final int[] locals;
+        final Type[] types;
+
+        Scope(int numSlots) {
+            this.locals = new int[numSlots];
+            this.types = new Type[numSlots];
+            for (int i = 0; i < numSlots; i++) {
+                locals[i] = -1;
+            }
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final Stmt stmt;
+        final Label continueLabel = new Label();
+        final Label breakLabel = new Label();
+
+        Loop(Loop enclosing, Stmt stmt) {
+            this.enclosing = enclosing;
+            this.stmt = stmt;
+        }
+    }
+
+    private final Stmt.Function decl; // null for loops
+    private final Type[] paramTypes;
+    private final String className;
+    private Type returnType;
+    // for loops: the loop, the environment it runs in, and the variables
+    // it uses from outside of it, with their JVM locals and the locals that
+    // keep their values at the last back-edge
+    private Stmt osrLoop = null;
+    private Environment osrEnv = null;
+    private Environment globals = null;
+    private List<OuterVar> outerVars = null;
+    private final List<Integer> outerLocals = new ArrayList<>();
+    private final List<Integer> savedLocals = new ArrayList<>();
+    private boolean findingOuterVars = false;
+    private ClassFileWriter.Method code;
+    private final List<Scope> scopes = new ArrayList<>();
+    private Loop loop = null;
+    private Label start; // the start of the body, where tail calls to itself jump
+    private int nextLocal;
+    private boolean callsItself = false;
+
+    private JitCompiler(Stmt.Function decl, Type[] paramTypes, String className, Type returnType) {
+        this.decl = decl;
+        this.paramTypes = paramTypes;
+        this.className = className;
+        this.returnType = returnType;
+    }
+
+    // Returns null if the function can't be compiled. `className` is an
+    // internal name. The return type isn't known before the body is
+    // compiled, and calls to itself need it, so it's tried as a number first,
+    // then as a boolean.
+    static Compiled compile(Stmt.Function decl, Type[] paramTypes, String className) {
+        if (decl.type != Parser.FunctionType.FUNCTION || decl.paramSlotNames == null ||
+                !BindingPlan.of(decl).isSimple) {
+            return null;
+        }
+        for (Type returnType : Type.values()) {
+            try {
+                return new JitCompiler(decl, paramTypes, className, returnType).compileClass();
+            } catch (Unsupported | ClassFileWriter.TooLarge e) {
+                // try the next return type
+            }
+        }
+        return null;
+    }
+
+    private JitCompiler(Stmt loopStmt, Environment env, Environment globals, String className,
+            List<OuterVar> outerVars) {
+        this(null, new Type[0], className, null);
+        this.osrLoop = loopStmt;
+        this.osrEnv = env;
+        this.globals = globals;
+        this.outerVars = outerVars;
+    }
+
+    // Compiles the rest of a while or for loop that the interpreter is
+    // running in `env`, entered at a back-edge: before a while's condition,
+    // or a for's increment. The variables declared outside of it that it
+    // uses are kept in JVM locals while it runs, with the types of the
+    // values they have now. Returns null if the loop can't be compiled.
+    //
+    // Code#run gets their values in an array, and puts the new values back
+    // in it when the loop is done, returning true. If it deoptimizes, it
+    // puts back the values they had at the last back-edge, and returns
+    // false: the interpreter carries on from there, running again what the
+    // compiled code did after it, which changed only those values.
+    static CompiledLoop compileLoop(Stmt loopStmt, Environment env, Environment globals, String className) {
+        try {
+            // the outer variables are found first, so they can be read in
+            // before the loop starts
+            JitCompiler finder = new JitCompiler(loopStmt, env, globals, className, new ArrayList<OuterVar>());
+            finder.findingOuterVars = true;
+            finder.compileLoopClass();
+            JitCompiler compiler = new JitCompiler(loopStmt, env, globals, className, finder.outerVars);
+            return new CompiledLoop(compiler.compileLoopClass(), finder.outerVars);
+        } catch (Unsupported | ClassFileWriter.TooLarge e) {
+            return null;
+        }
+    }
+
+    private String fnDescriptor() {
+        StringBuilder desc = new StringBuilder("(");
+        for (Type type : paramTypes) {
+            desc.append(type.descriptor);
+        }
+        return desc.append(")").append(returnType.descriptor).toString();
+    }
+
+    private Compiled compileClass() {
+        ClassFileWriter cw = new ClassFileWriter(className, "java/lang/Object", CODE_CLASS);
+
+        ClassFileWriter.Method init = cw.method(ACC_PUBLIC, "<init>", "()V");
+        init.load(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.op(RETURN);
+
+        // Code#run(Object[]) unboxes the arguments (their types are checked
+        // by Jit) and boxes the return value
+        ClassFileWriter.Method run = cw.method(ACC_PUBLIC, "run", "([Ljava/lang/Object;)Ljava/lang/Object;");
+        for (int i = 0; i < paramTypes.length; i++) {
+            Type type = paramTypes[i];
+            run.load(ALOAD, 1);
+            run.pushInt(i);
+            run.op(AALOAD);
+            run.checkCast(type.boxClass);
+            run.invoke(INVOKEVIRTUAL, type.boxClass, type.unboxMethod, "()" + type.descriptor);
+        }
+        run.invoke(INVOKESTATIC, className, "fn", fnDescriptor());
+        run.invoke(INVOKESTATIC, returnType.boxClass, "valueOf",
+            "(" + returnType.descriptor + ")L" + returnType.boxClass + ";");
+        run.op(ARETURN);
+
+        this.code = cw.method(ACC_PUBLIC | ACC_STATIC, "fn", fnDescriptor());
+        // the body's variables are usually in the parameter scope too
+        Scope params = new Scope(decl.paramSlotNames.length);
+        for (int i = 0; i < paramTypes.length; i++) {
+            params.locals[i] = nextLocal;
+            params.types[i] = paramTypes[i];
+            nextLocal += paramTypes[i].size;
+        }
+        scopes.add(params);
+        this.start = new Label();
+        code.mark(start);
+        Stmt.Block body = (Stmt.Block)decl.body;
+        pushScope(body.slotNames);
+        for (Stmt stmt : body.statements) {
+            compile(stmt);
+        }
+        // it would return nil
+        deopt();
+        return new Compiled(cw.toByteArray(), callsItself);
+    }
+
+    private byte[] compileLoopClass() {
+        ClassFileWriter cw = new ClassFileWriter(className, "java/lang/Object", CODE_CLASS);
+
+        ClassFileWriter.Method init = cw.method(ACC_PUBLIC, "<init>", "()V");
+        init.load(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.op(RETURN);
+
+        this.code = cw.method(ACC_PUBLIC, "run", "([Ljava/lang/Object;)Ljava/lang/Object;");
+        this.nextLocal = 2; // `this` and the array
+        for (int i = 0; i < outerVars.size(); i++) {
+            Type type = outerVars.get(i).type;
+            allocateOuterLocals(type);
+            code.load(ALOAD, 1);
+            code.pushInt(i);
+            code.op(AALOAD);
+            code.checkCast(type.boxClass);
+            code.invoke(INVOKEVIRTUAL, type.boxClass, type.unboxMethod, "()" + type.descriptor);
+            store(type, outerLocals.get(i));
+        }
+        saveOuterVars();
+        Label tryStart = new Label();
+        Label tryEnd = new Label();
+        Label deopted = new Label();
+        code.handler(tryStart, tryEnd, deopted, DEOPT_CLASS);
+        code.mark(tryStart);
+        compile(osrLoop);
+        code.mark(tryEnd);
+        storeOuterVars(outerLocals, true);
+        code.mark(deopted);
+        code.op(POP);
+        storeOuterVars(savedLocals, false);
+        return cw.toByteArray();
+    }
+
+    private void allocateOuterLocals(Type type) {
+        outerLocals.add(nextLocal);
+        savedLocals.add(nextLocal + type.size);
+        nextLocal += 2 * type.size;
+    }
+
+    // at the back-edges of the compiled loop, see compileLoop
+    private void saveOuterVars() {
+        for (int i = 0; i < outerVars.size(); i++) {
+            Type type = outerVars.get(i).type;
+            load(type, outerLocals.get(i));
+            store(type, savedLocals.get(i));
+        }
+    }
+
+    // puts the values of `locals` back in the array, and returns `ret`
+    private void storeOuterVars(List<Integer> locals, boolean ret) {
+        for (int i = 0; i < outerVars.size(); i++) {
+            Type type = outerVars.get(i).type;
+            code.load(ALOAD, 1);
+            code.pushInt(i);
+            load(type, locals.get(i));
+            code.invoke(INVOKESTATIC, type.boxClass, "valueOf",
+                "(" + type.descriptor + ")L" + type.boxClass + ";");
+            code.op(AASTORE);
+        }
+        code.op(ret ? ICONST_1 : ICONST_0);
+        code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+        code.op(ARETURN);
+    }
+
+    // The index in outerVars of a variable resolved to `depth`, if it's
+    // declared outside of the compiled loop, otherwise -1
+    private int outerVarIndex(int depth, int slot, Token name) {
+        if (osrLoop == null || (depth >= 0 && depth < scopes.size())) {
+            return -1;
+        }
+        int distance = depth < 0 ? -1 : depth - scopes.size();
+        for (int i = 0; i < outerVars.size(); i++) {
+            OuterVar var = outerVars.get(i);
+            if (var.distance == distance && (distance < 0 ? var.name.lexeme.equals(name.lexeme) : var.slot == slot)) {
+                return i;
+            }
+        }
+        if (!findingOuterVars || (distance >= 0 && slot < 0)) {
+            throw new Unsupported();
+        }
+        Object value = distance < 0 ? globals.getGlobal(name.lexeme) : osrEnv.getAt(distance, slot);
+        Type type = Type.of(value);
+        if (type == null) {
+            throw new Unsupported();
+        }
+        outerVars.add(new OuterVar(distance, slot, name, type));
+        allocateOuterLocals(type);
+        return outerVars.size() - 1;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private Type compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void compile(Expr expr, Type expected) {
+        if (compile(expr) != expected) {
+            throw new Unsupported();
+        }
+    }
+
+    private void deopt() {
+        code.getStatic(DEOPT_CLASS, "INSTANCE", "L" + DEOPT_CLASS + ";");
+        code.op(ATHROW);
+    }
+
+    private void pop(Type type) {
+        code.op(type == Type.NUM ? POP2 : POP);
+    }
+
+    private void load(Type type, int local) {
+        code.load(type == Type.NUM ? DLOAD : ILOAD, local);
+    }
+
+    private void store(Type type, int local) {
+        code.store(type == Type.NUM ? DSTORE : ISTORE, local);
+    }
+
+    // the scope of a variable resolved to `depth`, which must be in the
+    // function: the function doesn't close over any variables
+    private Scope scopeAt(int depth) {
+        if (depth < 0 || depth >= scopes.size()) {
+            throw new Unsupported();
+        }
+        return scopes.get(scopes.size() - 1 - depth);
+    }
+
+    // blocks and for loops that declare nothing have no scope (their
+    // slotNames are null, see Resolver)
+    private void pushScope(String[] slotNames) {
+        if (slotNames != null) {
+            scopes.add(new Scope(slotNames.length));
+        }
+    }
+
+    private void popScope(String[] slotNames) {
+        if (slotNames != null) {
+            scopes.remove(scopes.size() - 1);
+        }
+    }
+
+    // Leaves 1 on the stack if the jump isn't taken, 0 if it is. `jumpOp`
+    // takes the operands of the comparison.
+    private Type booleanOf(int jumpOp) {
+        Label isFalse = new Label();
+        Label end = new Label();
+        code.jump(jumpOp, isFalse);
+        code.op(ICONST_1);
+        code.jump(GOTO, end);
+        code.mark(isFalse);
+        code.op(ICONST_0);
+        code.mark(end);
+        return Type.BOOL;
+    }
+
+    // A call of the function by its own name. The name is a global variable
+    // that Jit checks holds the function when compiled code is entered, and
+    // compiled code can't assign it.
+    private boolean isSelfCall(Expr.Call expr) {
+        if (!(expr.left instanceof Expr.Variable) || decl == null || decl.name == null) {
+            return false;
+        }
+        Expr.Variable callee = (Expr.Variable)expr.left;
+        if (callee.depth < 0 && callee.name.lexeme.equals(decl.name.lexeme)) {
+            callsItself = true;
+            return true;
+        }
+        return false;
+    }
+
+    private void compileSelfCallArgs(Expr.Call expr) {
+        if (expr.args.size() != paramTypes.length) {
+            throw new Unsupported();
+        }
+        for (int i = 0; i < paramTypes.length; i++) {
+            Expr arg = expr.args.get(i);
+            if (arg instanceof Expr.SplatCall || arg instanceof Expr.KeywordArg) {
+                throw new Unsupported();
+            }
+            compile(arg, paramTypes[i]);
+        }
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        Type type = Type.of(expr.value);
+        if (type == Type.NUM) {
+            code.pushDouble((Double)expr.value);
+        } else if (type == Type.BOOL) {
+            code.op((Boolean)expr.value ? ICONST_1 : ICONST_0);
+        } else {
+            throw new Unsupported();
+        }
+        return type;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        int outer = outerVarIndex(expr.depth, expr.slot, expr.name);
+        if (outer >= 0) {
+            Type type = outerVars.get(outer).type;
+            load(type, outerLocals.get(outer));
+            return type;
+        }
+        Scope scope = scopeAt(expr.depth);
+        if (scope.locals[expr.slot] < 0) {
+            throw new Unsupported();
+        }
+        load(scope.types[expr.slot], scope.locals[expr.slot]);
+        return scope.types[expr.slot];
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        int outer = outerVarIndex(expr.depth, expr.slot, expr.name);
+        if (outer >= 0) {
+            Type type = outerVars.get(outer).type;
+            compile(expr.value, type);
+            code.op(type == Type.NUM ? DUP2 : DUP);
+            store(type, outerLocals.get(outer));
+            return type;
+        }
+        Scope scope = scopeAt(expr.depth);
+        Type type = scope.types[expr.slot];
+        if (scope.locals[expr.slot] < 0) {
+            throw new Unsupported();
+        }
+        compile(expr.value, type);
+        code.op(type == Type.NUM ? DUP2 : DUP); // the value of the assignment
+        store(type, scope.locals[expr.slot]);
+        return type;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            compile(expr.right, Type.NUM);
+            code.op(DNEG);
+            return Type.NUM;
+        }
+        // `!`, numbers are always truthy
+        Type type = compile(expr.right);
+        if (type == Type.NUM) {
+            code.op(POP2);
+            code.op(ICONST_0);
+        } else {
+            code.op(ICONST_1);
+            code.op(IXOR);
+        }
+        return Type.BOOL;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        TokenType op = expr.operator.type;
+        Type type = compile(expr.left);
+        compile(expr.right, type);
+        if (op == TokenType.EQUAL_EQUAL || op == TokenType.BANG_EQUAL) {
+            int jumpIfFalse = op == TokenType.EQUAL_EQUAL ? IFNE : IFEQ;
+            if (type == Type.NUM) {
+                // the same as Double#equals, like Interpreter#isEqual
+                code.invoke(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I");
+                return booleanOf(jumpIfFalse);
+            }
+            return booleanOf(op == TokenType.EQUAL_EQUAL ? IF_ICMPNE : IF_ICMPEQ);
+        }
+        if (type != Type.NUM) {
+            throw new Unsupported();
+        }
+        switch (op) {
+            case PLUS: code.op(DADD); return Type.NUM;
+            case MINUS: code.op(DSUB); return Type.NUM;
+            case STAR: code.op(DMUL); return Type.NUM;
+            case SLASH: {
+                Label nonZero = new Label();
+                code.op(DUP2);
+                code.op(DCONST_0);
+                code.op(DCMPL);
+                code.jump(IFNE, nonZero);
+                deopt();
+                code.mark(nonZero);
+                code.op(DDIV);
+                return Type.NUM;
+            }
+            // NaN compares false, like in Java
+            case LESS: code.op(DCMPG); return booleanOf(IFGE);
+            case LESS_EQUAL: code.op(DCMPG); return booleanOf(IFGT);
+            case GREATER: code.op(DCMPL); return booleanOf(IFLE);
+            case GREATER_EQUAL: code.op(DCMPL); return booleanOf(IFLT);
+            default: throw new Unsupported();
+        }
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left, Type.BOOL);
+        Label end = new Label();
+        code.op(DUP);
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP);
+        compile(expr.right, Type.BOOL);
+        code.mark(end);
+        return Type.BOOL;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        if (!isSelfCall(expr)) {
+            throw new Unsupported();
+        }
+        compileSelfCallArgs(expr);
+        code.invoke(INVOKESTATIC, className, "fn", fnDescriptor());
+        return returnType;
+    }
+
+    @Override
+    public Type visitArrayExpr(Expr.Array expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitIndexedGetExpr(Expr.IndexedGet expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitIndexedSetExpr(Expr.IndexedSet expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitAnonFnExpr(Expr.AnonFn expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitPropAccessExpr(Expr.PropAccess expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitPropSetExpr(Expr.PropSet expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitSplatCallExpr(Expr.SplatCall expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitKeywordArgExpr(Expr.KeywordArg expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        pop(compile(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.names.size() != 1 || stmt.slots == null || scopes.isEmpty() ||
+                stmt.initializers.isEmpty() || stmt.initializers.get(0) == null) {
+            throw new Unsupported();
+        }
+        Type type = compile(stmt.initializers.get(0));
+        Scope scope = scopes.get(scopes.size() - 1);
+        int slot = stmt.slots[0];
+        if (scope.locals[slot] < 0) {
+            scope.locals[slot] = nextLocal;
+            scope.types[slot] = type;
+            nextLocal += type.size;
+        }
+        store(type, scope.locals[slot]);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        pushScope(stmt.slotNames);
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        popScope(stmt.slotNames);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label elseLabel = new Label();
+        Label end = new Label();
+        compile(stmt.condition, Type.BOOL);
+        code.jump(IFEQ, elseLabel);
+        compile(stmt.ifBranch);
+        code.jump(GOTO, end);
+        code.mark(elseLabel);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        this.loop = new Loop(loop, stmt);
+        code.mark(loop.continueLabel);
+        if (stmt == osrLoop) {
+            saveOuterVars();
+        }
+        compile(stmt.condition, Type.BOOL);
+        code.jump(IFEQ, loop.breakLabel);
+        compile(stmt.body);
+        code.jump(GOTO, loop.continueLabel);
+        code.mark(loop.breakLabel);
+        this.loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // a compiled loop's own scope is its environment, and its
+        // initializer has run: it starts at the increment
+        boolean isOsrLoop = stmt == osrLoop;
+        if (!isOsrLoop) {
+            pushScope(stmt.slotNames);
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+            }
+        }
+        this.loop = new Loop(loop, stmt);
+        if (isOsrLoop) {
+            code.jump(GOTO, loop.continueLabel);
+        }
+        Label test = new Label();
+        code.mark(test);
+        if (stmt.test != null) {
+            compile(stmt.test, Type.BOOL);
+            code.jump(IFEQ, loop.breakLabel);
+        }
+        compile(stmt.body);
+        code.mark(loop.continueLabel);
+        if (isOsrLoop) {
+            saveOuterVars();
+        }
+        if (stmt.increment != null) {
+            pop(compile(stmt.increment));
+        }
+        code.jump(GOTO, test);
+        code.mark(loop.breakLabel);
+        this.loop = loop.enclosing;
+        if (!isOsrLoop) {
+            popScope(stmt.slotNames);
+        }
+        return null;
+    }
+
+    private Loop loopOf(Stmt loopStmt) {
+        for (Loop l = loop; l != null; l = l.enclosing) {
+            if (l.stmt == loopStmt) {
+                return l;
+            }
+        }
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        code.jump(GOTO, loopOf(stmt.loopStmt).continueLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        code.jump(GOTO, loopOf(stmt.loopStmt).breakLabel);
+        return null;
+    }
+
+    // Returning a call to itself reuses the JVM frame: the arguments become
+    // the parameters, and it jumps back to the start.
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (osrLoop != null) {
+            throw new Unsupported();
+        }
+        if (stmt.expression == null) { // it returns nil
+            deopt();
+            return null;
+        }
+        if (stmt.expression instanceof Expr.Call && isSelfCall((Expr.Call)stmt.expression)) {
+            compileSelfCallArgs((Expr.Call)stmt.expression);
+            Scope params = scopes.get(0);
+            for (int i = paramTypes.length - 1; i >= 0; i--) {
+                store(paramTypes[i], params.locals[i]);
+            }
+            code.jump(GOTO, start);
+            return null;
+        }
+        compile(stmt.expression, returnType);
+        code.op(returnType == Type.NUM ? DRETURN : IRETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitForeachStmt(Stmt.Foreach stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitModuleStmt(Stmt.Module stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.Try stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitCatchStmt(Stmt.Catch stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitThrowStmt(Stmt.Throw stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitInStmt(Stmt.In stmt) {
+        throw new Unsupported();
+    }
+}
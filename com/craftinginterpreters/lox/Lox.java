@@ -39,6 +39,7 @@ public class Lox {
         String fname = null;
         String loadPathStr = null;
         String debugKeysStr = null;
+        String compileTo = null;
         List<String> loadPathExtra = new ArrayList<>();
         int i = 0;
         boolean inLoxArgs = false;
@@ -59,11 +60,24 @@ public class Lox {
             } else if (args[i].equals("-D")) {
                 debugKeysStr = args[i+1];
                 i += 2;
+            } else if (args[i].equals("-b")) {
+                interpreter.useBytecode();
+                i += 1;
+            } else if (args[i].equals("-c")) {
+                compileTo = args[i+1];
+                i += 2;
+            } else if (args[i].equals("--no-jit")) {
+                interpreter.disableJit();
+                i += 1;
             } else if (args[i].equals("--")) {
                 inLoxArgs = true;
                 i += 1;
             } else {
-                System.err.println("Usage: Lox [-f FILENAME] [-- PROGARGS,]");
+                System.err.println("Usage: Lox [-f FILENAME] [-c OUT.jar] [-b] [--no-jit] [-- PROGARGS,]");
+                System.err.println("  -b          run on the bytecode VM, which is slower than the default engine");
+                System.err.println("  -c OUT.jar  compile FILENAME to a jar that runs on this interpreter's");
+                System.err.println("              classes, found by their absolute path: moving or rebuilding");
+                System.err.println("              the interpreter breaks the jar");
                 System.exit(1);
             }
         }
@@ -81,7 +95,16 @@ public class Lox {
             }
         }
         initLoadPath(loadPathExtra);
-        if (fname == null) {
+        if (compileTo != null) {
+            if (fname == null) {
+                System.err.println("-c needs a script to compile (-f FILENAME)");
+                System.exit(1);
+            }
+            registerInitialScript(fname);
+            if (!Aot.compile(interpreter, initialScriptAbsolute, compileTo)) {
+                System.exit(65);
+            }
+        } else if (fname == null) {
             runPrompt();
         } else {
             runFile(fname);
@@ -175,6 +198,17 @@ public class Lox {
         if (hadRuntimeError) System.exit(70);
     }
 
+    // runs a script compiled with -c, see Aot
+    static void runImage(Aot.Image image) throws IOException {
+        registerInitialScript(image.mainPath);
+        interpreter.aotImage = image;
+        interpreter.runtime.init(interpreter);
+        interpreter.interpretPrepared(image.statements(image.mainPath));
+        interpreter.clearStack();
+        if (hadError) System.exit(65);
+        if (hadRuntimeError) System.exit(70);
+    }
+
     public static void registerInitialScript(String path) {
         String absPath = (new File(path)).getAbsolutePath();
         initialScriptAbsolute = absPath;
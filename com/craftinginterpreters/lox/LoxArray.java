@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Instance of the builtin Array class, or of one of its subclasses. The
+// elements live in `elements`, which is set by Array#init.
+class LoxArray extends LoxInstance {
+    public List<Object> elements = null;
+
+    LoxArray(LoxClass klass, String className) {
+        super(klass, className);
+    }
+
+    @Override
+    protected void dupPayloadInto(LoxInstance copy) {
+        if (elements != null) {
+            ((LoxArray)copy).elements = new ArrayList<>(elements);
+        }
+    }
+}
@@ -5,6 +5,23 @@ import java.util.Map;
 
 interface LoxCallable {
     public Object call(Interpreter interp, List<Object> args, Map<String,Object> kwargs, Token callToken);
+    // Calls the method with `receiver` as 'this', without binding it first.
+    // Functions that aren't methods ignore the receiver.
+    public Object invoke(Interpreter interp, LoxInstance receiver, List<Object> args, Map<String,Object> kwargs, Token callToken);
+    // The same as invoke() above, with the arguments in an array: the
+    // positional ones, then the values of the keyword arguments named by
+    // `kwargNames` (null if there are none). Neither array is changed or
+    // kept. Calls from Lox code are made with this, so callables that
+    // override it don't need a List and a Map per call. Without a receiver,
+    // it's the same as call().
+    default Object invoke(Interpreter interp, LoxInstance receiver, Object[] args, String[] kwargNames, Token callToken) {
+        List<Object> argsList = LoxUtil.positionalArgs(args, kwargNames);
+        Map<String,Object> kwargs = LoxUtil.kwargs(args, kwargNames);
+        if (receiver == null) {
+            return call(interp, argsList, kwargs, callToken);
+        }
+        return invoke(interp, receiver, argsList, kwargs, callToken);
+    }
     public int arityMin();
     public int arityMax();
     public String getName(); // ex: "typeof"
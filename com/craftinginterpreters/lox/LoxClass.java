@@ -13,8 +13,12 @@ class LoxClass extends LoxModule implements LoxCallable {
     LoxInstance singletonOf = null;
     private LoxModule modDefinedIn = null; // for LoxCallable
     public LoxModule module = null; // if this is a class created when a class includes another module.
-
-    //private static Map<String, LoxCallable> methodCache = new HashMap<>();
+    // which builtin representation instances get, see newInstance()
+    private int instanceRepr = -1;
+    private static final int REPR_PLAIN = 0;
+    private static final int REPR_STRING = 1;
+    private static final int REPR_ARRAY = 2;
+    private static final int REPR_MAP = 3;
 
     LoxClass(String name, LoxClass superClass, Map<String, LoxCallable> methods) {
         super(null, "Class", name, methods);
@@ -76,8 +80,14 @@ class LoxClass extends LoxModule implements LoxCallable {
         }
     }
 
-    // constructor call, creates new instance and binds the constructor, if
-    // any, to the instance and calls it.
+    @Override
+    public Object invoke(Interpreter interp, LoxInstance receiver, List<Object> args,
+            Map<String,Object> kwargs, Token callToken) {
+        return call(interp, args, kwargs, callToken);
+    }
+
+    // constructor call, creates new instance and calls the constructor, if
+    // any, on the instance.
     @Override
     public Object call(Interpreter interp, List<Object> args,
             Map<String,Object> kwargs, Token callToken) {
@@ -96,7 +106,7 @@ class LoxClass extends LoxModule implements LoxCallable {
                     "Tried to instantiate Module '" +
                     klass.getName() + "'. Only classes can be instantiated.");
             }
-            instance = new LoxInstance(klass, klass.getName());
+            instance = klass.newInstance();
         }
         LoxCallable constructor = getMethod("init");
         if (constructor != null) {
@@ -105,12 +115,41 @@ class LoxClass extends LoxModule implements LoxCallable {
                     "constructor called with wrong number of arguments");
                 return null;
             }
-            constructor.bind(instance, interp.environment).call(
-                interp, args, kwargs, callToken);
+            constructor.invoke(interp, instance, args, kwargs, callToken);
         }
         return instance;
     }
 
+    // Creates an uninitialized instance of this class. Instances of the
+    // builtin String, Array and Map classes, and of their subclasses, get the
+    // Java class that holds the builtin's data.
+    public LoxInstance newInstance() {
+        if (instanceRepr < 0) {
+            instanceRepr = findInstanceRepr();
+        }
+        switch (instanceRepr) {
+            case REPR_STRING: return new LoxString(this, getName());
+            case REPR_ARRAY: return new LoxArray(this, getName());
+            case REPR_MAP: return new LoxMap(this, getName());
+            default: return new LoxInstance(this, getName());
+        }
+    }
+
+    private int findInstanceRepr() {
+        LoxClass klass = this;
+        while (klass != null) {
+            if (klass instanceof LoxNativeClass) {
+                switch (klass.getName()) {
+                    case "String": return REPR_STRING;
+                    case "Array": return REPR_ARRAY;
+                    case "Map": return REPR_MAP;
+                }
+            }
+            klass = klass.getSuper();
+        }
+        return REPR_PLAIN;
+    }
+
     // constructor declaration
     @Override
     public Stmt.Function getDecl() {
@@ -165,76 +204,101 @@ class LoxClass extends LoxModule implements LoxCallable {
 
     // returns an unbound LoxCallable instance method for the class
     public LoxCallable getMethod(String name) {
-        LoxClass klass = this;
-        LoxClass lookupKlass = klass;
-        LoxCallable func = null;
-        //if ((func = methodCache.get(klass.getName() +"#"+name)) != null) {
-            //LoxUtil.debug("mlookup", "method " + name + " found in cache for " + klass.toString());
-            //return func;
-        //}
-        while (klass != null) {
-            LoxUtil.debug("mlookup", "Looking up method " + name + " in " + klass.toString());
-            func = klass.methods.get(name);
-            if (func != null) {
-                LoxUtil.debug("mlookup", "  Method " + name + " found");
-                //if (!lookupKlass.isAnon()) {
-                    //methodCache.put(lookupKlass.getName()+"#"+name, func);
-                //}
-                return func;
-            }
-            klass = klass.getSuper();
-        }
-        LoxUtil.debug("mlookup", "Method " + name + " not found");
-        return null;
+        return lookup(name, METHOD);
     }
 
     // returns an unbound LoxCallable instance getter method for the class
     public LoxCallable getGetter(String name) {
-        LoxClass klass = this;
-        LoxClass lookupKlass = klass;
-        LoxCallable func = null;
-        //if ((func = methodCache.get(klass.getName() +"#"+name)) != null) {
-            //LoxUtil.debug("mlookup", "getter " + name + " found in cache for " + klass.toString());
-            //return func;
-        //}
-        while (klass != null) {
-            LoxUtil.debug("mlookup", "Looking up getter " + name + " in " + klass.toString());
-            func = klass.getters.get(name);
-            if (func != null) {
-                LoxUtil.debug("mlookup", "  Getter " + name + " found");
-                //if (!lookupKlass.isAnon()) {
-                    //methodCache.put(lookupKlass.getName()+"#"+name, func);
-                //}
+        return lookup(name, GETTER);
+    }
+
+    // returns an unbound LoxCallable instance setter method for the class
+    public LoxCallable getSetter(String name) {
+        return lookup(name, SETTER);
+    }
+
+    private static final int METHOD = 0;
+    private static final int GETTER = 1;
+    private static final int SETTER = 2;
+    private static final String[] LOOKUP_KINDS = { "method", "getter", "setter" };
+
+    // Global method cache, keyed by (lookup class, kind, name). Lookups that
+    // find nothing are cached too. The whole cache is dropped when methods
+    // change anywhere (see LoxModule.methodEpoch).
+    private static class MethodCacheKey {
+        final LoxClass klass;
+        final int kind;
+        final String name;
+
+        MethodCacheKey(LoxClass klass, int kind, String name) {
+            this.klass = klass;
+            this.kind = kind;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(klass) * 31 + name.hashCode()) * 3 + kind;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            MethodCacheKey other = (MethodCacheKey)obj;
+            return klass == other.klass && kind == other.kind && name.equals(other.name);
+        }
+    }
+
+    private static final int METHOD_CACHE_MAX = 4096;
+    private static final Map<MethodCacheKey, LoxCallable> methodCache = new HashMap<>();
+    private static int methodCacheEpoch = -1;
+    private static final LoxCallable NOT_FOUND = new LoxNativeCallable("(not found)", 0, 0, null, null);
+
+    private Map<String, LoxCallable> lookupTable(int kind) {
+        switch (kind) {
+            case METHOD: return methods;
+            case GETTER: return getters;
+            default: return setters;
+        }
+    }
+
+    private LoxCallable lookup(String name, int kind) {
+        // Singleton classes of regular instances aren't cached, there can be
+        // one per object. Their own table is checked, then the (cached)
+        // lookup continues from their superclass.
+        if (isSingletonKlass && !(singletonOf instanceof LoxModule)) {
+            LoxCallable func = lookupTable(kind).get(name);
+            if (func != null || superClass == null) {
                 return func;
             }
-            klass = klass.getSuper();
+            return superClass.lookup(name, kind);
         }
-        LoxUtil.debug("mlookup", "Getter " + name + " not found");
-        return null;
+        if (methodCacheEpoch != LoxModule.methodEpoch || methodCache.size() >= METHOD_CACHE_MAX) {
+            methodCache.clear();
+            methodCacheEpoch = LoxModule.methodEpoch;
+        }
+        MethodCacheKey key = new MethodCacheKey(this, kind, name);
+        LoxCallable func = methodCache.get(key);
+        if (func != null) {
+            return func == NOT_FOUND ? null : func;
+        }
+        func = lookupUncached(name, kind);
+        methodCache.put(key, func == null ? NOT_FOUND : func);
+        return func;
     }
 
-    // returns an unbound LoxCallable instance setter method for the class
-    public LoxCallable getSetter(String name) {
+    private LoxCallable lookupUncached(String name, int kind) {
         LoxClass klass = this;
-        LoxClass lookupKlass = klass;
         LoxCallable func = null;
-        //if ((func = methodCache.get(klass.getName() +"#"+name)) != null) {
-            //LoxUtil.debug("mlookup", "setter " + name + " found in cache for " + klass.toString());
-            //return func;
-        //}
         while (klass != null) {
-            LoxUtil.debug("mlookup", "Looking up setter " + name + " in " + klass.toString());
-            func = klass.setters.get(name);
+            LoxUtil.debug("mlookup", "Looking up " + LOOKUP_KINDS[kind] + " " + name + " in " + klass.toString());
+            func = klass.lookupTable(kind).get(name);
             if (func != null) {
-                LoxUtil.debug("mlookup", "  Setter " + name + " found");
-                //if (!lookupKlass.isAnon()) {
-                    //methodCache.put(lookupKlass.getName()+"#"+name, func);
-                //}
+                LoxUtil.debug("mlookup", "  " + LOOKUP_KINDS[kind] + " " + name + " found");
                 return func;
             }
             klass = klass.getSuper();
         }
-        LoxUtil.debug("mlookup", "Setter " + name + " not found");
+        LoxUtil.debug("mlookup", LOOKUP_KINDS[kind] + " " + name + " not found");
         return null;
     }
 
@@ -1,6 +1,7 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -9,108 +10,204 @@ class LoxFunction implements LoxCallable {
     final Stmt.Function declaration;
     final Environment closure;
     final boolean isInitializer;
+    // 'this' of a method bound with bind(), otherwise null
+    final LoxInstance receiver;
     private LoxModule modDefinedIn = null;
 
     public static String ANON_NAME = "(anon)";
 
+    // A call in tail position (see Resolver#visitReturnStmt), returned as
+    // the value of the function making it. invoke() then makes the call
+    // itself, so tail recursion runs in constant Java stack.
+    static final class TailCall {
+        final LoxFunction function;
+        final LoxInstance receiver;
+        final Object[] args;
+        final String[] kwargNames;
+        final Token callToken;
+
+        TailCall(LoxFunction function, LoxInstance receiver, Object[] args,
+                String[] kwargNames, Token callToken) {
+            this.function = function;
+            this.receiver = receiver;
+            this.args = args;
+            this.kwargNames = kwargNames;
+            this.callToken = callToken;
+        }
+    }
+
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.receiver = null;
+    }
+
+    // a bound method isn't in any module's method table, so like other
+    // functions it's named without one (see getName())
+    private LoxFunction(LoxFunction method, LoxInstance receiver) {
+        this.declaration = method.declaration;
+        this.closure = method.closure;
+        this.isInitializer = method.isInitializer;
+        this.receiver = receiver;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> args, Map<String,Object> kwargs, Token callToken) {
-        Environment environment = new Environment(closure);
-        int numParams = declaration.formals.size(); // num normal and keyword params
-        int numArgs = args.size(); // num of normal arguments given (non kwargs)
-        boolean hasSplat = false;
-        boolean addedSplat = false;
-        if (numParams > 0) {
-            hasSplat = declaration.formals.get(numParams-1).isSplatted;
-        }
-        int argsIdx = 0;
-        int paramsIdx = 0;
-        List<String> kwargsProcessed = new ArrayList<>();
-        while (argsIdx < numArgs && paramsIdx < numParams) {
-            Param param = declaration.formals.get(paramsIdx);
-            if (param.isKwarg) {
-                Object kwArgValue = null;
-                if (kwargs.containsKey(param.varName())) {
-                    //System.err.println("kwarg given to function");
-                    kwArgValue = kwargs.get(param.varName());
-                } else {
-                    if (param.hasDefaultValue()) {
-                        //System.err.println("default value from kwarg");
-                        Expr defaultExpr = param.getDefaultValue();
-                        kwArgValue = interpreter.evaluate(defaultExpr);
-                    } else {
-                        interpreter.throwLoxError("ArgumentError", callToken,
-                            "Function " + getName() + " expected keyword argument '" +
-                            param.varName() + ":', but not given");
-                    }
+        return invoke(interpreter, receiver, args, kwargs, callToken);
+    }
+
+    @Override
+    public Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> args, Map<String,Object> kwargs, Token callToken) {
+        String[] kwargNames = LoxUtil.kwargNames(kwargs);
+        return invoke(interpreter, receiver, LoxUtil.argsArray(args, kwargs, kwargNames),
+            kwargNames, callToken);
+    }
+
+    @Override
+    public Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] args, String[] kwargNames, Token callToken) {
+        if (receiver == null) {
+            receiver = this.receiver;
+        }
+        Object value = execute(interpreter, receiver, args, kwargNames, callToken, 0);
+        if (value instanceof TailCall) {
+            LoxCallable oldFnCall = interpreter.fnCall;
+            try {
+                int tailCalls = 0;
+                while (value instanceof TailCall) {
+                    TailCall call = (TailCall)value;
+                    LoxFunction function = call.function;
+                    LoxInstance callReceiver = call.receiver != null ? call.receiver : function.receiver;
+                    interpreter.fnCall = function;
+                    tailCalls++;
+                    value = function.execute(interpreter, callReceiver, call.args, call.kwargNames,
+                        call.callToken, tailCalls);
                 }
-                environment.define(param.varName(), kwArgValue);
-                kwargsProcessed.add(param.varName());
-                paramsIdx++;
-                continue;
+            } finally {
+                interpreter.fnCall = oldFnCall;
             }
-            boolean isLastParam = (numParams-1) == argsIdx;
-            if (isLastParam && param.isSplatted) {
-                Object splatAry = Runtime.arrayCopy(args.subList(argsIdx, numArgs), interpreter);
-                environment.define(param.varName(), splatAry);
-                addedSplat = true;
-                argsIdx++;
-                paramsIdx++;
-                break;
-            } else {
-                environment.define(param.varName(), args.get(argsIdx));
-            }
-            argsIdx++;
-            paramsIdx++;
         }
+        if (isInitializer) {
+            return receiver;
+        } else {
+            return value;
+        }
+    }
 
-        if (numParams > numArgs) { // set default arguments that weren't provided to the call
-            int i = numArgs;
-            for (i = numArgs; i < numParams; i++) {
-                Param param = declaration.formals.get(i);
-                if (param.isKwarg && kwargsProcessed.contains(param.varName())) {
-                    continue;
-                }
-                if (param.isKwarg) {
-                    if (kwargs.containsKey(param.varName())) {
-                        environment.define(param.varName(), kwargs.get(param.varName()));
-                        continue;
-                    }
-                }
-                if (param.hasDefaultValue()) {
-                    environment.define(param.varName(), interpreter.evaluate(param.defaultVal));
-                }
+    // Runs the body, returning its return value, which is a TailCall if it
+    // returned with one. Methods keep 'this' in slot 0 of their parameter
+    // scope, before the parameters (see Resolver#resolveFunction). Hot
+    // functions run compiled code instead, if they can (see Jit).
+    private Object execute(Interpreter interpreter, LoxInstance receiver, Object[] args,
+            String[] kwargNames, Token callToken, int tailCalls) {
+        if (interpreter.jit != null && !interpreter.tracing) {
+            Object value = interpreter.jit.run(this, args, kwargNames);
+            if (value != Jit.NOT_RUN) {
+                return value;
             }
         }
-
-        if (hasSplat && !addedSplat) { // add empty splat array argument
-            Param param = declaration.formals.get(numParams-1);
-            environment.define(param.varName(), Runtime.array(new ArrayList<Object>(), interpreter));
+        Environment environment = new Environment(closure, declaration.paramSlotNames);
+        if (isMethod()) {
+            if (declaration.paramSlotNames != null) {
+                environment.defineAt(0, receiver);
+            } else {
+                environment.define("this", receiver);
+            }
         }
+        bindArguments(interpreter, environment, args, kwargNames);
 
-        Environment fnEnv = new Environment(environment);
-        try {
-            interpreter.stack.add(new StackFrame(declaration, callToken));
-            interpreter.executeBlock(
+        // the body's variables are usually in the parameter scope (see
+        // Resolver#resolveFunctionBody)
+        String[] bodySlotNames = ((Stmt.Block)declaration.body).slotNames;
+        Environment fnEnv = bodySlotNames == null ? environment : new Environment(environment, bodySlotNames);
+        interpreter.stack.add(new StackFrame(declaration, callToken, tailCalls));
+        Object value = null;
+        if (interpreter.vm != null) {
+            value = interpreter.vm.executeFunctionBody(declaration, fnEnv);
+        } else {
+            Interpreter.Completion completion = interpreter.executeBlock(
                 ((Stmt.Block)declaration.body).statements,
                 fnEnv
             ); // could throw RuntimeThrow, and in that case we don't want to pop the stack frame
-            interpreter.stack.pop();
-            return null;
-        } catch (Interpreter.RuntimeReturn ret) {
-            interpreter.stack.pop();
-            if (isInitializer) {
-                return fnEnv.getAt(0, "this");
+            if (completion == Interpreter.Completion.RETURN) {
+                value = interpreter.takeReturnValue();
+            }
+        }
+        interpreter.stack.pop();
+        return value;
+    }
+
+    // Keyword parameters that aren't given and have no default value get
+    // nil, as do positional ones if a native calls with too few arguments.
+    // `args` and `kwargNames` are as in LoxCallable#invoke.
+    private void bindArguments(Interpreter interpreter, Environment environment,
+            Object[] args, String[] kwargNames) {
+        BindingPlan plan = BindingPlan.of(declaration);
+        int numArgs = args.length - (kwargNames == null ? 0 : kwargNames.length);
+        int numPositional = Math.min(numArgs, plan.positional.length);
+        if (plan.isSimple) {
+            for (int i = 0; i < numPositional; i++) {
+                defineParam(environment, i, args[i]);
+            }
+            return;
+        }
+        for (int i = 0; i < numPositional; i++) {
+            defineParam(environment, plan.positional[i], args[i]);
+        }
+        for (int i = numPositional; i < plan.positional.length; i++) {
+            if (plan.positionalDefaults[i] != null) {
+                defineParam(environment, plan.positional[i],
+                    interpreter.evaluate(plan.positionalDefaults[i]));
+            }
+        }
+        if (plan.splat >= 0) {
+            Object splatAry;
+            if (numArgs > numPositional) {
+                splatAry = Runtime.arrayCopy(Arrays.asList(args).subList(numPositional, numArgs), interpreter);
             } else {
-                return ret.value;
+                splatAry = Runtime.array(new ArrayList<Object>(), interpreter);
+            }
+            defineParam(environment, plan.splat, splatAry);
+        }
+        for (int i = 0; i < plan.kwargNames.length; i++) {
+            String name = plan.kwargNames[i];
+            Object value = null;
+            int argIdx = kwargIndex(kwargNames, name);
+            if (argIdx >= 0) {
+                value = args[numArgs + argIdx];
+            } else if (plan.kwargDefaults[i] != null) {
+                value = interpreter.evaluate(plan.kwargDefaults[i]);
+            }
+            defineParam(environment, plan.kwargParams[i], value);
+        }
+    }
+
+    // calls give few keyword arguments, a search is cheaper than a Map
+    private static int kwargIndex(String[] kwargNames, String name) {
+        if (kwargNames == null) {
+            return -1;
+        }
+        for (int i = 0; i < kwargNames.length; i++) {
+            if (kwargNames[i].equals(name)) {
+                return i;
             }
         }
+        return -1;
+    }
+
+    // only methods have a 'this' slot (see Resolver#resolveFunction)
+    private boolean isMethod() {
+        return declaration.type != Parser.FunctionType.FUNCTION;
+    }
+
+    // parameters are declared in order after 'this', so a parameter's slot
+    // is its index (plus one in methods)
+    private void defineParam(Environment environment, int paramIdx, Object value) {
+        if (declaration.paramSlotNames != null) {
+            environment.defineAt(isMethod() ? paramIdx + 1 : paramIdx, value);
+        } else {
+            environment.define(declaration.formals.get(paramIdx).varName(), value);
+        }
     }
 
     @Override
@@ -148,13 +245,7 @@ class LoxFunction implements LoxCallable {
     //          the arityMin of `fun(a) {}` is 1
     @Override
     public int arityMin() {
-        int i = 0;
-        for (Param param : declaration.formals) {
-            if (param.mustReceiveArgument()) {
-                i++;
-            }
-        }
-        return i;
+        return BindingPlan.of(declaration).arityMin;
     }
 
     // The max amount of arguments the function can get called with.
@@ -163,15 +254,7 @@ class LoxFunction implements LoxCallable {
     //          the arityMax of `fun(a) {}` is 1
     @Override
     public int arityMax() {
-        int i = 0;
-        for (Param param : declaration.formals) {
-            if (param.isSplatted) {
-                return -1;
-            } else {
-                i++;
-            }
-        }
-        return i;
+        return BindingPlan.of(declaration).arityMax;
     }
 
     @Override
@@ -186,9 +269,10 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public LoxCallable bind(LoxInstance instance, Environment env) {
-        Environment environment = new Environment(env);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        if (!isMethod()) {
+            return this;
+        }
+        return new LoxFunction(this, instance);
     }
 
     @Override
@@ -199,6 +283,8 @@ class LoxFunction implements LoxCallable {
             Token newTok = new Token(tok.type, tok.lexeme, tok.literal, tok.file, tok.line);
             newDecl = new Stmt.Function(newTok, new ArrayList<Param>(declaration.formals),
                 declaration.body, declaration.type, declaration.klass);
+            newDecl.paramSlotNames = declaration.paramSlotNames;
+            newDecl.plan = declaration.plan;
         }
         LoxFunction func = new LoxFunction(newDecl, closure, isInitializer);
         func.setModuleDefinedIn(modDefinedIn);
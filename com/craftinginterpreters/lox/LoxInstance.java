@@ -1,7 +1,9 @@
 package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.List;
 import java.util.Iterator;
@@ -10,9 +12,14 @@ class LoxInstance {
     public LoxClass klass;
     public LoxClass singletonKlass;
     public String klassName;
-    private final Map<String, Object> properties = new HashMap<>();
-    // Used internally, Objects are Java-land objects
-    private final Map<String, Object> hiddenProps = new HashMap<>();
+    // Properties live in `propValues`, laid out by `shape`. Instances with
+    // too many properties to be worth a shape use `dictProps` instead.
+    private Shape shape = Shape.ROOT;
+    private Object[] propValues = NO_VALUES;
+    private Map<String, Object> dictProps = null;
+    private static final Object[] NO_VALUES = new Object[0];
+    // Used internally, Objects are Java-land objects. Created on first use.
+    private Map<String, Object> hiddenProps = null;
     public boolean isFrozen = false;
 
     LoxInstance(LoxClass klass, String className) {
@@ -23,9 +30,8 @@ class LoxInstance {
 
     @Override
     public String toString() {
-        StringBuffer buf = null;
-        if (isA("String") && (buf = (StringBuffer)hiddenProps.get("buf")) != null) {
-            return buf.toString();
+        if (this instanceof LoxString && ((LoxString)this).str != null) {
+            return ((LoxString)this).str.toString();
         } else {
             return "<instance " + klassName + " #" + objectId() + ">";
         }
@@ -38,7 +44,7 @@ class LoxInstance {
     @Override
     public int hashCode() {
         if (Runtime.isString(this)) {
-            return ((StringBuffer)hiddenProps.get("buf")).toString().hashCode();
+            return ((LoxString)this).str.hashCode();
         } else {
             return super.hashCode();
         }
@@ -47,9 +53,7 @@ class LoxInstance {
     @Override
     public boolean equals(Object obj) {
         if (Runtime.isString(this) && Runtime.isString(obj)) {
-            String a = ((StringBuffer)hiddenProps.get("buf")).toString();
-            String b = ((StringBuffer)((LoxInstance)obj).hiddenProps.get("buf")).toString();
-            return a.equals(b);
+            return ((LoxString)this).str.equals(((LoxString)obj).str);
         } else {
             return super.equals(obj);
         }
@@ -60,26 +64,21 @@ class LoxInstance {
     // method, in which case it's returned, uncalled but bound to the
     // instance. The check is done in that order.
     public Object getProperty(String name, Interpreter interp) {
-        return getProperty(name, interp, getSingletonKlass());
+        return getProperty(name, interp, lookupKlass());
     }
 
     public Object getProperty(String name, Interpreter interp, LoxClass lookupKlass) {
-        if (properties.containsKey(name)) {
-            return properties.get(name);
+        if (hasNormalProperty(name)) {
+            return getNormalProperty(name);
         }
-        LoxClass klass = lookupKlass;
-        while (klass != null) {
-            if (klass.getters.containsKey(name)) {
-                LoxCallable getter = klass.getters.get(name);
-                List<Object> objs = LoxUtil.EMPTY_ARGS;
-                LoxCallable func = getter.bind(this, interp.environment);
-                LoxCallable oldFunc = interp.fnCall;
-                interp.fnCall = func;
-                Object ret = func.call(interp, objs, LoxUtil.EMPTY_KWARGS, null);
-                interp.fnCall = oldFunc;
-                return ret;
-            }
-            klass = klass.getSuper();
+        LoxCallable getter = lookupKlass.getGetter(name);
+        if (getter != null) {
+            List<Object> objs = LoxUtil.EMPTY_ARGS;
+            LoxCallable oldFunc = interp.fnCall;
+            interp.fnCall = getter;
+            Object ret = getter.invoke(interp, this, objs, LoxUtil.EMPTY_KWARGS, null);
+            interp.fnCall = oldFunc;
+            return ret;
         }
         // `boundMethod` looks in super classes as well
         LoxCallable method = lookupKlass.boundMethod(this, interp.environment, name);
@@ -105,17 +104,100 @@ class LoxInstance {
         return ret;
     }
 
+    // Same as getProperty(name, interp), but getters and methods found are
+    // cached per receiver class in the given call site cache.
+    public Object getProperty(String name, Interpreter interp, InlineCache cache) {
+        int offset = shape.offsetOf(name);
+        if (offset >= 0) {
+            return propValues[offset];
+        }
+        if (dictProps != null && dictProps.containsKey(name)) {
+            return dictProps.get(name);
+        }
+        LoxClass lookupKlass = cacheLookupKlass();
+        int idx = cache.find(lookupKlass);
+        if (idx < 0) {
+            if (cache.megamorphic) {
+                return getProperty(name, interp);
+            }
+            LoxCallable getter = lookupKlass.getGetter(name);
+            if (getter != null) {
+                idx = cache.add(lookupKlass, getter, true);
+            } else {
+                LoxCallable method = lookupKlass.getMethod(name);
+                if (method == null) { // propertyMissing, etc.
+                    return getProperty(name, interp);
+                }
+                idx = cache.add(lookupKlass, method, false);
+            }
+            if (idx < 0) {
+                return getProperty(name, interp);
+            }
+        }
+        LoxCallable func = cache.callable(idx);
+        if (!cache.isGetter(idx)) {
+            return func.bind(this, interp.environment);
+        }
+        LoxCallable oldFunc = interp.fnCall;
+        interp.fnCall = func;
+        Object ret = func.invoke(interp, this, LoxUtil.EMPTY_ARGS, LoxUtil.EMPTY_KWARGS, null);
+        interp.fnCall = oldFunc;
+        return ret;
+    }
+
+    // The method that `instance.name(...)` calls, unbound, if `name` is a
+    // method. Returns null for normal properties, getters and everything
+    // else getProperty() deals with. Uses the same call site cache as
+    // getProperty(name, interp, cache).
+    public LoxCallable findMethod(String name, InlineCache cache) {
+        if (hasNormalProperty(name)) {
+            return null;
+        }
+        LoxClass lookupKlass = cacheLookupKlass();
+        int idx = cache.find(lookupKlass);
+        if (idx >= 0) {
+            return cache.isGetter(idx) ? null : cache.callable(idx);
+        }
+        LoxCallable getter = lookupKlass.getGetter(name);
+        if (getter != null) {
+            cache.add(lookupKlass, getter, true);
+            return null;
+        }
+        LoxCallable method = lookupKlass.getMethod(name);
+        if (method != null) {
+            cache.add(lookupKlass, method, false);
+        }
+        return method;
+    }
+
+    // The class that getter and method lookups start from. Instances whose
+    // singleton class doesn't add anything to the lookup share their class's
+    // entries.
+    private LoxClass cacheLookupKlass() {
+        if (this instanceof LoxModule || singletonKlass == null) {
+            return lookupKlass();
+        }
+        if (singletonKlass.superClass == klass && singletonKlass.methods.isEmpty() &&
+                singletonKlass.getters.isEmpty()) {
+            return klass;
+        }
+        return singletonKlass;
+    }
+
     public LoxInstance dup(Interpreter interp) {
-        LoxInstance newInstance = new LoxInstance(getKlass(), this.klassName);
-        Iterator iter = properties.entrySet().iterator();
+        LoxInstance newInstance = getKlass().newInstance();
+        dupPayloadInto(newInstance);
+        Iterator iter = getProperties().entrySet().iterator();
         while (iter.hasNext()) {
             Map.Entry pair = (Map.Entry)iter.next();
             newInstance.setProperty((String)pair.getKey(), Runtime.dupObject(pair.getValue(), interp), null, null);
         }
-        Iterator iter2 = hiddenProps.entrySet().iterator();
-        while (iter2.hasNext()) {
-            Map.Entry pair = (Map.Entry)iter2.next();
-            newInstance.setHiddenProp((String)pair.getKey(), Runtime.dupObject(pair.getValue(), interp));
+        if (hiddenProps != null) {
+            Iterator iter2 = hiddenProps.entrySet().iterator();
+            while (iter2.hasNext()) {
+                Map.Entry pair = (Map.Entry)iter2.next();
+                newInstance.setHiddenProp((String)pair.getKey(), Runtime.dupObject(pair.getValue(), interp));
+            }
         }
         if (isFrozen) {
             newInstance.freeze();
@@ -130,6 +212,11 @@ class LoxInstance {
         return newInstance;
     }
 
+    // copies the Java-land payload of builtin values (see LoxString, etc.)
+    // into `copy`, an instance of the same class
+    protected void dupPayloadInto(LoxInstance copy) {
+    }
+
     // Tries to set property on object, using setter function if given.
     public void setProperty(String name, Object value, Interpreter interp, LoxCallable setterFunc) {
         if (isFrozen) {
@@ -138,10 +225,10 @@ class LoxInstance {
         if (setterFunc != null) {
             List<Object> objs = new ArrayList<>();
             objs.add(value);
-            setterFunc.bind(this, interp.environment).call(interp, objs, LoxUtil.EMPTY_KWARGS, null);
+            setterFunc.invoke(interp, this, objs, LoxUtil.EMPTY_KWARGS, null);
             return;
         }
-        properties.put(name, value);
+        setNormalProperty(name, value);
     }
 
     // Tries to set property on object, using setter function if given.
@@ -153,6 +240,17 @@ class LoxInstance {
         return this.klass;
     }
 
+    // The class that getter and method lookups on this object start from.
+    // Plain instances only get a singleton class once something is defined
+    // on it (`extend`, `in (obj) { ... }`, etc.), until then lookups start
+    // from their class.
+    public LoxClass lookupKlass() {
+        if (this instanceof LoxModule) {
+            return getSingletonKlass();
+        }
+        return singletonKlass == null ? klass : singletonKlass;
+    }
+
     public LoxClass getSingletonKlass() {
         if (this.singletonKlass == null) {
             String className = null;
@@ -191,7 +289,7 @@ class LoxInstance {
                 LoxUtil.debug("plookup", "  getter '" + name + "' found");
                 LoxCallable getter = klass.getters.get(name);
                 List<Object> args = LoxUtil.EMPTY_ARGS;
-                return getter.bind(this, interp.environment).call(interp, args, LoxUtil.EMPTY_KWARGS, null);
+                return getter.invoke(interp, this, args, LoxUtil.EMPTY_KWARGS, null);
             }
             klass = klass.getSuper();
         }
@@ -210,7 +308,7 @@ class LoxInstance {
                 if (singletonKlass.getters.containsKey(name)) {
                     LoxCallable getter = singletonKlass.getters.get(name);
                     List<Object> args = LoxUtil.EMPTY_ARGS;
-                    return getter.bind(this, interp.environment).call(interp, args, LoxUtil.EMPTY_KWARGS, null);
+                    return getter.invoke(interp, this, args, LoxUtil.EMPTY_KWARGS, null);
                 }
                 klass = klass.getSuper();
             }
@@ -220,19 +318,19 @@ class LoxInstance {
                 if (singletonKlass.getters.containsKey(name)) {
                     LoxCallable getter = singletonKlass.getters.get(name);
                     List<Object> args = LoxUtil.EMPTY_ARGS;
-                    return getter.bind(this, interp.environment).call(interp, args, LoxUtil.EMPTY_KWARGS, null);
+                    return getter.invoke(interp, this, args, LoxUtil.EMPTY_KWARGS, null);
                 }
             }
             LoxClass klass = getKlass();
             while (klass != null) {
                 if (klass.getters.containsKey(name)) {
-                    LoxCallable getter = singletonKlass.getters.get(name);
+                    LoxCallable getter = klass.getters.get(name);
                     List<Object> args = LoxUtil.EMPTY_ARGS;
-                    return getter.bind(this, interp.environment).call(interp, args, LoxUtil.EMPTY_KWARGS, null);
+                    return getter.invoke(interp, this, args, LoxUtil.EMPTY_KWARGS, null);
                 }
                 klass = klass.getSuper();
             }
-            return getMethod(name, getSingletonKlass(), interp);
+            return getMethod(name, lookupKlass(), interp);
         }
     }
 
@@ -297,14 +395,16 @@ class LoxInstance {
     }
 
     public Object getHiddenProp(String name) {
-        if (this.hiddenProps.containsKey(name)) {
-            return this.hiddenProps.get(name);
-        } else {
+        if (this.hiddenProps == null) {
             return null;
         }
+        return this.hiddenProps.get(name);
     }
 
     public void setHiddenProp(String name, Object val) {
+        if (this.hiddenProps == null) {
+            this.hiddenProps = new HashMap<>();
+        }
         this.hiddenProps.put(name, val);
     }
 
@@ -319,27 +419,74 @@ class LoxInstance {
     // checks if the given actual property exists on the instance, does not
     // check getters/setters or methods.
     public boolean hasNormalProperty(String propName) {
-        return properties.containsKey(propName);
+        if (dictProps != null) {
+            return dictProps.containsKey(propName);
+        }
+        return shape.offsetOf(propName) >= 0;
     }
 
     public void delNormalProperty(String propName) {
-        properties.remove(propName);
+        if (dictProps != null) {
+            dictProps.remove(propName);
+            return;
+        }
+        int offset = shape.offsetOf(propName);
+        if (offset < 0) {
+            return;
+        }
+        int size = shape.size();
+        System.arraycopy(propValues, offset+1, propValues, offset, size-offset-1);
+        propValues[size-1] = null;
+        shape = shape.withoutProperty(offset);
     }
 
     public Object getNormalProperty(String propName) {
-        if (properties.containsKey(propName)) {
-            return properties.get(propName);
-        } else {
+        if (dictProps != null) {
+            return dictProps.get(propName);
+        }
+        int offset = shape.offsetOf(propName);
+        if (offset < 0) {
             return null;
         }
+        return propValues[offset];
     }
 
     public void setNormalProperty(String propName, Object value) {
-        properties.put(propName, value);
+        if (dictProps != null) {
+            dictProps.put(propName, value);
+            return;
+        }
+        int offset = shape.offsetOf(propName);
+        if (offset >= 0) {
+            propValues[offset] = value;
+            return;
+        }
+        int size = shape.size();
+        if (size == Shape.MAX_PROPERTIES) { // switch to dictionary mode
+            dictProps = getProperties();
+            dictProps.put(propName, value);
+            shape = Shape.ROOT;
+            propValues = NO_VALUES;
+            return;
+        }
+        if (size == propValues.length) {
+            propValues = Arrays.copyOf(propValues, Math.max(2, size * 2));
+        }
+        propValues[size] = value;
+        shape = shape.withProperty(propName);
     }
 
+    // a copy of the instance's properties, in the order they were added
     public Map<String,Object> getProperties() {
-        return properties;
+        Map<String,Object> props = new LinkedHashMap<>();
+        if (dictProps != null) {
+            props.putAll(dictProps);
+            return props;
+        }
+        for (int i = 0; i < shape.size(); i++) {
+            props.put(shape.names[i], propValues[i]);
+        }
+        return props;
     }
 
 }
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Instance of the builtin Map class, or of one of its subclasses. The
+// entries live in `map`, which is set by Map#init.
+class LoxMap extends LoxInstance {
+    public Map<Object,Object> map = null;
+
+    LoxMap(LoxClass klass, String className) {
+        super(klass, className);
+    }
+
+    @Override
+    protected void dupPayloadInto(LoxInstance copy) {
+        if (map != null) {
+            ((LoxMap)copy).map = new HashMap<>(map);
+        }
+    }
+}
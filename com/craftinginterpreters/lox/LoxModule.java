@@ -12,6 +12,10 @@ class LoxModule extends LoxInstance {
     public Map<String, LoxCallable> getters = new HashMap<>();
     public Map<String, LoxCallable> setters = new HashMap<>();
     public List<LoxModule> includedModules = new ArrayList<>();
+    // Bumped whenever a method, getter or setter is added anywhere or the
+    // class hierarchy changes. Cached method lookups are only valid for the
+    // epoch they were made in.
+    static int methodEpoch = 0;
 
     LoxModule(LoxClass klass, String klassName, String name, Map<String, LoxCallable> methods) {
         super(klass, klassName);
@@ -43,6 +47,7 @@ class LoxModule extends LoxInstance {
     // Add a new class in this given class's class hierarchy, right above the given class.
     // A new LoxClass is created with the name of this module.
     public void includeIn(LoxModule modOrClass) {
+        methodsChanged();
         if (modOrClass instanceof LoxClass && ((LoxClass)modOrClass).module == null) {
             LoxClass klass = (LoxClass)modOrClass;
             LoxClass klassSuperOrig = klass.getSuper();
@@ -60,13 +65,20 @@ class LoxModule extends LoxInstance {
 
     public void addMethod(String name, LoxCallable func) {
         methods.put(name, func);
+        methodsChanged();
     }
 
     public void addGetter(String name, LoxCallable func) {
         getters.put(name, func);
+        methodsChanged();
     }
 
     public void addSetter(String name, LoxCallable func) {
         setters.put(name, func);
+        methodsChanged();
+    }
+
+    static void methodsChanged() {
+        methodEpoch++;
     }
 }
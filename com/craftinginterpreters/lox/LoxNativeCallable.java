@@ -11,7 +11,6 @@ class LoxNativeCallable implements LoxCallable {
     final int arityMax;
     final List<Object> defaultArgs;
     public Map<String,Object> kwArgs = null;
-    LoxInstance boundInstance = null;
     protected LoxModule modDefinedIn = null;
 
     LoxNativeCallable(String name, int arityMin, int arityMax,
@@ -32,32 +31,54 @@ class LoxNativeCallable implements LoxCallable {
     @Override
     public Object call(Interpreter interp, List<Object> args,
             Map<String,Object> kwargs, Token tok) {
-        Object ret = null;
-        Environment oldEnv = interp.environment;
-        LoxInstance oldBoundInstance = boundInstance;
-        interp.stack.add(new StackFrame(this, tok));
-        try {
-            interp.environment = new Environment(oldEnv);
-            if (boundInstance != null) {
-                interp.environment.define("this", boundInstance);
-            }
-            ret = _call(interp, args, kwargs, tok);
-        } finally {
-            interp.environment = oldEnv;
-            this.boundInstance = oldBoundInstance;
-        }
-        interp.stack.pop(); // must be outside of finally clause so we don't pop the frame if we throw a RuntimeThrow from inside the try { } block
+        return invoke(interp, null, args, kwargs, tok);
+    }
+
+    // The receiver is given straight to _call(), and the call is recorded
+    // without making a StackFrame (see Interpreter#pushNativeCall), so a
+    // native costs little more than the work it does.
+    @Override
+    public Object invoke(Interpreter interp, LoxInstance receiver, List<Object> args,
+            Map<String,Object> kwargs, Token tok) {
+        interp.pushNativeCall(this, tok);
+        Object ret = _call(interp, receiver, args, kwargs, tok);
+        interp.popNativeCall(); // not popped if _call throws, so the stacktrace still shows it
         return ret;
     }
 
     @Override
     public LoxCallable bind(LoxInstance instance, Environment env) {
-        this.boundInstance = instance;
-        return this;
+        return new Bound(this, instance);
     }
 
-    // to override in subclass
-    protected Object _call(Interpreter interp, List<Object> args, Map<String,Object> kwargs, Token tok) {
+    // A native method bound to its receiver, like the value of `[].push`.
+    static class Bound extends LoxNativeCallable {
+        final LoxNativeCallable method;
+        final LoxInstance receiver;
+
+        Bound(LoxNativeCallable method, LoxInstance receiver) {
+            super(method.name, method.arityMin, method.arityMax, method.defaultArgs, method.kwArgs);
+            this.modDefinedIn = method.modDefinedIn;
+            this.method = method;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public Object invoke(Interpreter interp, LoxInstance receiver, List<Object> args,
+                Map<String,Object> kwargs, Token tok) {
+            return method.invoke(interp, this.receiver, args, kwargs, tok);
+        }
+
+        @Override
+        public LoxCallable bind(LoxInstance instance, Environment env) {
+            return method.bind(instance, env);
+        }
+    }
+
+    // to override in subclass. `instance` is the receiver of a method call,
+    // otherwise null.
+    protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
+            Map<String,Object> kwargs, Token tok) {
         throw new RuntimeError(tok, name + "() unimplemented!");
     }
 
@@ -11,12 +11,12 @@ class LoxNativeClass extends LoxClass implements LoxCallable {
     }
 
     public void defineMethod(LoxNativeCallable callable) {
-        methods.put(callable.getName(), callable);
+        addMethod(callable.getName(), callable);
         callable.setModuleDefinedIn(this);
     }
 
     public void defineSingletonMethod(LoxNativeCallable callable) {
-        getSingletonKlass().methods.put(callable.getName(), callable);
+        getSingletonKlass().addMethod(callable.getName(), callable);
         callable.setModuleDefinedIn(getSingletonKlass());
     }
 
@@ -24,7 +24,7 @@ class LoxNativeClass extends LoxClass implements LoxCallable {
         if (callable.arityMin() != 0 || callable.arityMax() != 0) {
             throw new RuntimeException("defineGetter() callable must have arity of exactly 0: " + name + "#" + callable.getName());
         }
-        getters.put(callable.getName(), callable);
+        addGetter(callable.getName(), callable);
         callable.setModuleDefinedIn(this);
     }
 
@@ -32,7 +32,7 @@ class LoxNativeClass extends LoxClass implements LoxCallable {
         if (callable.arityMin() != 1 || callable.arityMax() != 1) {
             throw new RuntimeException("defineSetter() callable must have arity of exactly 1: " + name + "#" + callable.getName());
         }
-        setters.put(callable.getName(), callable);
+        addSetter(callable.getName(), callable);
         callable.setModuleDefinedIn(this);
     }
 
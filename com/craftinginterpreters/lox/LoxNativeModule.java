@@ -10,12 +10,12 @@ class LoxNativeModule extends LoxModule {
     }
 
     public void defineMethod(LoxNativeCallable callable) {
-        methods.put(callable.getName(), callable);
+        addMethod(callable.getName(), callable);
         callable.setModuleDefinedIn(this);
     }
 
     public void defineSingletonMethod(LoxNativeCallable callable) {
-        getSingletonKlass().methods.put(callable.getName(), callable);
+        getSingletonKlass().addMethod(callable.getName(), callable);
         callable.setModuleDefinedIn(getSingletonKlass());
     }
 
@@ -23,7 +23,7 @@ class LoxNativeModule extends LoxModule {
         if (callable.arityMin() != 0 || callable.arityMax() != 0) {
             throw new RuntimeException("defineGetter() callable must have arity of exactly 0: " + name + "#" + callable.getName());
         }
-        getters.put(callable.getName(), callable);
+        addGetter(callable.getName(), callable);
         callable.setModuleDefinedIn(this);
     }
 
@@ -31,7 +31,7 @@ class LoxNativeModule extends LoxModule {
         if (callable.arityMin() != 1 || callable.arityMax() != 1) {
             throw new RuntimeException("defineSetter() callable must have arity of exactly 1: " + name + "#" + callable.getName());
         }
-        setters.put(callable.getName(), callable);
+        addSetter(callable.getName(), callable);
         callable.setModuleDefinedIn(this);
     }
 
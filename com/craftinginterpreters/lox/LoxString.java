@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+// Instance of the builtin String class, or of one of its subclasses. The
+// characters live in `str`, which is set by String#init. Ropes are
+// immutable, so methods that change a String replace `str` instead, and
+// copies can share it.
+class LoxString extends LoxInstance {
+    public Rope str = null;
+
+    LoxString(LoxClass klass, String className) {
+        super(klass, className);
+    }
+
+    @Override
+    protected void dupPayloadInto(LoxInstance copy) {
+        ((LoxString)copy).str = str;
+    }
+}
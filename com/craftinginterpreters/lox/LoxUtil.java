@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Collections;
 import java.util.Map;
@@ -14,6 +15,54 @@ import java.util.HashMap;
 class LoxUtil {
     static List<Object> EMPTY_ARGS = Collections.unmodifiableList(new ArrayList<>());
     static Map<String,Object> EMPTY_KWARGS = Collections.unmodifiableMap(new HashMap<>());
+    static final Object[] NO_ARGS = new Object[0];
+
+    // Conversions between the two ways arguments are given to a
+    // LoxCallable: a List and a Map, or an array of the positional
+    // arguments followed by the values of the keyword arguments named by
+    // `kwargNames` (see LoxCallable#invoke).
+
+    static List<Object> positionalArgs(Object[] args, String[] kwargNames) {
+        int numPositional = args.length - (kwargNames == null ? 0 : kwargNames.length);
+        if (numPositional == 0) {
+            return EMPTY_ARGS;
+        }
+        List<Object> list = Arrays.asList(args);
+        return numPositional == args.length ? list : list.subList(0, numPositional);
+    }
+
+    static Map<String,Object> kwargs(Object[] args, String[] kwargNames) {
+        if (kwargNames == null) {
+            return EMPTY_KWARGS;
+        }
+        Map<String,Object> kwargs = new HashMap<>();
+        int offset = args.length - kwargNames.length;
+        for (int i = 0; i < kwargNames.length; i++) {
+            kwargs.put(kwargNames[i], args[offset + i]);
+        }
+        return kwargs;
+    }
+
+    static String[] kwargNames(Map<String,Object> kwargs) {
+        if (kwargs.isEmpty()) {
+            return null;
+        }
+        return kwargs.keySet().toArray(new String[kwargs.size()]);
+    }
+
+    static Object[] argsArray(List<Object> args, Map<String,Object> kwargs, String[] kwargNames) {
+        if (kwargNames == null) {
+            return args.isEmpty() ? NO_ARGS : args.toArray();
+        }
+        Object[] array = new Object[args.size() + kwargNames.length];
+        for (int i = 0; i < args.size(); i++) {
+            array[i] = args.get(i);
+        }
+        for (int i = 0; i < kwargNames.length; i++) {
+            array[args.size() + i] = kwargs.get(kwargNames[i]);
+        }
+        return array;
+    }
 
     static String readFile(String path) throws IOException {
         byte[] encoded = Files.readAllBytes(Paths.get(path));
@@ -0,0 +1,404 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Simplifies the AST after parsing, before resolution: folds operators
+// whose operands are literals, drops `if` branches and `while` loops whose
+// condition is a literal, drops literal expression statements in functions
+// and collapses nested groupings. Nodes are changed in place where they can
+// be, so other nodes' references to them (ex: Stmt.Break#loopStmt) stay
+// valid. A folded literal gets the token of the operator it replaces, so
+// errors still point at the right place.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private int functionDepth = 0;
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        return optimizeStmts(statements);
+    }
+
+    // removed statements are left out of the returned list
+    private List<Stmt> optimizeStmts(List<Stmt> statements) {
+        List<Stmt> ret = new ArrayList<>(statements.size());
+        for (Stmt stmt : statements) {
+            Stmt optimized = optimize(stmt);
+            if (optimized != null) {
+                ret.add(optimized);
+            }
+        }
+        return ret;
+    }
+
+    // returns null if the statement can be removed
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // for statements that can't be removed, only emptied
+    private Stmt optimizeBody(Stmt stmt, Token tok) {
+        Stmt optimized = optimize(stmt);
+        if (optimized == null) {
+            return new Stmt.Block(tok, new ArrayList<Stmt>());
+        }
+        return optimized;
+    }
+
+    private Expr optimize(Expr expr) {
+        if (expr == null) {
+            return null;
+        }
+        return expr.accept(this);
+    }
+
+    private void optimizeExprs(List<Expr> exprs) {
+        for (int i = 0; i < exprs.size(); i++) {
+            exprs.set(i, optimize(exprs.get(i)));
+        }
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object literalValue(Expr expr) {
+        return ((Expr.Literal)expr).value;
+    }
+
+    // the same as Interpreter#isTruthy, every literal string is truthy
+    private static boolean isTruthy(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (boolean)value;
+        return true;
+    }
+
+    // both regular ("") and static (s"") string literals
+    private static boolean isStringValue(Object value) {
+        return value instanceof Rope || value instanceof String;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        expr.left = optimize(expr.left);
+        expr.right = optimize(expr.right);
+        if (!isLiteral(expr.left) || !isLiteral(expr.right)) {
+            return expr;
+        }
+        Object left = literalValue(expr.left);
+        Object right = literalValue(expr.right);
+        Object value = null;
+        if (left instanceof Double && right instanceof Double) {
+            value = foldNumbers(expr.operator.type, (double)left, (double)right);
+        } else if (!isStringValue(left) && !isStringValue(right)) {
+            // nil and booleans, same as Interpreter#isEqual. Strings aren't
+            // folded, String's operator methods can be redefined (that's
+            // checked at runtime, see Interpreter#specializeBinary).
+            if (expr.operator.type == TokenType.EQUAL_EQUAL) {
+                value = left == null ? right == null : left.equals(right);
+            } else if (expr.operator.type == TokenType.BANG_EQUAL) {
+                value = left == null ? right != null : !left.equals(right);
+            }
+        }
+        if (value == null) {
+            return expr;
+        }
+        return new Expr.Literal(expr.operator, value);
+    }
+
+    // returns null if the operation isn't folded
+    private Object foldNumbers(TokenType opType, double left, double right) {
+        switch (opType) {
+            case MINUS: return left - right;
+            case PLUS: return left + right;
+            case STAR: return left * right;
+            case SLASH:
+                if (right == 0.0) { // leave the error for runtime
+                    return null;
+                }
+                return left / right;
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            // boxed, like Interpreter#isEqual
+            case BANG_EQUAL: return !((Double)left).equals(right);
+            case EQUAL_EQUAL: return ((Double)left).equals(right);
+            default: return null;
+        }
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        expr.left = optimize(expr.left);
+        expr.right = optimize(expr.right);
+        if (!isLiteral(expr.left)) {
+            return expr;
+        }
+        boolean leftTruthy = isTruthy(literalValue(expr.left));
+        if (expr.operator.type == TokenType.OR) {
+            return leftTruthy ? expr.left : expr.right;
+        } else {
+            return leftTruthy ? expr.right : expr.left;
+        }
+    }
+
+    // `((expr))` becomes `(expr)`, and `(literal)` becomes `literal`
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression = optimize(expr.expression);
+        while (expr.expression instanceof Expr.Grouping) {
+            expr.expression = ((Expr.Grouping)expr.expression).expression;
+        }
+        if (isLiteral(expr.expression)) {
+            return expr.expression;
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        optimizeExprs(expr.expressions);
+        return expr;
+    }
+
+    @Override
+    public Expr visitIndexedGetExpr(Expr.IndexedGet expr) {
+        expr.left = optimize(expr.left);
+        expr.indexExpr = optimize(expr.indexExpr);
+        return expr;
+    }
+
+    @Override
+    public Expr visitIndexedSetExpr(Expr.IndexedSet expr) {
+        expr.left = optimize(expr.left);
+        expr.indexExpr = optimize(expr.indexExpr);
+        expr.value = optimize(expr.value);
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        expr.right = optimize(expr.right);
+        if (!isLiteral(expr.right)) {
+            return expr;
+        }
+        Object right = literalValue(expr.right);
+        switch (expr.operator.type) {
+            case BANG:
+                return new Expr.Literal(expr.operator, !isTruthy(right));
+            case MINUS:
+                if (right instanceof Double) {
+                    return new Expr.Literal(expr.operator, -(double)right);
+                }
+                break;
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        expr.value = optimize(expr.value);
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        expr.left = optimize(expr.left);
+        optimizeExprs(expr.args);
+        return expr;
+    }
+
+    @Override
+    public Expr visitAnonFnExpr(Expr.AnonFn expr) {
+        functionDepth++;
+        optimize(expr.body); // Stmt.Block
+        functionDepth--;
+        return expr;
+    }
+
+    @Override
+    public Expr visitPropAccessExpr(Expr.PropAccess expr) {
+        expr.left = optimize(expr.left);
+        return expr;
+    }
+
+    @Override
+    public Expr visitPropSetExpr(Expr.PropSet expr) {
+        expr.object = optimize(expr.object);
+        expr.value = optimize(expr.value);
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSplatCallExpr(Expr.SplatCall expr) {
+        expr.expression = optimize(expr.expression);
+        return expr;
+    }
+
+    @Override
+    public Expr visitKeywordArgExpr(Expr.KeywordArg expr) {
+        expr.expression = optimize(expr.expression);
+        return expr;
+    }
+
+    // A literal statement does nothing. Outside of functions it's kept,
+    // its value is the result of Interpreter#evalSrc and the REPL.
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression = optimize(stmt.expression);
+        if (functionDepth > 0 && isLiteral(stmt.expression)) {
+            return null;
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression = optimize(stmt.expression);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        optimizeExprs(stmt.initializers);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        stmt.statements = optimizeStmts(stmt.statements);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        stmt.condition = optimize(stmt.condition);
+        if (isLiteral(stmt.condition)) {
+            if (isTruthy(literalValue(stmt.condition))) {
+                return optimize(stmt.ifBranch);
+            } else if (stmt.elseBranch != null) {
+                return optimize(stmt.elseBranch);
+            } else {
+                return null;
+            }
+        }
+        stmt.ifBranch = optimizeBody(stmt.ifBranch, stmt.keyword);
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch = optimize(stmt.elseBranch);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        stmt.condition = optimize(stmt.condition);
+        if (isLiteral(stmt.condition) && !isTruthy(literalValue(stmt.condition))) {
+            return null;
+        }
+        stmt.body = optimizeBody(stmt.body, stmt.keyword);
+        return stmt;
+    }
+
+    // the initializer always runs, so the loop is kept even if the test is
+    // a falsy literal
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) {
+            stmt.initializer = optimizeBody(stmt.initializer, stmt.keyword);
+        }
+        stmt.test = optimize(stmt.test);
+        stmt.increment = optimize(stmt.increment);
+        stmt.body = optimizeBody(stmt.body, stmt.keyword);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitForeachStmt(Stmt.Foreach stmt) {
+        stmt.obj = optimize(stmt.obj);
+        optimize(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        functionDepth++;
+        optimize(stmt.body); // Stmt.Block
+        functionDepth--;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        stmt.expression = optimize(stmt.expression);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        stmt.body = optimizeStmts(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitModuleStmt(Stmt.Module stmt) {
+        stmt.body = optimizeStmts(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitTryStmt(Stmt.Try stmt) {
+        optimize(stmt.tryBlock);
+        for (Stmt.Catch catchStmt : stmt.catchStmts) {
+            optimize(catchStmt);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitCatchStmt(Stmt.Catch stmt) {
+        optimize(stmt.block);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitThrowStmt(Stmt.Throw stmt) {
+        stmt.throwExpr = optimize(stmt.throwExpr);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitInStmt(Stmt.In stmt) {
+        stmt.object = optimize(stmt.object);
+        stmt.body = optimizeStmts(stmt.body);
+        return stmt;
+    }
+}
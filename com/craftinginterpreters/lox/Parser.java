@@ -466,8 +466,13 @@ public class Parser {
             consumeTok(IN, "expected keyword 'in' after keyword 'foreach'");
             Expr expr = expression();
             consumeTok(RIGHT_PAREN, "expected ')' to end 'foreach' statement");
+            Stmt.Foreach foreachStmt = new Stmt.Foreach(foreachTok, variables, expr, null);
+            Stmt oldInLoopStmt = this.inLoopStmt;
+            this.inLoopStmt = foreachStmt;
             Stmt.Block body = (Stmt.Block)statement();
-            return new Stmt.Foreach(foreachTok, variables, expr, body);
+            this.inLoopStmt = oldInLoopStmt;
+            foreachStmt.body = body;
+            return foreachStmt;
         }
         if (matchAny(IN)) {
             Token inTok = prevTok();
@@ -744,7 +749,7 @@ public class Parser {
         }
         if (matchAny(SQ_STRING)) {
             return new Expr.Literal(prevTok(),
-                new StringBuffer((String)prevTok().literal)
+                Rope.of((String)prevTok().literal)
             );
         }
         if (matchAny(DQ_STRING)) {
@@ -800,7 +805,7 @@ public class Parser {
                 group.expression = plusOp2;
                 return group;
             }
-            return new Expr.Literal(litTok, new StringBuffer(str));
+            return new Expr.Literal(litTok, Rope.of(str));
         }
         // static string (var s = s"frozen, static string")
         if (matchAny(ST_STRING)) {
@@ -8,26 +8,48 @@ import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     public List<String> errorBuf = new ArrayList<>();
     private List<String> nativeClassNames = null;
 
     private Stmt.Class currentClass = null;
     private Stmt.Module currentMod = null;
     private Stmt.In currentIn = null;
-
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private boolean inFunction = false;
+    // try blocks, and class, module and `in` bodies, in the current function.
+    // A call returned from inside of one of these isn't a tail call: the
+    // statement has to see the call's errors or run with its state.
+    private int tailCallBarriers = 0;
+    // functions, classes, modules and `in` statements resolved so far. A
+    // block they're in can have its scope closed over.
+    private int closures = 0;
+    // the functions being resolved, innermost last
+    private final Stack<FunctionScope> functions = new Stack<>();
+
+    // A local scope. Each declared name gets the next slot, and `names`
+    // becomes the layout of the Environment created for the scope at runtime.
+    private static class Scope {
+        final List<String> names = new ArrayList<>();
+        final Map<String, Boolean> defined = new HashMap<>();
+
+        int slotOf(String name) {
+            return names.indexOf(name);
+        }
     }
 
-    @Override
-    public void beforeVisit(Object _obj) {
-        // do nothing
+    // `firstScope` is the index in `scopes` of the function's parameter
+    // scope. A function captures variables if it uses any from before it.
+    private static class FunctionScope {
+        final int firstScope;
+        boolean captures = false;
+
+        FunctionScope(int firstScope) {
+            this.firstScope = firstScope;
+        }
     }
 
-    @Override
-    public void afterVisit(Object _obj) {
-        // do nothing
+    Resolver(Interpreter interpreter) {
+        this.interpreter = interpreter;
     }
 
     @Override
@@ -85,6 +107,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
+        resolveLocal(expr, "this");
+        if (expr.depth < 0) {
+            // looks up `this` through the environments at runtime
+            markCaptures(-1);
+        }
         return null;
     }
 
@@ -109,7 +136,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         // TODO: allow inner scoped variable name to shadow outer scope variable name of same name
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && scopes.peek().defined.get(expr.name.lexeme) == Boolean.FALSE) {
             error(expr.name, "Cannot read local variable in its own initializer.");
         }
         resolveLocal(expr, expr.name);
@@ -145,13 +172,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitAnonFnExpr(Expr.AnonFn expr) {
-        beginScope();
+        boolean enclosingInFunction = this.inFunction;
+        int enclosingBarriers = this.tailCallBarriers;
+        this.inFunction = true;
+        this.tailCallBarriers = 0;
+        closures++;
+        FunctionScope function = beginFunctionScope();
         for (Param param : expr.formals) {
             declare(param.token);
             define(param.token);
         }
-        resolve(expr.body); // Stmt.Block
-        endScope();
+        resolveFunctionBody((Stmt.Block)expr.body, expr.formals);
+        expr.paramSlotNames = endFunctionScope();
+        expr.captures = function.captures;
+        this.inFunction = enclosingInFunction;
+        this.tailCallBarriers = enclosingBarriers;
         return null;
     }
 
@@ -169,8 +204,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        if (!scopes.isEmpty()) {
+            stmt.slots = new int[stmt.names.size()];
+        }
+        int i = 0;
         for (Token varTok : stmt.names) {
-            declare(varTok);
+            int slot = declare(varTok);
+            if (stmt.slots != null) {
+                stmt.slots[i] = slot;
+            }
+            i++;
         }
         for (Expr init : stmt.initializers) {
             resolve(init);
@@ -183,12 +226,82 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
-        resolve(stmt.statements);
-        endScope();
+        int closuresBefore = closures;
+        // a block that declares nothing doesn't get a scope, it runs in the
+        // enclosing environment (its slotNames stay null)
+        if (declaresNames(stmt.statements)) {
+            resolveScoped(stmt);
+        } else {
+            resolve(stmt.statements);
+        }
+        stmt.hasClosures = closures != closuresBefore;
         return null;
     }
 
+    private FunctionScope beginFunctionScope() {
+        FunctionScope function = new FunctionScope(scopes.size());
+        functions.push(function);
+        beginScope();
+        return function;
+    }
+
+    private String[] endFunctionScope() {
+        functions.pop();
+        return endScope();
+    }
+
+    // The body of a function declares its variables in the parameter scope,
+    // so a call makes one environment. A body that declares a parameter's
+    // name again (a local function or class shadowing it) gets its own
+    // scope instead.
+    private void resolveFunctionBody(Stmt.Block body, List<Param> formals) {
+        List<String> declared = declaredNames(body.statements);
+        for (Param param : formals) {
+            if (declared.contains(param.varName())) {
+                resolveScoped(body);
+                return;
+            }
+        }
+        resolve(body.statements);
+        body.slotNames = null;
+    }
+
+    private static List<String> declaredNames(List<Stmt> stmts) {
+        List<String> names = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof Stmt.Var) {
+                for (Token name : ((Stmt.Var)stmt).names) {
+                    names.add(name.lexeme);
+                }
+            } else if (stmt instanceof Stmt.Function) {
+                names.add(((Stmt.Function)stmt).name.lexeme);
+            } else if (stmt instanceof Stmt.Class) {
+                names.add(((Stmt.Class)stmt).name.lexeme);
+            } else if (stmt instanceof Stmt.Module) {
+                names.add(((Stmt.Module)stmt).name.lexeme);
+            }
+        }
+        return names;
+    }
+
+    // blocks whose scope is made by their catch statement, or by their
+    // function when it's not the parameter scope
+    private void resolveScoped(Stmt.Block block) {
+        beginScope();
+        resolve(block.statements);
+        block.slotNames = endScope();
+    }
+
+    private static boolean declaresNames(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof Stmt.Var || stmt instanceof Stmt.Function ||
+                    stmt instanceof Stmt.Class || stmt instanceof Stmt.Module) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         resolve(stmt.condition);
@@ -208,7 +321,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitForStmt(Stmt.For stmt) {
-        beginScope();
+        // only a `var` initializer needs the loop's own scope
+        boolean hasScope = stmt.initializer instanceof Stmt.Var;
+        if (hasScope) {
+            beginScope();
+        }
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -219,13 +336,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.increment);
         }
         resolve(stmt.body);
-        endScope();
+        if (hasScope) {
+            stmt.slotNames = endScope();
+        }
         return null;
     }
 
     @Override
     public Void visitTryStmt(Stmt.Try stmt) {
+        tailCallBarriers++;
         resolve(stmt.tryBlock);
+        tailCallBarriers--;
         for (Stmt.Catch catchStmt : stmt.catchStmts) {
             resolve(catchStmt);
         }
@@ -240,9 +361,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             declare(stmt.catchVar.name);
             define(stmt.catchVar.name);
         }
-        resolve(stmt.block);
+        resolveScoped(stmt.block);
         if (stmt.catchVar != null) {
-            endScope();
+            stmt.slotNames = endScope();
         }
         return null;
     }
@@ -267,7 +388,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
         resolveFunction(stmt);
         return null;
@@ -277,6 +398,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (stmt.expression != null) {
             resolve(stmt.expression);
+            // `return f(...)`: the caller's frame is done, so the function
+            // returning makes the call instead (see LoxFunction#invoke)
+            if (inFunction && tailCallBarriers == 0 && stmt.expression instanceof Expr.Call) {
+                ((Expr.Call)stmt.expression).isTailCall = true;
+            }
         }
         return null;
     }
@@ -291,11 +417,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         Stmt.Class enclosingClass = this.currentClass;
         this.currentClass = stmt;
+        closures++;
 
         beginScope();
-        scopes.peek().put("this", true);
+        declareThis();
+        tailCallBarriers++;
         resolve(stmt.body);
-        endScope();
+        tailCallBarriers--;
+        stmt.slotNames = endScope();
 
         this.currentClass = enclosingClass;
         return null;
@@ -308,11 +437,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         Stmt.Module enclosingMod = this.currentMod;
         this.currentMod = stmt;
+        closures++;
 
         beginScope();
-        scopes.peek().put("this", true);
+        declareThis();
+        tailCallBarriers++;
         resolve(stmt.body);
-        endScope();
+        tailCallBarriers--;
+        stmt.slotNames = endScope();
 
         this.currentMod = enclosingMod;
         return null;
@@ -323,11 +455,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve(stmt.object);
         Stmt.In enclosingIn = this.currentIn;
         this.currentIn = stmt;
+        closures++;
 
         beginScope();
-        scopes.peek().put("this", true);
+        declareThis();
+        tailCallBarriers++;
         resolve(stmt.body);
-        endScope();
+        tailCallBarriers--;
+        stmt.slotNames = endScope();
         this.currentIn = enclosingIn;
 
         return null;
@@ -342,7 +477,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             define(var);
         }
         resolve(stmt.body);
-        endScope();
+        stmt.slotNames = endScope();
         return null;
     }
 
@@ -375,45 +510,87 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void resolveFunction(Stmt.Function stmt) {
-        beginScope();
+        boolean enclosingInFunction = this.inFunction;
+        int enclosingBarriers = this.tailCallBarriers;
+        this.inFunction = true;
+        this.tailCallBarriers = 0;
+        closures++;
+        beginFunctionScope();
+        // methods get their receiver in the parameter scope, see
+        // LoxFunction#invoke
+        if (stmt.type != Parser.FunctionType.FUNCTION) {
+            declareThis();
+        }
         for (Param param : stmt.formals) {
             declare(param.token);
             define(param.token);
         }
-        resolve(stmt.body);
-        endScope();
+        resolveFunctionBody((Stmt.Block)stmt.body, stmt.formals);
+        stmt.paramSlotNames = endFunctionScope();
+        this.inFunction = enclosingInFunction;
+        this.tailCallBarriers = enclosingBarriers;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope());
     }
 
-    private void endScope() {
-        scopes.pop();
+    // returns the scope's slot layout
+    private String[] endScope() {
+        Scope scope = scopes.pop();
+        if (scope.names.isEmpty()) {
+            return Environment.EMPTY_LAYOUT;
+        }
+        return scope.names.toArray(new String[scope.names.size()]);
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        if (scopes.peek().containsKey(name.lexeme)) {
+    // returns the slot of the declared name, or -1 for globals
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return -1;
+        Scope scope = scopes.peek();
+        if (scope.defined.containsKey(name.lexeme)) {
             error(name, "cannot redeclare variable " + name.lexeme + ".");
+            return scope.slotOf(name.lexeme);
         }
-        scopes.peek().put(name.lexeme, false);
+        scope.defined.put(name.lexeme, false);
+        scope.names.add(name.lexeme);
+        return scope.names.size() - 1;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().defined.put(name.lexeme, true);
+    }
+
+    // 'this' is always slot 0 of class, module, 'in' and method scopes
+    private void declareThis() {
+        Scope scope = scopes.peek();
+        scope.defined.put("this", true);
+        scope.names.add("this");
     }
 
     private void resolveLocal(Expr expr, Token name) {
+        resolveLocal(expr, name.lexeme);
+    }
+
+    private void resolveLocal(Expr expr, String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            Scope scope = scopes.get(i);
+            if (scope.defined.containsKey(name)) {
+                interpreter.resolve(expr, scopes.size() - 1 - i, scope.slotOf(name));
+                markCaptures(i);
                 return;
             }
         }
     }
 
+    // the functions that start after scope `scopeIdx` use a variable of it
+    private void markCaptures(int scopeIdx) {
+        for (int i = functions.size() - 1; i >= 0 && functions.get(i).firstScope > scopeIdx; i--) {
+            functions.get(i).captures = true;
+        }
+    }
+
     private void error(Token tok, String msg) {
         Lox.error(tok, msg);
         this.errorBuf.add(msg);
@@ -0,0 +1,139 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+// Immutable character data of a Lox String (see LoxString). Concatenation
+// is O(1): it makes a node pointing at both halves, which gets flattened
+// into a java.lang.String (stored compactly as Latin-1 or UTF-16 by the JVM)
+// the first time its characters are needed. The hash code is cached, so
+// Strings used as Map keys are only hashed once.
+final class Rope {
+    static final Rope EMPTY = new Rope("");
+    // concatenations shorter than this are copied right away, ropes of tiny
+    // pieces cost more than they save
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    private String flat; // null until flattened
+    private Rope left;
+    private Rope right;
+    private final int length;
+    private int hash = 0;
+
+    private Rope(String flat) {
+        this.flat = flat;
+        this.length = flat.length();
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+    }
+
+    static Rope of(String str) {
+        if (str.isEmpty()) {
+            return EMPTY;
+        }
+        return new Rope(str);
+    }
+
+    int length() {
+        return length;
+    }
+
+    Rope concat(Rope other) {
+        if (other.length == 0) {
+            return this;
+        }
+        if (length == 0) {
+            return other;
+        }
+        if (length + other.length < MIN_ROPE_LENGTH) {
+            return new Rope(toString().concat(other.toString()));
+        }
+        return new Rope(this, other);
+    }
+
+    Rope repeat(int times) {
+        Rope ret = EMPTY;
+        for (int i = 0; i < times; i++) {
+            ret = ret.concat(this);
+        }
+        return ret;
+    }
+
+    Rope substring(int start, int end) {
+        if (start == 0 && end == length) {
+            return this;
+        }
+        return of(toString().substring(start, end));
+    }
+
+    // The rope with the characters from `start` replaced by `replacement`,
+    // as many as it has. If `start` is past the end, the gap is filled with
+    // spaces.
+    Rope replace(int start, Rope replacement) {
+        if (start > length) {
+            char[] padding = new char[start - length];
+            Arrays.fill(padding, ' ');
+            return concat(of(new String(padding))).concat(replacement);
+        }
+        int end = Math.min(start + replacement.length, length);
+        return substring(0, start).concat(replacement).concat(substring(end, length));
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flatten();
+        }
+        return flat;
+    }
+
+    // done without recursion, ropes built in a loop are very deep
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<Rope> todo = new ArrayDeque<>();
+        todo.push(this);
+        while (!todo.isEmpty()) {
+            Rope rope = todo.pop();
+            if (rope.flat != null) {
+                builder.append(rope.flat);
+            } else {
+                todo.push(rope.right);
+                todo.push(rope.left);
+            }
+        }
+        flat = builder.toString();
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public int hashCode() {
+        if (hash == 0 && length > 0) {
+            hash = toString().hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Rope)) {
+            return false;
+        }
+        Rope other = (Rope)obj;
+        if (length != other.length) {
+            return false;
+        }
+        if (hash != 0 && other.hash != 0 && hash != other.hash) {
+            return false;
+        }
+        return toString().equals(other.toString());
+    }
+}
@@ -94,24 +94,15 @@ class Runtime {
     }
 
     static boolean isArray(Object obj) {
-        if (isClass(obj)) { return false; }
-        if (!isInstance(obj)) { return false; }
-        LoxInstance instance = (LoxInstance)obj;
-        return instance.isA("Array");
+        return (obj instanceof LoxArray);
     }
 
     static boolean isMap(Object obj) {
-        if (isClass(obj)) { return false; }
-        if (!isInstance(obj)) { return false; }
-        LoxInstance instance = (LoxInstance)obj;
-        return instance.isA("Map");
+        return (obj instanceof LoxMap);
     }
 
     static boolean isString(Object obj) {
-        if (isClass(obj)) { return false; }
-        if (!isInstance(obj)) { return false; }
-        LoxInstance instance = (LoxInstance)obj;
-        return instance.isA("String");
+        return (obj instanceof LoxString);
     }
 
     static boolean isNumber(Object obj) {
@@ -140,6 +131,14 @@ class Runtime {
         }
     }
 
+    static LoxClass toClass(Object obj) {
+        if (obj instanceof LoxClass) {
+            return (LoxClass)obj;
+        } else {
+            return null;
+        }
+    }
+
     static LoxInstance toString(Object obj) {
         if (isString(obj)) {
             return (LoxInstance)obj;
@@ -149,15 +148,19 @@ class Runtime {
     }
 
     static LoxInstance createString(String obj, Interpreter interp) {
-        LoxInstance loxStr = interp.createInstance("String");
-        ((StringBuffer)loxStr.getHiddenProp("buf")).append(obj);
-        return loxStr;
+        return createString(Rope.of(obj), interp);
     }
 
     static LoxInstance createString(StringBuffer obj, Interpreter interp) {
         return createString(obj.toString(), interp);
     }
 
+    static LoxInstance createString(Rope obj, Interpreter interp) {
+        LoxInstance loxStr = interp.createInstance("String");
+        ((LoxString)loxStr).str = obj;
+        return loxStr;
+    }
+
     static LoxInstance getStaticString(String staticStr, Interpreter interp) {
         if (interp.staticStringPool.containsKey(staticStr)) {
             return interp.staticStringPool.get(staticStr);
@@ -170,7 +173,7 @@ class Runtime {
     }
 
     static String toJavaString(LoxInstance loxStr) {
-        return loxStr.getHiddenProp("buf").toString();
+        return ((LoxString)loxStr).str.toString();
     }
 
     // dup either Lox object or Lox internal representation of the object
@@ -223,14 +226,14 @@ class Runtime {
     private void defineGlobalFunctions(Interpreter interp) {
         globalEnv.define("clock", new LoxNativeCallable("clock", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interpreter, List<Object> arguments,
+            protected Object _call(Interpreter interpreter, LoxInstance instance, List<Object> arguments,
                     Map<String,Object> kwargs, Token tok) {
                 return (double)System.currentTimeMillis() / 1000.0;
             }
         });
         globalEnv.define("typeof", new LoxNativeCallable("typeof", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interpreter, List<Object> arguments,
+            protected Object _call(Interpreter interpreter, LoxInstance instance, List<Object> arguments,
                     Map<String,Object> kwargs, Token tok) {
                 Object obj = arguments.get(0);
                 return Runtime.createString(interpreter.nativeTypeof(tok, obj), interpreter);
@@ -239,14 +242,14 @@ class Runtime {
         });
         globalEnv.define("len", new LoxNativeCallable("len", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interpreter, List<Object> arguments,
+            protected Object _call(Interpreter interpreter, LoxInstance instance, List<Object> arguments,
                     Map<String,Object> kwargs, Token tok) {
                 return interpreter.nativeLen(tok, arguments.get(0));
             }
         });
         globalEnv.define("assert", new LoxNativeCallable("assert", 1, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> arguments,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> arguments,
                     Map<String,Object> kwargs, Token tok) {
                 Object expr = arguments.get(0);
                 if (interp.isTruthy(expr)) {
@@ -266,7 +269,7 @@ class Runtime {
         });
         globalEnv.define("loadScript", new LoxNativeCallable("loadScript", 1, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interpreter, List<Object> arguments,
+            protected Object _call(Interpreter interpreter, LoxInstance instance, List<Object> arguments,
                     Map<String,Object> kwargs, Token tok) {
                 List<String> fnames = new ArrayList<>();
                 boolean ret = true;
@@ -294,7 +297,7 @@ class Runtime {
         });
         globalEnv.define("loadScriptOnce", new LoxNativeCallable("loadScriptOnce", 1, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interpreter, List<Object> arguments,
+            protected Object _call(Interpreter interpreter, LoxInstance instance, List<Object> arguments,
                     Map<String,Object> kwargs, Token tok) {
                 List<String> fnames = new ArrayList<>();
                 boolean ret = true;
@@ -323,13 +326,13 @@ class Runtime {
         // TODO: should return the exitstatus as well in the array
         globalEnv.define("system", new LoxNativeCallable("system", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 LoxUtil.checkString(args.get(0), interp, "ArgumentError", null, 1);
                 LoxInstance loxStr = Runtime.toInstance(args.get(0));
                 String javaStr = Runtime.toJavaString(loxStr);
                 LoxInstance loxAry = interp.createInstance("Array");
-                List<Object> javaAry = (List<Object>)loxAry.getHiddenProp("ary");
+                List<Object> javaAry = ((LoxArray)loxAry).elements;
                 try {
                     Process p = java.lang.Runtime.getRuntime().exec(javaStr);
                     String s;
@@ -359,7 +362,7 @@ class Runtime {
 
         globalEnv.define("eval", new LoxNativeCallable("eval", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 LoxUtil.checkString(args.get(0), interp, "ArgumentError", null, 1);
                 LoxInstance loxSrc = Runtime.toInstance(args.get(0));
@@ -369,7 +372,7 @@ class Runtime {
         });
         globalEnv.define("alias", new LoxNativeCallable("alias", 2, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 Object callableOrStr = args.get(0); // String instance or LoxCallable
                 Object newNameObj = args.get(1);
@@ -387,8 +390,7 @@ class Runtime {
                 if (Runtime.isCallable(callableOrStr)) {
                     callableName = ((LoxCallable)callableOrStr).getName();
                 } else {
-                    callableName = Runtime.toString(callableOrStr).
-                        getHiddenProp("buf").toString();
+                    callableName = Runtime.toJavaString(Runtime.toString(callableOrStr));
                 }
 
                 if (callableName.equals(LoxFunction.ANON_NAME)) {
@@ -404,13 +406,13 @@ class Runtime {
                         callableName + "'");
                 }
 
-                interp.aliasFunction(callableName, newName, "function", interp.environment.enclosing, tok);
+                interp.aliasFunction(callableName, newName, "function", interp.environment, tok);
                 return null;
             }
         });
         globalEnv.define("isCallable", new LoxNativeCallable("isCallable", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 Object arg = args.get(0);
                 return Runtime.isCallable(arg);
@@ -423,19 +425,18 @@ class Runtime {
         LoxNativeClass objClass = new LoxNativeClass("Object", null);
         objClass.defineMethod(new LoxNativeCallable("equals", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 return Runtime.bool(
                         // strict equality, must be same java object
-                        interp.environment.getThis() == args.get(0)
+                        instance == args.get(0)
                 );
             }
         });
         objClass.defineMethod(new LoxNativeCallable("delProp", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "Object#delProp called on frozen object");
@@ -443,7 +444,7 @@ class Runtime {
                 Object argObj = args.get(0);
                 LoxUtil.checkString(argObj, interp, "ArgumentError", null, 1);
                 LoxInstance argStr = Runtime.toInstance(argObj);
-                String propName = argStr.getHiddenProp("buf").toString();
+                String propName = Runtime.toJavaString(argStr);
                 if (instance.hasNormalProperty(propName)) {
                     instance.delNormalProperty(propName);
                     return true;
@@ -458,9 +459,8 @@ class Runtime {
         objClass.defineMethod(new LoxNativeCallable("properties", 0, 2, null,
                     propertiesKwargsDefaults) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
 
                 List<Object> argsForMap = new ArrayList<>();
                 Iterator iter = instance.getProperties().entrySet().iterator();
@@ -479,7 +479,7 @@ class Runtime {
                 List<Object> realArgsForMap = new ArrayList<Object>();
                 realArgsForMap.add(argsForMapInst);
                 LoxInstance retMap = interp.createInstance("Map", realArgsForMap);
-                Map<Object,Object> retMapInternal = (Map<Object,Object>)retMap.getHiddenProp("map");
+                Map<Object,Object> retMapInternal = ((LoxMap)retMap).map;
 
                 List<String> nativeGetterNames = new ArrayList<>();
                 nativeGetterNames.add("_class");
@@ -487,7 +487,7 @@ class Runtime {
                 nativeGetterNames.add("objectId");
 
                 if (kwargs.get("includeGetters") == (Boolean)true) {
-                    LoxClass startClass = instance.getSingletonKlass();
+                    LoxClass startClass = instance.lookupKlass();
                     List<Object> ancestorsAry = startClass.ancestors();
                     for (Object ancestor : ancestorsAry) {
                         LoxUtil.Assert(ancestor instanceof LoxClass);
@@ -517,62 +517,58 @@ class Runtime {
         });
         objClass.defineGetter(new LoxNativeCallable("_class", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                return Runtime.classOf(interp.environment.getThis());
+                return Runtime.classOf(instance);
             }
         });
         objClass.defineGetter(new LoxNativeCallable("_singletonClass", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                return interp.environment.getThis().getSingletonKlass();
+                return instance.getSingletonKlass();
             }
         });
         objClass.defineMethod(new LoxNativeCallable("freeze", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                interp.environment.getThis().freeze();
-                return interp.environment.getThis();
+                instance.freeze();
+                return instance;
             }
         });
         objClass.defineMethod(new LoxNativeCallable("isFrozen", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                return interp.environment.getThis().isFrozen;
+                return instance.isFrozen;
             }
         });
         objClass.defineGetter(new LoxNativeCallable("objectId", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 return instance.objectId();
             }
         });
         objClass.defineMethod(new LoxNativeCallable("hashCode", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 return instance.hashCode();
             }
         });
         objClass.defineMethod(new LoxNativeCallable("dup", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 return instance.dup(interp);
             }
         });
         objClass.defineMethod(new LoxNativeCallable("toString", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 return Runtime.createString(instance.toString(), interp);
             }
         });
@@ -580,7 +576,7 @@ class Runtime {
         // Does nothing by default, except return `nil`.
         objClass.defineMethod(new LoxNativeCallable("propertyMissing", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 return null;
             }
@@ -592,15 +588,15 @@ class Runtime {
         // Allow anonymous modules to be instantiated
         modClass.defineMethod(new LoxNativeCallable("init", 0, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 if (args.size() == 1) {
                     LoxUtil.checkString(args.get(0), interp, "ArgumentError", null, 1);
                 }
-                LoxModule newMod = (LoxModule)interp.environment.getThis();
+                LoxModule newMod = (LoxModule)instance;
                 if (args.size() == 1) {
                     LoxInstance strInst = (LoxInstance)args.get(0);
-                    String name = strInst.getHiddenProp("buf").toString();
+                    String name = Runtime.toJavaString(strInst);
                     newMod.name = name;
                     modMap.put(name, newMod);
                 }
@@ -610,9 +606,9 @@ class Runtime {
         });
         modClass.defineMethod(new LoxNativeCallable("include", 1, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxModule thisModOrClass = (LoxModule)interp.environment.getThis();
+                LoxModule thisModOrClass = (LoxModule)instance;
                 for (Object arg : args) {
                     if (!Runtime.isModule(arg)) {
                         interp.throwLoxError("ArgumentError", tok,
@@ -626,9 +622,8 @@ class Runtime {
         });
         objClass.defineMethod(new LoxNativeCallable("extend", 1, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 for (Object arg : args) {
                     if (!Runtime.isModule(arg)) {
                         interp.throwLoxError("ArgumentError", tok,
@@ -642,7 +637,7 @@ class Runtime {
         });
         modClass.defineSingletonMethod(new LoxNativeCallable("all", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 List<Object> mods = new ArrayList<>();
                 Iterator iter = interp.classMap.entrySet().iterator();
@@ -666,7 +661,7 @@ class Runtime {
         modClass.klass = classClass;
         classClass.defineSingletonMethod(new LoxNativeCallable("all", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 List<Object> classes = new ArrayList<>();
                 Iterator iter = interp.classMap.entrySet().iterator();
@@ -679,7 +674,7 @@ class Runtime {
         });
         classClass.defineSingletonMethod(new LoxNativeCallable("getByName", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 Object nameStr = args.get(0);
                 LoxUtil.checkString(nameStr, interp, "ArgumentError", null, 1);
@@ -695,13 +690,14 @@ class Runtime {
         });
         classClass.defineMethod(new LoxNativeCallable("init", 0, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxClass klass = interp.environment.getThisClass();
+                LoxClass klass = Runtime.toClass(instance);
                 if (args.size() == 1) {
                     LoxUtil.checkIsA("Class", args.get(0), interp, "ArgumentError", null, 1);
                     LoxClass superClass = (LoxClass)args.get(0);
                     klass.superClass = superClass;
+                    LoxModule.methodsChanged();
                 }
                 return klass;
             }
@@ -709,15 +705,15 @@ class Runtime {
         // alias a method/getter/setter
         classClass.defineMethod(new LoxNativeCallable("alias", 2, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxClass klass = interp.environment.getThisClass();
+                LoxClass klass = Runtime.toClass(instance);
                 LoxUtil.checkString(args.get(0), interp, "ArgumentError", null, 1);
                 LoxUtil.checkString(args.get(1), interp, "ArgumentError", null, 2);
                 LoxInstance oldNameInst = Runtime.toInstance(args.get(0));
                 LoxInstance newNameInst = Runtime.toInstance(args.get(1));
-                String oldName = oldNameInst.getHiddenProp("buf").toString();
-                String newName = newNameInst.getHiddenProp("buf").toString();
+                String oldName = Runtime.toJavaString(oldNameInst);
+                String newName = Runtime.toJavaString(newNameInst);
 
                 if (oldName.charAt(oldName.length()-1) == '=') {
                     oldName = oldName.substring(0, oldName.length()-1);
@@ -731,28 +727,28 @@ class Runtime {
         });
         classClass.defineGetter(new LoxNativeCallable("name", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxClass klass = interp.environment.getThisClass();
+                LoxClass klass = Runtime.toClass(instance);
                 return Runtime.createString(klass.getName(), interp);
             }
         });
         classClass.defineGetter(new LoxNativeCallable("superClass", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxClass klass = interp.environment.getThisClass();
+                LoxClass klass = Runtime.toClass(instance);
                 return klass.getSuper();
             }
         });
         classClass.defineMethod(new LoxNativeCallable("ancestors", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxClass klass = interp.environment.getThisClass();
+                LoxClass klass = Runtime.toClass(instance);
                 if (klass == null) { // this is a module, which is an instance of class Module
                     List<Object> modList = new ArrayList<>();
-                    modList.add(interp.environment.getThis());
+                    modList.add(instance);
                     return interp.createInstance("Array", modList);
                 }
                 List<Object> classList = klass.ancestors();
@@ -761,9 +757,9 @@ class Runtime {
         });
         classClass.defineMethod(new LoxNativeCallable("methodNames", 0, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxClass klass = interp.environment.getThisClass();
+                LoxClass klass = Runtime.toClass(instance);
                 boolean includeAncestorLookup = true;
                 if (args.size() == 1) {
                     includeAncestorLookup = interp.isTruthy(args.get(0));
@@ -785,38 +781,35 @@ class Runtime {
         LoxNativeClass arrayClass = new LoxNativeClass("Array", objClass);
         arrayClass.defineMethod(new LoxNativeCallable("init", 0, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 List<Object> ary = new ArrayList<>();
                 for (Object arg : args) {
                     ary.add(arg);
                 }
-                instance.setHiddenProp("ary", ary);
+                ((LoxArray)instance).elements = ary;
                 return instance;
             }
         });
         arrayClass.defineGetter(new LoxNativeCallable("length", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                return (double)((List<Object>)instance.getHiddenProp("ary")).size();
+                return (double)((LoxArray)instance).elements.size();
             }
         });
         // [1,2] + [1] => [1,2,1]
         arrayClass.defineMethod(new LoxNativeCallable("opAdd", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object otherObj = args.get(0);
                 LoxUtil.checkIsA("Array", otherObj, interp, "ArgumentError", null, 1);
                 LoxInstance otherAry = Runtime.toInstance(otherObj);
-                List<Object> list = ((List<Object>)instance.getHiddenProp("ary"));
+                List<Object> list = ((LoxArray)instance).elements;
                 LoxInstance newAry = interp.createInstance("Array", list);
-                List<Object> otherList = ((List<Object>)otherAry.getHiddenProp("ary"));
-                List<Object> newList = ((List<Object>)newAry.getHiddenProp("ary"));
+                List<Object> otherList = ((LoxArray)otherAry).elements;
+                List<Object> newList = ((LoxArray)newAry).elements;
                 for (Object el : otherList) {
                     newList.add(el);
                 }
@@ -826,16 +819,15 @@ class Runtime {
         // [1,2] * 3 => [1,2,1,2,1,2]
         arrayClass.defineMethod(new LoxNativeCallable("opMul", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object otherObj = args.get(0);
                 LoxUtil.checkIsA("number", otherObj, interp, "ArgumentError", null, 1);
                 int otherInt = (int)(double)otherObj;
-                List<Object> list = ((List<Object>)instance.getHiddenProp("ary"));
+                List<Object> list = ((LoxArray)instance).elements;
                 int origSz = list.size();
                 LoxInstance newAry = interp.createInstance("Array", list);
-                List<Object> newList = ((List<Object>)newAry.getHiddenProp("ary"));
+                List<Object> newList = ((LoxArray)newAry).elements;
                 for (int i = 1; i < otherInt; i++) {
                     for (int j = 0; j < origSz; j++) {
                         Object el = newList.get(j);
@@ -847,23 +839,21 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("push", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<Array#push> called on frozen Array object");
                 }
-                List<Object> ary = (List<Object>)(instance.getHiddenProp("ary"));
+                List<Object> ary = ((LoxArray)instance).elements;
                 ary.add(args.get(0));
                 return instance;
             }
         });
         arrayClass.defineMethod(new LoxNativeCallable("pop", 0, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<Array#pop> called on frozen Array object");
@@ -877,11 +867,11 @@ class Runtime {
                     popMax = (int)(double)argObj;
                     if (popMax > 1) {
                         ret = interp.createInstance("Array", new ArrayList<Object>());
-                        retInternal = (List<Object>)((LoxInstance)ret).getHiddenProp("ary");
+                        retInternal = ((LoxArray)ret).elements;
                     }
                 }
                 int popped = 0;
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 Object el = null;
                 while (popped < popMax && ary.size() > 0) {
                     el = ary.remove(ary.size()-1);
@@ -897,23 +887,21 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("contains", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 Boolean b = ary.contains(args.get(0));
                 return b;
             }
         });
         arrayClass.defineMethod(new LoxNativeCallable("get", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object idx = args.get(0);
                 LoxUtil.checkIsA("number", idx, interp, "ArgumentError", null, 1);
                 int idxNum = (int)(double)idx;
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 if (idxNum >= ary.size()) {
                     return null;
                 }
@@ -922,14 +910,13 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("set", 2, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object idx = args.get(0);
                 LoxUtil.checkIsA("number", idx, interp, "ArgumentError", null, 1);
                 Object val = args.get(1);
                 int idxNum = (int)(double)idx;
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 int arySz = ary.size();
                 if (idxNum >= arySz) {
                     int i = arySz;
@@ -944,9 +931,8 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("indexGet", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 LoxCallable getMethod = instance.getMethod("get", interp);
                 if (getMethod == null) {
                     interp.throwLoxError("TypeError",
@@ -957,9 +943,8 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("indexSet", 2, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 LoxCallable setMethod = instance.getMethod("set", interp);
                 if (setMethod == null) {
                     interp.throwLoxError("TypeError",
@@ -970,9 +955,8 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("shift", 0, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<Array#shift> called on frozen Array object");
@@ -986,10 +970,10 @@ class Runtime {
                     shiftMax = (int)(double)argObj;
                     if (shiftMax > 1) {
                         ret = interp.createInstance("Array", new ArrayList<Object>());
-                        retInternal = (List<Object>)((LoxInstance)ret).getHiddenProp("ary");
+                        retInternal = ((LoxArray)ret).elements;
                     }
                 }
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 int shifted = 0;
                 while (shifted < shiftMax && ary.size() > 0) {
                     if (shiftMax > 1) {
@@ -1004,23 +988,21 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("unshift", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<Array#unshift> called on frozen Array object");
                 }
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 ary.add(0, args.get(0));
                 return instance;
             }
         });
         arrayClass.defineMethod(new LoxNativeCallable("each", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object funcObj = args.get(0);
                 if (!Runtime.isCallable(funcObj)) {
                     interp.throwLoxError("ArgumentError", tok,
@@ -1032,25 +1014,19 @@ class Runtime {
                     interp.throwLoxError("ArgumentError", tok,
                         "function given to Array#each must accept 0 or 1 arguments");
                 }
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 int arity = func.arityMax();
                 for (Object el : ary) {
-                    List<Object> funcArgs = new ArrayList<>();
-                    if (arity == 0) {
-                        // do nothing
-                    } else {
-                        funcArgs.add(el);
-                    }
-                    interp.evaluateCall(func, funcArgs, kwargs, tok);
+                    Object[] funcArgs = arity == 0 ? LoxUtil.NO_ARGS : new Object[] { el };
+                    interp.evaluateCall(func, null, funcArgs, null, tok);
                 }
                 return instance;
             }
         });
         arrayClass.defineMethod(new LoxNativeCallable("map", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 LoxInstance newInstance = Runtime.array(new ArrayList<Object>(), interp);
                 Object funcObj = args.get(0);
                 if (!Runtime.isCallable(funcObj)) {
@@ -1063,17 +1039,12 @@ class Runtime {
                     interp.throwLoxError("ArgumentError", tok,
                         "function given to Array#map must accept 0 or 1 arguments");
                 }
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
-                List<Object> retAry = (List<Object>)newInstance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
+                List<Object> retAry = ((LoxArray)newInstance).elements;
                 int arity = func.arityMax();
                 for (Object el : ary) {
-                    List<Object> funcArgs = new ArrayList<>();
-                    if (arity == 0) {
-                        // do nothing
-                    } else {
-                        funcArgs.add(el);
-                    }
-                    Object ret = interp.evaluateCall(func, funcArgs, kwargs, tok);
+                    Object[] funcArgs = arity == 0 ? LoxUtil.NO_ARGS : new Object[] { el };
+                    Object ret = interp.evaluateCall(func, null, funcArgs, null, tok);
                     retAry.add(ret);
                 }
                 return newInstance;
@@ -1081,10 +1052,9 @@ class Runtime {
         });
         arrayClass.defineMethod(new LoxNativeCallable("toString", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                List<Object> ary = (List<Object>)instance.getHiddenProp("ary");
+                List<Object> ary = ((LoxArray)instance).elements;
                 StringBuffer buf = new StringBuffer("[");
                 int sz = ary.size();
                 int i = 0;
@@ -1112,23 +1082,22 @@ class Runtime {
         // Map([[1,2],[3,4]]) or Map([1,2]), Map(1, 2)
         mapClass.defineMethod(new LoxNativeCallable("init", 0, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Map<Object,Object> internalMap = new HashMap<>();
-                instance.setHiddenProp("map", internalMap);
+                ((LoxMap)instance).map = internalMap;
                 Object aryObj = null;
                 if (args.size() == 1) {
                     aryObj = args.get(0);
                     LoxUtil.checkIsA("Array", aryObj, interp, "ArgumentError", null, 1);
                     LoxInstance aryInstance = Runtime.toInstance(aryObj);
-                    List<Object> internalAry = (List<Object>)aryInstance.getHiddenProp("ary");
+                    List<Object> internalAry = ((LoxArray)aryInstance).elements;
                     // Map([1,2]) same as Map(1,2)
                     if (internalAry.size() == 2 && !(Runtime.isArray(internalAry.get(0)) || Runtime.isArray(internalAry.get(1)))) {
                         args = new ArrayList<Object>();
                         args.add(internalAry.get(0));
                         args.add(internalAry.get(1));
-                        return _call(interp, args, kwargs, tok);
+                        return _call(interp, instance, args, kwargs, tok);
                     }
                     int elNum = 1;
                     for (Object elAry : internalAry) {
@@ -1138,7 +1107,7 @@ class Runtime {
                                 " of given Array object must be an Array.", 1);
                         }
                         LoxInstance elAryInst = Runtime.toInstance(elAry);
-                        List<Object> elAryInternal = (List<Object>)elAryInst.getHiddenProp("ary");
+                        List<Object> elAryInternal = ((LoxArray)elAryInst).elements;
                         if (elAryInternal.size() != 2) {
                             LoxUtil.checkIsA("Array", elAry, interp, "ArgumentError",
                                 "Element " + String.valueOf(elNum) +
@@ -1158,10 +1127,9 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("get", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 Object argObj = args.get(0);
                 if (mapIntern.containsKey(argObj)) {
                     return mapIntern.get(argObj);
@@ -1175,14 +1143,13 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("put", 2, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<Map#put> called on frozen map: " + interp.stringify(instance));
                 }
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 Object keyObj = args.get(0);
                 Object valObj = args.get(1);
                 mapIntern.put(keyObj, valObj);
@@ -1191,9 +1158,8 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("indexGet", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 LoxCallable getMethod = instance.getMethod("get", interp);
                 if (getMethod == null) {
                     interp.throwLoxError("TypeError",
@@ -1204,9 +1170,8 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("indexSet", 2, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 LoxCallable putMethod = instance.getMethod("put", interp);
                 if (putMethod == null) {
                     interp.throwLoxError("TypeError",
@@ -1217,14 +1182,13 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("remove", 1, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<Map#remove> called on frozen map: " + interp.stringify(instance));
                 }
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 List<Object> retList = new ArrayList<>();
                 for (Object key : args) {
                     retList.add(mapIntern.remove(key));
@@ -1238,10 +1202,9 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("keys", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 Set<Object> keys = mapIntern.keySet();
                 List<Object> keysList = new ArrayList<>();
                 for (Object key : keys) {
@@ -1252,9 +1215,8 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("each", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object argObj = args.get(0);
                 if (!Runtime.isCallable(argObj)) {
                     interp.throwLoxError("ArgumentError", tok,
@@ -1263,35 +1225,33 @@ class Runtime {
                 }
                 LoxCallable func = (LoxCallable)argObj;
                 int arity = func.arityMax();
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 Iterator<Map.Entry<Object, Object>> javaMapIter = mapIntern.entrySet().iterator();
                 Map.Entry pair = null;
                 while (javaMapIter.hasNext()) {
-                    List<Object> funcArgs = new ArrayList<>();
+                    Object[] funcArgs = LoxUtil.NO_ARGS;
                     pair = javaMapIter.next();
                     if (arity == 1) { // build up an array of length 2 for the single argument
                         List<Object> aryArgs = new ArrayList<>();
                         aryArgs.add(pair.getKey());
                         aryArgs.add(pair.getValue());
                         LoxInstance ary = interp.createInstance("Array", aryArgs);
-                        funcArgs.add(ary);
+                        funcArgs = new Object[] { ary };
                     } else if (arity != 0) { // pass 2 arguments to the function: the key and the value
-                        funcArgs.add(pair.getKey());
-                        funcArgs.add(pair.getValue());
+                        funcArgs = new Object[] { pair.getKey(), pair.getValue() };
                     } else {
                         // do nothing, function expects no arguments
                     }
-                    interp.evaluateCall(func, funcArgs, kwargs, tok);
+                    interp.evaluateCall(func, null, funcArgs, null, tok);
                 }
                 return instance;
             }
         });
         mapClass.defineMethod(new LoxNativeCallable("values", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 Collection<Object> values = mapIntern.values();
                 List<Object> valuesList = new ArrayList<>();
                 for (Object val : values) {
@@ -1302,23 +1262,21 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("clear", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<Map#clear> called on frozen map: " + interp.stringify(instance));
                 }
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 mapIntern.clear();
                 return instance;
             }
         });
         mapClass.defineMethod(new LoxNativeCallable("iter", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 List<Object> mapIterArgs = new ArrayList<>();
                 mapIterArgs.add(instance);
                 return interp.createInstance("MapIterator", mapIterArgs);
@@ -1326,10 +1284,9 @@ class Runtime {
         });
         mapClass.defineMethod(new LoxNativeCallable("toString", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                Map<Object,Object> mapIntern = (Map<Object,Object>)instance.getHiddenProp("map");
+                Map<Object,Object> mapIntern = ((LoxMap)instance).map;
                 StringBuffer buf = new StringBuffer("{");
                 int sz = mapIntern.size();
                 int i = 0;
@@ -1369,9 +1326,8 @@ class Runtime {
         LoxNativeClass mapIterClass = new LoxNativeClass("MapIterator", objClass);
         mapIterClass.defineMethod(new LoxNativeCallable("init", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance iter, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance iter = interp.environment.getThis();
                 Object mapInstanceObj = args.get(0);
                 LoxUtil.checkIsA("Map", mapInstanceObj, interp, "ArgumentError", null, 1);
                 iter.setNormalProperty("iterable", mapInstanceObj);
@@ -1379,7 +1335,7 @@ class Runtime {
                 Boolean frozenState = mapInstance.isFrozen ? (Boolean)true : (Boolean)false;
                 iter.setHiddenProp("iterableOldFrozenState", frozenState);
                 mapInstance.freeze();
-                Map<Object,Object> javaMap = (Map<Object,Object>)mapInstance.getHiddenProp("map");
+                Map<Object,Object> javaMap = ((LoxMap)mapInstance).map;
                 Iterator<Map.Entry<Object, Object>> javaMapIter = javaMap.entrySet().iterator();
                 iter.setHiddenProp("iterator", javaMapIter);
                 return null;
@@ -1387,9 +1343,8 @@ class Runtime {
         });
         mapIterClass.defineMethod(new LoxNativeCallable("nextIter", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance iter, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance iter = interp.environment.getThis();
                 Object mapInstanceObj = iter.getNormalProperty("iterable");
                 LoxUtil.checkIsA("Map", mapInstanceObj, interp, "TypeError", "MapIterator#.iterable needs to be a map!", 0);
                 LoxInstance mapInstance = Runtime.toInstance(mapInstanceObj);
@@ -1413,9 +1368,8 @@ class Runtime {
         });
         mapIterClass.defineMethod(new LoxNativeCallable("hasNext", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance iter, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance iter = interp.environment.getThis();
                 Object mapInstanceObj = iter.getNormalProperty("iterable");
                 LoxUtil.checkIsA("Map", mapInstanceObj, interp, "TypeError", "MapIterator#.iterable needs to be a map!", 0);
                 LoxInstance mapInstance = Runtime.toInstance(mapInstanceObj);
@@ -1425,14 +1379,13 @@ class Runtime {
         });
         mapIterClass.defineMethod(new LoxNativeCallable("toString", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance iter, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance iter = interp.environment.getThis();
                 Object mapInstanceObj = iter.getNormalProperty("iterable");
                 LoxUtil.checkIsA("Map", mapInstanceObj, interp, "TypeError", "MapIterator#.iterable needs to be a map!", 0);
                 LoxInstance mapInstance = Runtime.toInstance(mapInstanceObj);
                 Iterator<Map.Entry<Object, Object>> javaMapIter = (Iterator<Map.Entry<Object,Object>>)iter.getHiddenProp("iterator");
-                Map<Object,Object> javaMap = (Map<Object,Object>)mapInstance.getHiddenProp("map");
+                Map<Object,Object> javaMap = ((LoxMap)mapInstance).map;
                 boolean isFinished = false;
                 if (javaMapIter != null) { // first time nextIter is called, create the iterator
                     isFinished = !javaMapIter.hasNext();
@@ -1453,9 +1406,8 @@ class Runtime {
         LoxNativeClass stringClass = new LoxNativeClass("String", objClass);
         stringClass.defineMethod(new LoxNativeCallable("init", 0, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 StringBuffer buf = new StringBuffer();
                 for (int i = 0; i < args.size(); i++) {
                     if (i > 0) {
@@ -1463,64 +1415,54 @@ class Runtime {
                     }
                     buf.append(interp.stringify(args.get(i)));
                 }
-                instance.setHiddenProp("buf", buf);
+                ((LoxString)instance).str = Rope.of(buf.toString());
                 return instance;
             }
         });
         stringClass.defineGetter(new LoxNativeCallable("length", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
-                return (double)((StringBuffer)instance.getHiddenProp("buf")).length();
+                return (double)((LoxString)instance).str.length();
             }
         });
         // String#*
         stringClass.defineMethod(new LoxNativeCallable("opMul", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object arg = args.get(0);
                 LoxUtil.checkIsA("number", arg, interp, "ArgumentError", null, 1);
-                StringBuffer newBuf = new StringBuffer(((StringBuffer)instance.getHiddenProp("buf")));
-                String origString = newBuf.toString();
                 int argInt = (int)(double)arg;
-                for (int i = argInt-1; i > 0; i--) {
-                    newBuf.append(origString);
-                }
-                return Runtime.createString(newBuf, interp);
+                Rope str = ((LoxString)instance).str;
+                return Runtime.createString(str.repeat(Math.max(argInt, 1)), interp);
             }
         });
         // String#+
         stringClass.defineMethod(new LoxNativeCallable("opAdd", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object arg = args.get(0);
                 LoxUtil.checkString(arg, interp, "ArgumentError", null, 1);
                 LoxInstance argStr = Runtime.toInstance(arg);
-                StringBuffer newBuf = new StringBuffer(((StringBuffer)instance.getHiddenProp("buf")));
-                newBuf.append(((StringBuffer)argStr.getHiddenProp("buf")).toString());
-                return Runtime.createString(newBuf, interp);
+                Rope str = ((LoxString)instance).str;
+                return Runtime.createString(str.concat(((LoxString)argStr).str), interp);
             }
         });
         stringClass.defineMethod(new LoxNativeCallable("push", 0, -1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 if (instance.isFrozen) {
                     interp.throwLoxError("FrozenObjectError",
                         "<String#push> called on frozen String object");
                 }
-                StringBuffer buf = (StringBuffer)instance.getHiddenProp("buf");
+                LoxString loxStr = (LoxString)instance;
                 int argNum = 1;
                 for (Object arg : args) {
                     LoxUtil.checkString(arg, interp, "ArgumentError", null, argNum);
-                    LoxInstance argStr = Runtime.toString(arg);
-                    buf.append(((StringBuffer)argStr.getHiddenProp("buf")).toString());
+                    loxStr.str = loxStr.str.concat(((LoxString)arg).str);
                     argNum++;
                 }
                 return instance;
@@ -1532,11 +1474,11 @@ class Runtime {
         LoxNativeClass numClass = new LoxNativeClass("Number", objClass);
         numClass.defineSingletonMethod(new LoxNativeCallable("parse", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 LoxUtil.checkString(args.get(0), interp, "ArgumentError", null, 1);
                 LoxInstance loxStr = Runtime.toString(args.get(0));
-                String javaStr = ((StringBuffer)loxStr.getHiddenProp("buf")).toString();
+                String javaStr = Runtime.toJavaString(loxStr);
                 try {
                     return Double.parseDouble(javaStr);
                 } catch (NumberFormatException e) {
@@ -1552,9 +1494,8 @@ class Runtime {
         LoxNativeClass errorClass = new LoxNativeClass("Error", objClass);
         errorClass.defineMethod(new LoxNativeCallable("init", 0, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 Object msg = null;
                 if (args.size() > 0 && args.get(0) != null) {
                     msg = args.get(0);
@@ -1576,15 +1517,14 @@ class Runtime {
         });
         errorClass.defineMethod(new LoxNativeCallable("toString", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
-                LoxInstance instance = interp.environment.getThis();
                 StringBuffer buf = new StringBuffer();
                 buf.append(instance.getKlass().getName());
                 Object msg = instance.getProperty("message", interp);
                 if (msg != null) {
                     LoxInstance loxStr = Runtime.toString(msg);
-                    buf.append(": " + ((StringBuffer)loxStr.getHiddenProp("buf")).toString());
+                    buf.append(": " + Runtime.toJavaString(loxStr));
                 }
                 return Runtime.createString(buf, interp);
             }
@@ -1596,7 +1536,7 @@ class Runtime {
         // System.exit([exitstatus], [runAtExitHooks])
         systemMod.defineSingletonMethod(new LoxNativeCallable("exit", 0, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 if (args.size() < 2 || interp.isTruthy(args.get(1))) {
                     interp.runAtExitHooks();
@@ -1610,7 +1550,7 @@ class Runtime {
         });
         systemMod.defineSingletonMethod(new LoxNativeCallable("atExit", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 Object funcObj = args.get(0);
                 LoxUtil.checkIsA("function", funcObj, interp, "ArgumentError", null, 1);
@@ -1621,7 +1561,7 @@ class Runtime {
         });
         systemMod.defineSingletonMethod(new LoxNativeCallable("sleep", 1, 1, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 Object numObj = args.get(0);
                 LoxUtil.checkIsA("number", numObj, interp, "ArgumentError", null, 1);
@@ -1636,10 +1576,11 @@ class Runtime {
         });
         systemMod.defineSingletonMethod(new LoxNativeCallable("debugger", 0, 0, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 Debugger d = new Debugger(interp);
                 interp.debugger = d;
+                interp.tracing = true;
                 d.awaitingPause = true;
                 return null;
             }
@@ -1660,7 +1601,7 @@ class Runtime {
         // Signal.handle(signame, fun() { });
         sigMod.defineSingletonMethod(new LoxNativeCallable("handle", 2, 2, null, null) {
             @Override
-            protected Object _call(Interpreter interp, List<Object> args,
+            protected Object _call(Interpreter interp, LoxInstance instance, List<Object> args,
                     Map<String,Object> kwargs, Token tok) {
                 Object strObj = args.get(0);
                 Object funcObj = args.get(1);
@@ -1670,7 +1611,7 @@ class Runtime {
                     "Expected argument 2 to be a function, the signal handler", 2);
                 LoxInstance sigName = Runtime.toString(strObj);
                 LoxCallable func = (LoxCallable)funcObj;
-                SigHandler.register(sigName.getHiddenProp("buf").toString(), func, interp);
+                SigHandler.register(Runtime.toJavaString(sigName), func, interp);
                 return null;
             }
         });
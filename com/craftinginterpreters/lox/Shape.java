@@ -0,0 +1,76 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class for instance properties: the property names an instance has
+// and the index of each one's value in the instance's value array. Shapes
+// form a tree rooted at ROOT, with one transition per added property, so
+// instances that get the same properties in the same order share a shape.
+class Shape {
+    static final Shape ROOT = new Shape(new String[0]);
+    // instances with more properties than this keep them in a HashMap
+    static final int MAX_PROPERTIES = 32;
+    // shapes with more properties than this index their names
+    private static final int MAX_LINEAR_SEARCH = 8;
+
+    final String[] names; // index is the property's slot
+    private Map<String, Integer> offsets = null;
+    private Map<String, Shape> transitions = null;
+
+    private Shape(String[] names) {
+        this.names = names;
+        if (names.length > MAX_LINEAR_SEARCH) {
+            this.offsets = new HashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                offsets.put(names[i], i);
+            }
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    // returns the slot of the given property, or -1
+    int offsetOf(String name) {
+        if (offsets != null) {
+            Integer offset = offsets.get(name);
+            return offset == null ? -1 : offset;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // the shape with `name` added as the last slot
+    Shape withProperty(String name) {
+        if (transitions == null) {
+            transitions = new HashMap<>();
+        }
+        Shape next = transitions.get(name);
+        if (next == null) {
+            String[] newNames = new String[names.length + 1];
+            System.arraycopy(names, 0, newNames, 0, names.length);
+            newNames[names.length] = name;
+            next = new Shape(newNames);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+
+    // the shape with the property at `offset` removed, and the ones after it
+    // moved down by one slot
+    Shape withoutProperty(int offset) {
+        Shape shape = ROOT;
+        for (int i = 0; i < names.length; i++) {
+            if (i != offset) {
+                shape = shape.withProperty(names[i]);
+            }
+        }
+        return shape;
+    }
+}
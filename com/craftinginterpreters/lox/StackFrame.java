@@ -3,10 +3,18 @@ package com.craftinginterpreters.lox;
 class StackFrame {
     final Object stmtOrCallable;
     final Token token;
+    // frames of the tail calls that led to this one, which were replaced
+    // by it (see LoxFunction#invoke)
+    final int tailCalls;
 
     StackFrame(Object stmtOrCallable, Token tok) {
+        this(stmtOrCallable, tok, 0);
+    }
+
+    StackFrame(Object stmtOrCallable, Token tok, int tailCalls) {
         this.stmtOrCallable = stmtOrCallable;
         this.token = tok;
+        this.tailCalls = tailCalls;
     }
 
     @Override
@@ -35,6 +43,9 @@ class StackFrame {
         if (token != null) {
             builder.append(" at line " + token.line + ".");
         }
+        if (tailCalls > 0) {
+            builder.append(" (after " + tailCalls + " tail calls)");
+        }
         return builder.toString();
     }
 }
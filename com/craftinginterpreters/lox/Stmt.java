@@ -0,0 +1,668 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+
+abstract class Stmt {
+  interface Visitor<R> {
+    R visitExpressionStmt(Expression stmt);
+    R visitPrintStmt(Print stmt);
+    R visitVarStmt(Var stmt);
+    R visitBlockStmt(Block stmt);
+    R visitIfStmt(If stmt);
+    R visitWhileStmt(While stmt);
+    R visitForStmt(For stmt);
+    R visitForeachStmt(Foreach stmt);
+    R visitContinueStmt(Continue stmt);
+    R visitBreakStmt(Break stmt);
+    R visitFunctionStmt(Function stmt);
+    R visitReturnStmt(Return stmt);
+    R visitClassStmt(Class stmt);
+    R visitModuleStmt(Module stmt);
+    R visitTryStmt(Try stmt);
+    R visitCatchStmt(Catch stmt);
+    R visitThrowStmt(Throw stmt);
+    R visitInStmt(In stmt);
+  }
+
+  static final int FIRST_TAG = 64;
+
+  static Stmt read(AstFile.Reader in, int tag) throws IOException {
+    switch (tag) {
+      case 64: return Expression.read(in);
+      case 65: return Print.read(in);
+      case 66: return Var.read(in);
+      case 67: return Block.read(in);
+      case 68: return If.read(in);
+      case 69: return While.read(in);
+      case 70: return For.read(in);
+      case 71: return Foreach.read(in);
+      case 72: return Continue.read(in);
+      case 73: return Break.read(in);
+      case 74: return Function.read(in);
+      case 75: return Return.read(in);
+      case 76: return Class.read(in);
+      case 77: return Module.read(in);
+      case 78: return Try.read(in);
+      case 79: return Catch.read(in);
+      case 80: return Throw.read(in);
+      case 81: return In.read(in);
+      default: throw new IOException("bad Stmt tag: " + tag);
+    }
+  }
+  static class Expression extends Stmt {
+    Expression(Expr expression) {
+      this.expression = expression;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitExpressionStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 64);
+      out.writeNode(expression);
+    }
+
+    static Expression read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Expr expression = (Expr)in.readNode();
+      Expression node = new Expression(expression);
+      in.define(id, node);
+      return node;
+    }
+
+    public Expr expression;
+  }
+  static class Print extends Stmt {
+    Print(Token keyword, Expr expression) {
+      this.keyword = keyword;
+      this.expression = expression;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitPrintStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 65);
+      out.writeToken(keyword);
+      out.writeNode(expression);
+    }
+
+    static Print read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Expr expression = (Expr)in.readNode();
+      Print node = new Print(keyword, expression);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Expr expression;
+  }
+  static class Var extends Stmt {
+    Var(Token keyword, List<Token> names, List<Expr> initializers) {
+      this.keyword = keyword;
+      this.names = names;
+      this.initializers = initializers;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitVarStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 66);
+      out.writeToken(keyword);
+      out.writeTokens(names);
+      out.writeNodes(initializers);
+      out.writeInts(slots);
+    }
+
+    static Var read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      List<Token> names = in.readTokens();
+      List<Expr> initializers = in.readNodes();
+      Var node = new Var(keyword, names, initializers);
+      node.slots = in.readInts();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public List<Token> names;
+    public List<Expr> initializers;
+    public int[] slots = null;
+  }
+  static class Block extends Stmt {
+    Block(Token token, List<Stmt> statements) {
+      this.token = token;
+      this.statements = statements;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitBlockStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 67);
+      out.writeToken(token);
+      out.writeNodes(statements);
+      out.writeStrings(slotNames);
+      out.writeBoolean(hasClosures);
+    }
+
+    static Block read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token token = in.readToken();
+      List<Stmt> statements = in.readNodes();
+      Block node = new Block(token, statements);
+      node.slotNames = in.readStrings();
+      node.hasClosures = in.readBoolean();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token token;
+    public List<Stmt> statements;
+    public String[] slotNames = null;
+    public boolean hasClosures = false;
+  }
+  static class If extends Stmt {
+    If(Token keyword, Expr condition, Stmt ifBranch, Stmt elseBranch) {
+      this.keyword = keyword;
+      this.condition = condition;
+      this.ifBranch = ifBranch;
+      this.elseBranch = elseBranch;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIfStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 68);
+      out.writeToken(keyword);
+      out.writeNode(condition);
+      out.writeNode(ifBranch);
+      out.writeNode(elseBranch);
+    }
+
+    static If read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Expr condition = (Expr)in.readNode();
+      Stmt ifBranch = (Stmt)in.readNode();
+      Stmt elseBranch = (Stmt)in.readNode();
+      If node = new If(keyword, condition, ifBranch, elseBranch);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Expr condition;
+    public Stmt ifBranch;
+    public Stmt elseBranch;
+  }
+  static class While extends Stmt {
+    While(Token keyword, Expr condition, Stmt body) {
+      this.keyword = keyword;
+      this.condition = condition;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitWhileStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 69);
+      out.writeToken(keyword);
+      out.writeNode(condition);
+      out.writeNode(body);
+    }
+
+    static While read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Expr condition = (Expr)in.readNode();
+      Stmt body = (Stmt)in.readNode();
+      While node = new While(keyword, condition, body);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Expr condition;
+    public Stmt body;
+    public Jit.Profile profile = null;
+  }
+  static class For extends Stmt {
+    For(Token keyword, Stmt initializer, Expr test, Expr increment, Stmt body) {
+      this.keyword = keyword;
+      this.initializer = initializer;
+      this.test = test;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 70);
+      out.writeToken(keyword);
+      out.writeNode(initializer);
+      out.writeNode(test);
+      out.writeNode(increment);
+      out.writeNode(body);
+      out.writeStrings(slotNames);
+    }
+
+    static For read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Stmt initializer = (Stmt)in.readNode();
+      Expr test = (Expr)in.readNode();
+      Expr increment = (Expr)in.readNode();
+      Stmt body = (Stmt)in.readNode();
+      For node = new For(keyword, initializer, test, increment, body);
+      node.slotNames = in.readStrings();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Stmt initializer;
+    public Expr test;
+    public Expr increment;
+    public Stmt body;
+    public String[] slotNames = null;
+    public Jit.Profile profile = null;
+  }
+  static class Foreach extends Stmt {
+    Foreach(Token keyword, List<Token> variables, Expr obj, Block body) {
+      this.keyword = keyword;
+      this.variables = variables;
+      this.obj = obj;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForeachStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 71);
+      out.writeToken(keyword);
+      out.writeTokens(variables);
+      out.writeNode(obj);
+      out.writeNode(body);
+      out.writeStrings(slotNames);
+    }
+
+    static Foreach read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      List<Token> variables = in.readTokens();
+      Expr obj = (Expr)in.readNode();
+      Block body = (Block)in.readNode();
+      Foreach node = new Foreach(keyword, variables, obj, body);
+      node.slotNames = in.readStrings();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public List<Token> variables;
+    public Expr obj;
+    public Block body;
+    public String[] slotNames = null;
+  }
+  static class Continue extends Stmt {
+    Continue(Token keyword, Stmt loopStmt) {
+      this.keyword = keyword;
+      this.loopStmt = loopStmt;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitContinueStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 72);
+      out.writeToken(keyword);
+      out.writeRef(loopStmt);
+    }
+
+    static Continue read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      int loopStmt = in.readRef();
+      Continue node = new Continue(keyword, null);
+      in.resolveRef(loopStmt, target -> node.loopStmt = (Stmt)target);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Stmt loopStmt;
+  }
+  static class Break extends Stmt {
+    Break(Token keyword, Stmt loopStmt) {
+      this.keyword = keyword;
+      this.loopStmt = loopStmt;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitBreakStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 73);
+      out.writeToken(keyword);
+      out.writeRef(loopStmt);
+    }
+
+    static Break read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      int loopStmt = in.readRef();
+      Break node = new Break(keyword, null);
+      in.resolveRef(loopStmt, target -> node.loopStmt = (Stmt)target);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Stmt loopStmt;
+  }
+  static class Function extends Stmt {
+    Function(Token name, List<Param> formals, Stmt body, Parser.FunctionType type, Class klass) {
+      this.name = name;
+      this.formals = formals;
+      this.body = body;
+      this.type = type;
+      this.klass = klass;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitFunctionStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 74);
+      out.writeToken(name);
+      out.writeParams(formals);
+      out.writeNode(body);
+      out.writeEnum(type);
+      out.writeRef(klass);
+      out.writeInt(slot);
+      out.writeStrings(paramSlotNames);
+    }
+
+    static Function read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token name = in.readToken();
+      List<Param> formals = in.readParams();
+      Stmt body = (Stmt)in.readNode();
+      Parser.FunctionType type = in.readEnum(Parser.FunctionType.values());
+      int klass = in.readRef();
+      Function node = new Function(name, formals, body, type, null);
+      in.resolveRef(klass, target -> node.klass = (Class)target);
+      node.slot = in.readInt();
+      node.paramSlotNames = in.readStrings();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token name;
+    public List<Param> formals;
+    public Stmt body;
+    public Parser.FunctionType type;
+    public Class klass;
+    public int slot = -1;
+    public String[] paramSlotNames = null;
+    public BindingPlan plan = null;
+    public Jit.Profile profile = null;
+  }
+  static class Return extends Stmt {
+    Return(Token keyword, Expr expression) {
+      this.keyword = keyword;
+      this.expression = expression;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitReturnStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 75);
+      out.writeToken(keyword);
+      out.writeNode(expression);
+    }
+
+    static Return read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Expr expression = (Expr)in.readNode();
+      Return node = new Return(keyword, expression);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Expr expression;
+  }
+  static class Class extends Stmt {
+    Class(Token name, Expr.Variable superClassVar, Object superClass, List<Stmt> body) {
+      this.name = name;
+      this.superClassVar = superClassVar;
+      this.superClass = superClass;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitClassStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 76);
+      out.writeToken(name);
+      out.writeNode(superClassVar);
+      out.writeValue(superClass);
+      out.writeNodes(body);
+      out.writeStrings(slotNames);
+    }
+
+    static Class read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token name = in.readToken();
+      Expr.Variable superClassVar = (Expr.Variable)in.readNode();
+      Object superClass = in.readValue();
+      List<Stmt> body = in.readNodes();
+      Class node = new Class(name, superClassVar, superClass, body);
+      node.slotNames = in.readStrings();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token name;
+    public Expr.Variable superClassVar;
+    public Object superClass;
+    public List<Stmt> body;
+    public String[] slotNames = null;
+  }
+  static class Module extends Stmt {
+    Module(Token name, List<Stmt> body) {
+      this.name = name;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitModuleStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 77);
+      out.writeToken(name);
+      out.writeNodes(body);
+      out.writeStrings(slotNames);
+    }
+
+    static Module read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token name = in.readToken();
+      List<Stmt> body = in.readNodes();
+      Module node = new Module(name, body);
+      node.slotNames = in.readStrings();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token name;
+    public List<Stmt> body;
+    public String[] slotNames = null;
+  }
+  static class Try extends Stmt {
+    Try(Token keyword, Block tryBlock, List<Catch> catchStmts) {
+      this.keyword = keyword;
+      this.tryBlock = tryBlock;
+      this.catchStmts = catchStmts;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitTryStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 78);
+      out.writeToken(keyword);
+      out.writeNode(tryBlock);
+      out.writeNodes(catchStmts);
+    }
+
+    static Try read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Block tryBlock = (Block)in.readNode();
+      List<Catch> catchStmts = in.readNodes();
+      Try node = new Try(keyword, tryBlock, catchStmts);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Block tryBlock;
+    public List<Catch> catchStmts;
+  }
+  static class Catch extends Stmt {
+    Catch(Token keyword, Expr catchExpr, Expr.Variable catchVar, Block block) {
+      this.keyword = keyword;
+      this.catchExpr = catchExpr;
+      this.catchVar = catchVar;
+      this.block = block;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitCatchStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 79);
+      out.writeToken(keyword);
+      out.writeNode(catchExpr);
+      out.writeNode(catchVar);
+      out.writeNode(block);
+      out.writeStrings(slotNames);
+    }
+
+    static Catch read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Expr catchExpr = (Expr)in.readNode();
+      Expr.Variable catchVar = (Expr.Variable)in.readNode();
+      Block block = (Block)in.readNode();
+      Catch node = new Catch(keyword, catchExpr, catchVar, block);
+      node.slotNames = in.readStrings();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Expr catchExpr;
+    public Expr.Variable catchVar;
+    public Block block;
+    public String[] slotNames = null;
+  }
+  static class Throw extends Stmt {
+    Throw(Token keyword, Expr throwExpr) {
+      this.keyword = keyword;
+      this.throwExpr = throwExpr;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitThrowStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 80);
+      out.writeToken(keyword);
+      out.writeNode(throwExpr);
+    }
+
+    static Throw read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Expr throwExpr = (Expr)in.readNode();
+      Throw node = new Throw(keyword, throwExpr);
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Expr throwExpr;
+  }
+  static class In extends Stmt {
+    In(Token keyword, Expr object, List<Stmt> body) {
+      this.keyword = keyword;
+      this.object = object;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInStmt(this);
+    }
+
+    void write(AstFile.Writer out) throws IOException {
+      out.startNode(this, 81);
+      out.writeToken(keyword);
+      out.writeNode(object);
+      out.writeNodes(body);
+      out.writeStrings(slotNames);
+    }
+
+    static In read(AstFile.Reader in) throws IOException {
+      int id = in.nextId();
+      Token keyword = in.readToken();
+      Expr object = (Expr)in.readNode();
+      List<Stmt> body = in.readNodes();
+      In node = new In(keyword, object, body);
+      node.slotNames = in.readStrings();
+      in.define(id, node);
+      return node;
+    }
+
+    public Token keyword;
+    public Expr object;
+    public List<Stmt> body;
+    public String[] slotNames = null;
+  }
+
+  abstract <R> R accept(Visitor<R> visitor);
+  abstract void write(AstFile.Writer out) throws IOException;
+}
@@ -0,0 +1,369 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+
+// Stack-based VM that runs the bytecode produced by the Compiler. It shares
+// its state (environments, call stack, classes) with the Interpreter, so
+// compiled and tree-walked code can call into each other freely. Enabled
+// with the `-b` flag. It hasn't kept up with the tree-walker's later
+// optimizations, so it's slower than the default engine, even with
+// --no-jit.
+class VM {
+    private final Interpreter interp;
+    // compiled function bodies, keyed by the body's Block node
+    private final Map<Stmt, Chunk> functionChunks = new HashMap<>();
+
+    VM(Interpreter interp) {
+        this.interp = interp;
+    }
+
+    void interpret(List<Stmt> statements) {
+        Chunk chunk = new Compiler(interp).compileScript(statements);
+        run(chunk);
+    }
+
+    // Runs the function body in the given environment, returning the
+    // function's return value.
+    Object executeFunctionBody(Stmt.Function decl, Environment env) {
+        Stmt.Block body = (Stmt.Block)decl.body;
+        Chunk chunk = functionChunks.get(body);
+        if (chunk == null) {
+            chunk = new Compiler(interp).compileFunction(body.statements);
+            functionChunks.put(body, chunk);
+        }
+        Environment oldEnv = interp.environment;
+        try {
+            interp.environment = env;
+            return run(chunk);
+        } finally {
+            interp.environment = oldEnv;
+        }
+    }
+
+    private Object run(Chunk chunk) {
+        final int[] code = chunk.code;
+        final Object[] constants = chunk.constants;
+        final Object[] stack = new Object[chunk.maxStack];
+        final Environment entryEnv = interp.environment;
+        int sp = 0;
+        int ip = 0;
+        try {
+            while (ip < code.length) {
+                switch (code[ip++]) {
+                    case Chunk.OP_CONST:
+                        stack[sp++] = constants[code[ip++]];
+                        break;
+                    case Chunk.OP_NIL:
+                        stack[sp++] = null;
+                        break;
+                    case Chunk.OP_TRUE:
+                        stack[sp++] = true;
+                        break;
+                    case Chunk.OP_FALSE:
+                        stack[sp++] = false;
+                        break;
+                    case Chunk.OP_LITERAL:
+                        stack[sp++] = interp.visitLiteralExpr((Expr.Literal)constants[code[ip++]]);
+                        break;
+                    case Chunk.OP_POP:
+                        interp.lastValue = stack[--sp];
+                        break;
+                    case Chunk.OP_GET_LOCAL: {
+                        int distance = code[ip++];
+                        stack[sp++] = interp.environment.getAt(distance, code[ip++]);
+                        break;
+                    }
+                    case Chunk.OP_SET_LOCAL: {
+                        int distance = code[ip++];
+                        interp.environment.assignAt(distance, code[ip++], stack[sp-1]);
+                        break;
+                    }
+                    case Chunk.OP_GET_GLOBAL:
+                        stack[sp++] = interp.readGlobal((Expr.Variable)constants[code[ip++]]);
+                        break;
+                    case Chunk.OP_SET_GLOBAL:
+                        interp.writeGlobal((Expr.Assign)constants[code[ip++]], stack[sp-1]);
+                        break;
+                    case Chunk.OP_DEFINE: {
+                        int slot = code[ip++];
+                        Token name = (Token)constants[code[ip++]];
+                        if (slot >= 0) {
+                            interp.environment.defineAt(slot, stack[--sp]);
+                        } else {
+                            interp.environment.define(name.lexeme, stack[--sp]);
+                        }
+                        break;
+                    }
+                    case Chunk.OP_ADD: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp-1] = (double)left + (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_SUBTRACT: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp-1] = (double)left - (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_MULTIPLY: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp-1] = (double)left * (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_DIVIDE: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        // division by 0 is an error, let binaryOp report it
+                        if (left instanceof Double && right instanceof Double && (double)right != 0.0) {
+                            stack[sp-1] = (double)left / (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_GREATER: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp-1] = (double)left > (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_GREATER_EQUAL: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp-1] = (double)left >= (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_LESS: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp-1] = (double)left < (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_LESS_EQUAL: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp-1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp-1] = (double)left <= (double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedBinaryOp((Expr.Binary)constants[code[ip]], left, right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_EQUAL: {
+                        Object right = stack[--sp];
+                        stack[sp-1] = interp.isEqual(stack[sp-1], right);
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_NOT_EQUAL: {
+                        Object right = stack[--sp];
+                        stack[sp-1] = !interp.isEqual(stack[sp-1], right);
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_NOT:
+                        stack[sp-1] = !interp.isTruthy(stack[sp-1]);
+                        break;
+                    case Chunk.OP_NEGATE: {
+                        Object right = stack[sp-1];
+                        if (right instanceof Double) {
+                            stack[sp-1] = -(double)right;
+                        } else {
+                            stack[sp-1] = interp.specializedUnaryOp((Expr.Unary)constants[code[ip]], right);
+                        }
+                        ip++;
+                        break;
+                    }
+                    case Chunk.OP_JUMP:
+                        if (code[ip] < ip) { // a loop
+                            interp.countBackEdge();
+                        }
+                        ip = code[ip];
+                        break;
+                    case Chunk.OP_JUMP_IF_FALSE:
+                        if (interp.isTruthy(stack[--sp])) {
+                            ip++;
+                        } else {
+                            ip = code[ip];
+                        }
+                        break;
+                    case Chunk.OP_JUMP_IF_FALSE_KEEP:
+                        if (interp.isTruthy(stack[sp-1])) {
+                            ip++;
+                        } else {
+                            ip = code[ip];
+                        }
+                        break;
+                    case Chunk.OP_JUMP_IF_TRUE_KEEP:
+                        if (interp.isTruthy(stack[sp-1])) {
+                            ip = code[ip];
+                        } else {
+                            ip++;
+                        }
+                        break;
+                    case Chunk.OP_RETURN:
+                        return stack[--sp];
+                    case Chunk.OP_CALL: {
+                        int argc = code[ip++];
+                        Expr.Call expr = (Expr.Call)constants[code[ip++]];
+                        Object[] args = LoxUtil.NO_ARGS;
+                        if (argc > 0) {
+                            args = new Object[argc];
+                            System.arraycopy(stack, sp - argc, args, 0, argc);
+                            sp -= argc;
+                        }
+                        stack[sp-1] = interp.callValue(expr, stack[sp-1], null, args);
+                        break;
+                    }
+                    case Chunk.OP_GET_METHOD: {
+                        Expr.PropAccess prop = (Expr.PropAccess)constants[code[ip++]];
+                        Object target = stack[sp-1];
+                        LoxCallable method = interp.findMethod(prop, target);
+                        if (method != null) {
+                            stack[sp-1] = method;
+                            stack[sp++] = target;
+                        } else {
+                            stack[sp-1] = interp.getProperty(prop, target);
+                            stack[sp++] = null;
+                        }
+                        break;
+                    }
+                    case Chunk.OP_INVOKE: {
+                        int argc = code[ip++];
+                        Expr.Call expr = (Expr.Call)constants[code[ip++]];
+                        Object[] args = LoxUtil.NO_ARGS;
+                        if (argc > 0) {
+                            args = new Object[argc];
+                            System.arraycopy(stack, sp - argc, args, 0, argc);
+                            sp -= argc;
+                        }
+                        LoxInstance receiver = (LoxInstance)stack[--sp];
+                        stack[sp-1] = interp.callValue(expr, stack[sp-1], receiver, args);
+                        break;
+                    }
+                    case Chunk.OP_GET_PROP:
+                        stack[sp-1] = interp.getProperty((Expr.PropAccess)constants[code[ip++]], stack[sp-1]);
+                        break;
+                    case Chunk.OP_CHECK_PROP_TARGET:
+                        interp.checkPropSetTarget((Expr.PropSet)constants[code[ip++]], stack[sp-1]);
+                        break;
+                    case Chunk.OP_SET_PROP: {
+                        Object value = stack[--sp];
+                        stack[sp-1] = interp.setProperty((Expr.PropSet)constants[code[ip++]], stack[sp-1], value);
+                        break;
+                    }
+                    case Chunk.OP_CHECK_INDEX_TARGET:
+                        interp.checkIndexTarget((Expr)constants[code[ip++]], stack[sp-1]);
+                        break;
+                    case Chunk.OP_INDEX_GET: {
+                        Object index = stack[--sp];
+                        stack[sp-1] = interp.indexGet((Expr.IndexedGet)constants[code[ip++]], stack[sp-1], index);
+                        break;
+                    }
+                    case Chunk.OP_INDEX_SET: {
+                        Object value = stack[--sp];
+                        Object index = stack[--sp];
+                        stack[sp-1] = interp.indexSet((Expr.IndexedSet)constants[code[ip++]], stack[sp-1], index, value);
+                        break;
+                    }
+                    case Chunk.OP_ARRAY: {
+                        int n = code[ip++];
+                        Expr.Array expr = (Expr.Array)constants[code[ip++]];
+                        List<Object> elements = new ArrayList<>(n);
+                        for (int i = sp - n; i < sp; i++) {
+                            elements.add(stack[i]);
+                        }
+                        sp -= n;
+                        stack[sp++] = interp.newArray(expr, elements);
+                        break;
+                    }
+                    case Chunk.OP_PRINT: {
+                        Object value = stack[--sp];
+                        interp.lastValue = value;
+                        interp.println(interp.stringify(value));
+                        break;
+                    }
+                    case Chunk.OP_PUSH_ENV:
+                        interp.environment = new Environment(interp.environment, (String[])constants[code[ip++]]);
+                        break;
+                    case Chunk.OP_POP_ENV:
+                        interp.environment = interp.environment.enclosing;
+                        break;
+                    case Chunk.OP_EVAL:
+                        stack[sp++] = interp.evaluate((Expr)constants[code[ip++]]);
+                        break;
+                    case Chunk.OP_EXEC: {
+                        Stmt stmt = (Stmt)constants[code[ip]];
+                        int breakTarget = code[ip+1];
+                        int continueTarget = code[ip+2];
+                        int popEnvs = code[ip+3];
+                        ip += 4;
+                        Interpreter.Completion completion = interp.execute(stmt);
+                        if (completion == Interpreter.Completion.RETURN) {
+                            return interp.takeReturnValue();
+                        }
+                        if (breakTarget < 0) { // not in a compiled loop
+                            break;
+                        }
+                        if (completion == Interpreter.Completion.BREAK) {
+                            popEnvs(popEnvs);
+                            ip = breakTarget;
+                        } else if (completion == Interpreter.Completion.CONTINUE) {
+                            popEnvs(popEnvs);
+                            ip = continueTarget;
+                        }
+                        break;
+                    }
+                    default:
+                        throw new RuntimeException("VM: unknown opcode " + code[ip-1] + " (BUG)");
+                }
+            }
+            return null;
+        } finally {
+            interp.environment = entryEnv;
+        }
+    }
+
+    private void popEnvs(int n) {
+        for (int i = 0; i < n; i++) {
+            interp.environment = interp.environment.enclosing;
+        }
+    }
+}
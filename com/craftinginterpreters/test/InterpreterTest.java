@@ -8,6 +8,8 @@ import java.io.File;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -196,6 +198,86 @@ public class InterpreterTest {
 
     @Test
     public void testExampleFiles() throws IOException {
+        runExampleFiles(false);
+    }
+
+    @Test
+    public void testExampleFilesBytecode() throws IOException {
+        runExampleFiles(true);
+    }
+
+    // Compiles each example to a jar (lox -f FILE -c OUT.jar) and runs it with
+    // `java -jar`, in separate JVMs so the jar's manifest Class-Path is used.
+    @Test
+    public void testExampleFilesCompiled() throws IOException, InterruptedException {
+        File folder = new File("../../../examples");
+        File[] listOfFiles = folder.listFiles();
+        Path tmpDir = Files.createTempDirectory("lox-aot");
+        String java = System.getProperty("java.home") + "/bin/java";
+        try {
+            for (File file : listOfFiles) {
+                if (!file.isFile()) {
+                    continue;
+                }
+                String section = null;
+                StringBuilder sbExpected = new StringBuilder();
+                BufferedReader br = new BufferedReader(new FileReader(file));
+                try {
+                    boolean inEnd = false;
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        if (line.matches("__END__")) {
+                            inEnd = true;
+                        } else if (inEnd && line.matches("-- (no)?expect.*: --")) {
+                            section = line;
+                        } else if (section != null) {
+                            sbExpected.append(line);
+                            sbExpected.append(System.lineSeparator());
+                        }
+                    }
+                } finally {
+                    br.close();
+                }
+                if (section == null || section.equals("-- noexpect: --")) {
+                    continue;
+                }
+                System.err.println("Compiling example file " + file.getPath());
+                File jar = tmpDir.resolve(file.getName() + ".jar").toFile();
+                File out = tmpDir.resolve(file.getName() + ".out").toFile();
+                int compileStatus = new ProcessBuilder(java,
+                        "-cp", System.getProperty("java.class.path"),
+                        "com.craftinginterpreters.lox.Lox",
+                        "-f", file.getCanonicalPath(), "-c", jar.getPath())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start().waitFor();
+                if (section.equals("-- expect ParseError: --")) {
+                    assertEquals(file.getPath(), 65, compileStatus);
+                    continue;
+                }
+                assertEquals(file.getPath(), 0, compileStatus);
+                int runStatus = new ProcessBuilder(java, "-jar", jar.getPath())
+                    .directory(tmpDir.toFile())
+                    .redirectOutput(out)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start().waitFor();
+                String output = new String(Files.readAllBytes(out.toPath()));
+                assertEquals(file.getPath(), sbExpected.toString(), output);
+                if (section.equals("-- expect: --")) {
+                    assertEquals(file.getPath(), 0, runStatus);
+                } else {
+                    assertTrue(file.getPath(), runStatus != 0);
+                }
+            }
+        } finally {
+            for (File f : tmpDir.toFile().listFiles()) {
+                f.delete();
+            }
+            Files.delete(tmpDir);
+        }
+    }
+
+    private void runExampleFiles(boolean useBytecode) throws IOException {
         File folder = new File("../../../examples");
         File[] listOfFiles = folder.listFiles();
         System.err.println("Example files: " + String.valueOf(listOfFiles.length));
@@ -209,6 +291,9 @@ public class InterpreterTest {
                 BufferedReader br = new BufferedReader(new FileReader(fname));
                 System.err.println("Running example file " + fname);
                 Lox.registerInitialScript(fnameAbs);
+                // every example gets a fresh interpreter, so forget about
+                // scripts loaded by previous ones
+                Lox.scriptsLoadedOnce.clear();
                 try {
                     StringBuilder sbSrc = new StringBuilder();
                     StringBuilder sbExpected = new StringBuilder();
@@ -263,7 +348,7 @@ public class InterpreterTest {
                     assertTrue(inEnd);
                     String src = sbSrc.toString();
                     String expected = sbExpected.toString();
-                    String output = runCode(src);
+                    String output = runCode(src, useBytecode);
                     if (expectRuntimeError) {
                         boolean gotErr = assertRuntimeError();
                         if (!gotErr) {
@@ -318,10 +403,15 @@ public class InterpreterTest {
     }
 
     private String runCode(String src) {
+        return runCode(src, false);
+    }
+
+    private String runCode(String src, boolean useBytecode) {
         HashMap<String, Object> opts = new HashMap<>();
         opts.put("usePrintBuf", (Boolean)true);
         opts.put("useErrorBuf", (Boolean)true);
         opts.put("simulateExit", (Boolean)true);
+        opts.put("useBytecode", (Boolean)useBytecode);
         opts.put("filename", null);
         this.interp = new Interpreter(opts);
         boolean hasErr = !this.interp.interpret(src);
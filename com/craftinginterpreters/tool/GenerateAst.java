@@ -3,83 +3,105 @@ package com.craftinginterpreters.tool;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class GenerateAst {
+  // Node fields that point back up the tree (at the enclosing loop, class or
+  // module) instead of at a child. They're written as references by
+  // AstFile.Writer.
+  private static final Set<String> BACK_REFS = new HashSet<>(Arrays.asList(
+      "loopStmt", "klass", "classOrModStmt"));
+  // Tags of Stmt nodes in AstFile start after the Expr tags
+  private static final int STMT_TAG_START = 64;
+
   public static void main(String[] args) throws IOException {
     if (args.length != 1) {
       System.err.println("Usage: generate_ast <output directory>");
       System.exit(1);
     }
     String outputDir = args[0];
+    // Fields after a '|' aren't constructor arguments, they're filled in
+    // later by the Resolver (scope depths, variable slots) or the Interpreter
+    // (operator specialization, bound global cells).
     // NOTE: when add new expr class here, make sure to change
     // Interpreter#tokenFromExpr as well as the various visitor methods
     // (compiler will catch visitor methods, though).
-    defineAst(outputDir, "Expr", Arrays.asList(
-        "Binary     : Expr left, Token operator, Expr right",
+    defineAst(outputDir, "Expr", 1, Arrays.asList(
+        "Binary     : Expr left, Token operator, Expr right | int spec = 0, LoxCallable cachedOp = null, LoxClass cachedOpClass = null, int cachedOpEpoch = -1",
         "Logical    : Expr left, Token operator, Expr right",
         "Grouping   : Token lparen, Expr expression",
         "Literal    : Token token, Object value",
         "Array      : Token lbracket, List<Expr> expressions",
         "IndexedGet : Token lbracket, Expr left, Expr indexExpr",
         "IndexedSet : Token lbracket, Expr left, Expr indexExpr, Expr value",
-        "Unary      : Token operator, Expr right",
-        "Variable   : Token name",
-        "Assign     : Token name, Expr value", // TODO: allow multiple assignment
-        "Call       : Token lparen, Expr left, List<Expr> args",
-        "AnonFn     : Token fun, List<Param> formals, Stmt body",
-        "PropAccess : Expr left, Token property",
+        "Unary      : Token operator, Expr right | int spec = 0",
+        "Variable   : Token name | int depth = -1, int slot = -1, Environment.Cell global = null",
+        "Assign     : Token name, Expr value | int depth = -1, int slot = -1, Environment.Cell global = null", // TODO: allow multiple assignment
+        "Call       : Token lparen, Expr left, List<Expr> args | Object cachedCallee = null, int cachedCalleeEpoch = -1, String[] kwargNames = null, boolean isTailCall = false",
+        "AnonFn     : Token fun, List<Param> formals, Stmt body | String[] paramSlotNames = null, boolean captures = true, Stmt.Function function = null, LoxFunction shared = null",
+        "PropAccess : Expr left, Token property | InlineCache cache = null",
         "PropSet    : Expr object, Token property, Expr value",
-        "This       : Token keyword",
-        "Super      : Token keyword, Token property, Stmt classOrModStmt",
+        "This       : Token keyword | int depth = -1, int slot = -1",
+        "Super      : Token keyword, Token property, Stmt classOrModStmt | int depth = -1, int slot = -1, InlineCache cache = null",
         "SplatCall  : Token splat, Expr expression",
         "KeywordArg : Token name, Expr expression"
     ));
-    defineAst(outputDir, "Stmt", Arrays.asList(
+    defineAst(outputDir, "Stmt", STMT_TAG_START, Arrays.asList(
         "Expression : Expr expression",
         "Print      : Token keyword, Expr expression",
-        "Var        : Token keyword, List<Token> names, List<Expr> initializers",
-        "Block      : Token token, List<Stmt> statements",
+        "Var        : Token keyword, List<Token> names, List<Expr> initializers | int[] slots = null",
+        "Block      : Token token, List<Stmt> statements | String[] slotNames = null, boolean hasClosures = false", // slotNames null: no scope of its own
         "If         : Token keyword, Expr condition, Stmt ifBranch, Stmt elseBranch",
-        "While      : Token keyword, Expr condition, Stmt body",
-        "For        : Token keyword, Stmt initializer, Expr test, Expr increment, Stmt body",
-        "Foreach    : Token keyword, List<Token> variables, Expr obj, Block body",
+        "While      : Token keyword, Expr condition, Stmt body | Jit.Profile profile = null",
+        "For        : Token keyword, Stmt initializer, Expr test, Expr increment, Stmt body | String[] slotNames = null, Jit.Profile profile = null", // slotNames null: no scope of its own
+        "Foreach    : Token keyword, List<Token> variables, Expr obj, Block body | String[] slotNames = null",
         "Continue   : Token keyword, Stmt loopStmt", // in while/for/foreach stmts
         "Break      : Token keyword, Stmt loopStmt", // in while/for/foreach stmts
-        "Function   : Token name, List<Param> formals, Stmt body, Parser.FunctionType type, Class klass",
+        "Function   : Token name, List<Param> formals, Stmt body, Parser.FunctionType type, Class klass | int slot = -1, String[] paramSlotNames = null, BindingPlan plan = null, Jit.Profile profile = null",
         "Return     : Token keyword, Expr expression",
-        "Class      : Token name, Expr.Variable superClassVar, Object superClass, List<Stmt> body",
-        "Module     : Token name, List<Stmt> body",
+        "Class      : Token name, Expr.Variable superClassVar, Object superClass, List<Stmt> body | String[] slotNames = null",
+        "Module     : Token name, List<Stmt> body | String[] slotNames = null",
         "Try        : Token keyword, Block tryBlock, List<Catch> catchStmts",
-        "Catch      : Token keyword, Expr catchExpr, Expr.Variable catchVar, Block block", // TODO: add token
+        "Catch      : Token keyword, Expr catchExpr, Expr.Variable catchVar, Block block | String[] slotNames = null", // TODO: add token
         "Throw      : Token keyword, Expr throwExpr",
-        "In         : Token keyword, Expr object, List<Stmt> body"
+        "In         : Token keyword, Expr object, List<Stmt> body | String[] slotNames = null"
     ));
   }
 
-  private static void defineAst(String outputDir, String baseName,
+  private static void defineAst(String outputDir, String baseName, int firstTag,
           List<String> types) throws IOException {
       String path = outputDir + "/" + baseName + ".java";
       PrintWriter writer = new PrintWriter(path, "UTF-8");
 
       writer.println("package com.craftinginterpreters.lox;");
       writer.println("");
+      writer.println("import java.io.IOException;");
       writer.println("import java.util.List;");
       writer.println("");
 
       writer.println("abstract class " + baseName + " {");
 
       defineVisitor(writer, baseName, types);
+      defineRead(writer, baseName, firstTag, types);
 
+      int tag = firstTag;
       for (String type : types) {
           String className = type.split(":")[0].trim();
-          String fields = type.split(":")[1].trim();
-          defineType(writer, baseName, className, fields);
+          String[] fieldSpecs = type.split(":")[1].split("\\|");
+          String fields = fieldSpecs[0].trim();
+          String resolvedFields = null;
+          if (fieldSpecs.length > 1) {
+              resolvedFields = fieldSpecs[1].trim();
+          }
+          defineType(writer, baseName, className, tag++, fields, resolvedFields);
       }
 
       // The base accept() method
       writer.println("");
       writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+      writer.println("  abstract void write(AstFile.Writer out) throws IOException;");
 
       writer.println("}");
       writer.close();
@@ -93,13 +115,28 @@ public class GenerateAst {
           writer.println("    R visit" + typeName + baseName + "(" +
                   typeName + " " + baseName.toLowerCase() + ");");
       }
-      writer.println("    void beforeVisit(Object obj);");
-      writer.println("    void afterVisit(Object obj);");
 
       writer.println("  }");
   }
 
-  private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+  // Reads the node written with the given tag, see AstFile
+  private static void defineRead(PrintWriter writer, String baseName, int firstTag, List<String> types) {
+      writer.println("");
+      writer.println("  static final int FIRST_TAG = " + firstTag + ";");
+      writer.println("");
+      writer.println("  static " + baseName + " read(AstFile.Reader in, int tag) throws IOException {");
+      writer.println("    switch (tag) {");
+      int tag = firstTag;
+      for (String type : types) {
+          String typeName = type.split(":")[0].trim();
+          writer.println("      case " + tag++ + ": return " + typeName + ".read(in);");
+      }
+      writer.println("      default: throw new IOException(\"bad " + baseName + " tag: \" + tag);");
+      writer.println("    }");
+      writer.println("  }");
+  }
+
+  private static void defineType(PrintWriter writer, String baseName, String className, int tag, String fieldList, String resolvedFieldList) {
       writer.println("  static class " + className + " extends " + baseName + " {");
 
       // constructor
@@ -114,21 +151,128 @@ public class GenerateAst {
 
       writer.println("    }");
 
-      // Visitor pattern
+      // Visitor pattern. Tracing for the debugger is done by the
+      // Interpreter itself, see Interpreter#evaluate.
       writer.println();
       writer.println("    <R> R accept(Visitor<R> visitor) {");
-      writer.println("      visitor.beforeVisit((Object)this);");
-      writer.println("      R ret = visitor.visit" + className + baseName + "(this);");
-      writer.println("      visitor.afterVisit((Object)this);");
-      writer.println("      return ret;");
+      writer.println("      return visitor.visit" + className + baseName + "(this);");
       writer.println("    }");
 
+      defineWriteAndRead(writer, className, tag, fields, persistedFields(resolvedFieldList));
+
       // Fields
       writer.println("");
       for (String field : fields) {
           writer.println("    public " + field + ";");
       }
+      if (resolvedFieldList != null) {
+          for (String field : resolvedFieldList.split(", ")) {
+              writer.println("    public " + field + ";");
+          }
+      }
 
       writer.println("  }");
   }
+
+  // The resolved fields that are saved with the node in an AstFile: the
+  // Resolver's scope layouts and slots. The others are caches filled in at
+  // runtime.
+  private static String[] persistedFields(String resolvedFieldList) {
+      if (resolvedFieldList == null) {
+          return new String[0];
+      }
+      List<String> ret = new java.util.ArrayList<>();
+      for (String field : resolvedFieldList.split(", ")) {
+          String[] typeAndName = field.split(" ");
+          String type = typeAndName[0];
+          if (type.equals("int") || type.equals("boolean") ||
+                  type.equals("String[]") || type.equals("int[]")) {
+              ret.add(type + " " + typeAndName[1]);
+          }
+      }
+      return ret.toArray(new String[ret.size()]);
+  }
+
+  private static void defineWriteAndRead(PrintWriter writer, String className,
+          int tag, String[] fields, String[] persisted) {
+      writer.println();
+      writer.println("    void write(AstFile.Writer out) throws IOException {");
+      writer.println("      out.startNode(this, " + tag + ");");
+      for (String field : fields) {
+          String[] typeAndName = field.split(" ");
+          writer.println("      " + writeCall(typeAndName[0], typeAndName[1]) + ";");
+      }
+      for (String field : persisted) {
+          String[] typeAndName = field.split(" ");
+          writer.println("      " + writeCall(typeAndName[0], typeAndName[1]) + ";");
+      }
+      writer.println("    }");
+
+      writer.println();
+      writer.println("    static " + className + " read(AstFile.Reader in) throws IOException {");
+      writer.println("      int id = in.nextId();");
+      StringBuilder args = new StringBuilder();
+      for (String field : fields) {
+          String[] typeAndName = field.split(" ");
+          String type = typeAndName[0];
+          String name = typeAndName[1];
+          if (args.length() > 0) args.append(", ");
+          if (BACK_REFS.contains(name)) {
+              writer.println("      int " + name + " = in.readRef();");
+              args.append("null");
+          } else {
+              writer.println("      " + type + " " + name + " = " + readCall(type) + ";");
+              args.append(name);
+          }
+      }
+      writer.println("      " + className + " node = new " + className + "(" + args + ");");
+      for (String field : fields) {
+          String[] typeAndName = field.split(" ");
+          String name = typeAndName[1];
+          if (BACK_REFS.contains(name)) {
+              writer.println("      in.resolveRef(" + name + ", target -> node." + name +
+                  " = (" + typeAndName[0] + ")target);");
+          }
+      }
+      for (String field : persisted) {
+          String[] typeAndName = field.split(" ");
+          writer.println("      node." + typeAndName[1] + " = " + readCall(typeAndName[0]) + ";");
+      }
+      writer.println("      in.define(id, node);");
+      writer.println("      return node;");
+      writer.println("    }");
+  }
+
+  private static String writeCall(String type, String name) {
+      if (BACK_REFS.contains(name)) return "out.writeRef(" + name + ")";
+      switch (type) {
+          case "int": return "out.writeInt(" + name + ")";
+          case "boolean": return "out.writeBoolean(" + name + ")";
+          case "String[]": return "out.writeStrings(" + name + ")";
+          case "int[]": return "out.writeInts(" + name + ")";
+          case "Token": return "out.writeToken(" + name + ")";
+          case "Object": return "out.writeValue(" + name + ")";
+          case "List<Token>": return "out.writeTokens(" + name + ")";
+          case "List<Param>": return "out.writeParams(" + name + ")";
+          case "Parser.FunctionType": return "out.writeEnum(" + name + ")";
+      }
+      if (type.startsWith("List<")) return "out.writeNodes(" + name + ")";
+      return "out.writeNode(" + name + ")";
+  }
+
+  private static String readCall(String type) {
+      switch (type) {
+          case "int": return "in.readInt()";
+          case "boolean": return "in.readBoolean()";
+          case "String[]": return "in.readStrings()";
+          case "int[]": return "in.readInts()";
+          case "Token": return "in.readToken()";
+          case "Object": return "in.readValue()";
+          case "List<Token>": return "in.readTokens()";
+          case "List<Param>": return "in.readParams()";
+          case "Parser.FunctionType": return "in.readEnum(Parser.FunctionType.values())";
+      }
+      if (type.startsWith("List<")) return "in.readNodes()";
+      return "(" + type + ")in.readNode()";
+  }
 }